@@ -1,10 +1,11 @@
-from time import sleep
+from time import sleep, time
 from os import environ as env
 from pathlib import Path
 import random
 import shutil
 import threading
 import hashlib
+import struct
 import logging
 from uuid import uuid4
 
@@ -20,6 +21,18 @@ app = Flask(__name__)
 fs_lock = threading.Lock()
 temp_uuid = uuid4().hex
 
+REPORT_BATCH_SIZE = 10_000
+# Files modified less than this many seconds before a full chunk report are reported as recent, the metaserver
+# does not delete them if they are unregistered because their registration may still be in progress
+REPORT_RECENT_AGE = 60 * 60
+# Sequence number of the last processed deletion journal entry. It is not persisted, after a restart
+# the journal is read again from the oldest entry the metaserver has not seen acknowledged.
+deletion_cursor = 0
+# Chunks written while a full chunk report is running, or None if no report is running
+report_writes = None
+# Chunks that were requested but not found on disk, to be reported to the metaserver
+missing_chunks = set()
+
 
 def verify_request_auth(typ):
     if 'node_token' not in request.args:
@@ -52,6 +65,15 @@ def get_chunk_path(chunk_id, mkdirs=False) -> Path:
     return Path(dirs, file_4)
 
 
+def chunk_written(chunk_id):
+    """
+    Must be called with fs_lock held, after a chunk is written
+    """
+    missing_chunks.discard(chunk_id)
+    if report_writes is not None:
+        report_writes.add(chunk_id)
+
+
 def get_temp_path(temp_id) -> Path:
     # prevent directory traversal by ensuring temp_id is int
     return Path('/tmp/eclipfs-chunkserver-' + temp_uuid + '-' + str(int(temp_id)) + '.efs')
@@ -70,6 +92,7 @@ def read_chunk(chunk_id):
     path = get_chunk_path(chunk_id)
     if not path.exists():
         log.warning('Path %s not found!', path)
+        missing_chunks.add(chunk_id)
         return None
     with path.open('rb') as file:
         data = file.read()
@@ -137,10 +160,63 @@ def finalize():
     new_path = get_chunk_path(chunk_id, mkdirs=True)
 
     shutil.move(temp_path, new_path)
+    chunk_written(chunk_id)
     fs_lock.release()
     return Response('ok', content_type='text/plain')
 
 
+@app.route('/verify', methods=['POST'])
+def verify():
+    """
+    Read chunks from disk and compare them to the checksums sent by the metaserver. Responds with
+    the ids of chunks that are corrupt or missing. Nothing is deleted, the metaserver unregisters
+    the chunks after which they are deleted through the deletion journal.
+    """
+    verify_request_auth('read')
+
+    if not request.json or 'chunks' not in request.json:
+        abort(400, "Missing 'chunks' in json body")
+
+    corrupt = []
+    missing = []
+    for chunk in request.json['chunks']:
+        chunk_id = int(chunk['id'])
+        path = get_chunk_path(chunk_id)
+        fs_lock.acquire()
+        if path.exists():
+            with path.open('rb') as file:
+                checksum = hashlib.md5(file.read()).hexdigest()
+            fs_lock.release()
+            if checksum != chunk['checksum']:
+                log.warning('Scrub: checksum mismatch for chunk %s', chunk_id)
+                corrupt.append(chunk_id)
+        else:
+            fs_lock.release()
+            log.warning('Scrub: chunk %s not found', chunk_id)
+            missing.append(chunk_id)
+
+    return {'corrupt': corrupt, 'missing': missing}
+
+
+@app.route('/discard', methods=['POST'])
+def discard():
+    """
+    Delete temporary files of uploads that were never finalized
+    """
+    verify_request_auth('write')
+
+    if not request.json or 'temp_ids' not in request.json:
+        abort(400, "Missing 'temp_ids' in json body")
+
+    fs_lock.acquire()
+    for temp_id in request.json['temp_ids']:
+        get_temp_path(temp_id).unlink(missing_ok=True)
+    fs_lock.release()
+
+    log.info('Discarded %s unfinished uploads', len(request.json['temp_ids']))
+    return Response('ok', content_type='text/plain')
+
+
 @app.route('/download', methods=['GET'])
 def download():
     verify_request_auth('read')
@@ -159,10 +235,102 @@ def download():
         return abort(404, 'Chunk not found. Is the token valid and of the correct length?')
 
 
+@app.route('/download_batch', methods=['POST'])
+def download_batch():
+    """
+    Download multiple chunks in a single request, used for replication. For each
+    requested chunk the response contains the chunk id (8 bytes), the data length
+    (4 bytes, -1 if this node does not have the chunk) and the chunk data.
+    """
+    verify_request_auth('read')
+
+    if not request.json or 'chunks' not in request.json:
+        abort(400, "Missing 'chunks' in json body")
+
+    chunk_ids = [int(chunk_id) for chunk_id in request.json['chunks']]
+
+    def generate():
+        for chunk_id in chunk_ids:
+            fs_lock.acquire()
+            data = read_chunk(chunk_id)
+            fs_lock.release()
+            if data is None:
+                yield struct.pack('>qi', chunk_id, -1)
+            else:
+                yield struct.pack('>qi', chunk_id, len(data))
+                yield data
+
+    return Response(generate(), content_type='application/octet-stream')
+
+
+def read_exact(stream, length):
+    data = b''
+    while len(data) < length:
+        part = stream.read(length - len(data))
+        if not part:
+            raise EOFError('Unexpected end of batch download')
+        data += part
+    return data
+
+
+def replicate_batch():
+    """
+    Replicate multiple chunks from one source node using a single download request.
+    Json body contains the source node address and read token, and a list of chunks
+    with id and checksum. Responds with the ids of chunks that were replicated.
+    """
+    for key in ['address', 'node_token', 'chunks']:
+        if key not in request.json:
+            abort(400, f"Missing '{key}' in json body")
+
+    checksums = {int(chunk['id']): chunk['checksum'] for chunk in request.json['chunks']}
+    address = request.json['address'] + '/download_batch?node_token=' + request.json['node_token']
+
+    log.debug('batch replication request: %s chunks from %s', len(checksums), request.json['address'])
+
+    replicated = []
+    try:
+        r = requests.post(address, json={'chunks': list(checksums.keys())}, stream=True)
+        if r.status_code != 200:
+            log.warning('Failed to make batch replication request to %s: %s', address, r.text)
+            abort(500, r.text)
+
+        for _i in range(len(checksums)):
+            (chunk_id, length) = struct.unpack('>qi', read_exact(r.raw, 12))
+            if length == -1:
+                log.warning('Source node does not have chunk %s', chunk_id)
+                continue
+
+            data = read_exact(r.raw, length)
+            if chunk_id not in checksums:
+                log.warning('Source node sent unrequested chunk %s', chunk_id)
+                continue
+
+            if hashlib.md5(data).hexdigest() != checksums[chunk_id]:
+                log.warning('Checksum mismatch for chunk %s', chunk_id)
+                continue
+
+            fs_lock.acquire()
+            path = get_chunk_path(chunk_id, mkdirs=True)
+            log.info('Replication: writing to %s', path)
+            with open(path, 'wb') as file:
+                file.write(data)
+            chunk_written(chunk_id)
+            fs_lock.release()
+            replicated.append(chunk_id)
+    except (RequestException, EOFError) as e:
+        log.warning('Batch replication from %s failed after %s chunks: %s', address, len(replicated), e)
+
+    return {'replicated': replicated}
+
+
 @app.route('/replicate', methods=['POST'])
 def replicate():
     verify_request_auth('write')
 
+    if request.is_json:
+        return replicate_batch()
+
     if 'chunk' not in request.args:
         abort(400, "Missing 'chunk' parameter")
 
@@ -191,6 +359,7 @@ def replicate():
             log.info('Replication: writing to %s', path)
             with open(path, 'wb') as file:
                 file.write(data)
+            chunk_written(chunk_id)
 
             fs_lock.release()
 
@@ -277,9 +446,171 @@ def garbage_collect():
         log.warning('Unable to contact metaserver for garbage collection: %s', e)
 
 
+def process_deletions():
+    global deletion_cursor
+    try:
+        while True:
+            fs_lock.acquire()
+            (success, response, error_message) = dsnapi.get('deletedChunks', data={'cursor': deletion_cursor})
+            if not success:
+                log.error('Deletion journal error %s %s', response, error_message)
+                fs_lock.release()
+                return
+
+            chunks = response['chunks']
+            if len(chunks) > 0:
+                log.info('Deletion journal - deleting %s files', len(chunks))
+            for chunk_id in chunks:
+                to_delete = get_chunk_path(chunk_id)
+                log.debug('deleting file %s', to_delete)
+                to_delete.unlink(missing_ok=True)
+
+            fs_lock.release()
+
+            if response['cursor'] == deletion_cursor:
+                return
+            deletion_cursor = response['cursor']
+    except (requests.ConnectionError, RequestException) as e:
+        fs_lock.release()
+        log.warning('Unable to contact metaserver for deletion journal: %s', e)
+
+
+def delta_encode(chunk_ids):
+    """
+    Sort chunk ids and replace each id by its difference to the previous id, which makes
+    large reports much smaller
+    """
+    encoded = []
+    previous = 0
+    for chunk_id in sorted(chunk_ids):
+        encoded.append(chunk_id - previous)
+        previous = chunk_id
+    return encoded
+
+
+def list_dir(path: Path):
+    # Empty directories may be removed by garbage collection while they are being listed
+    try:
+        return list(path.iterdir())
+    except FileNotFoundError:
+        return []
+
+
+def list_chunk_dirs():
+    base = Path(env['DATA_DIR'])
+    for dir_1 in list_dir(base):
+        for dir_2 in list_dir(dir_1):
+            for dir_3 in list_dir(dir_2):
+                yield (dir_3, int(dir_1.name) * 1_000_000_000 + int(dir_2.name) * 1_000_000 + int(dir_3.name) * 1_000)
+
+
+def is_recent(file: Path, since):
+    try:
+        return file.stat().st_mtime >= since
+    except FileNotFoundError:
+        # Deleted while listing, still reported so the metaserver does not unregister it before the deletion is journaled
+        return True
+
+
+def send_chunk_report(chunks, recent, first, last):
+    (success, response, error_message) = dsnapi.get('reportChunks', data={'chunks': delta_encode(chunks),
+                                                                        'recent': delta_encode(recent),
+                                                                        'first': first,
+                                                                        'last': last})
+    if not success:
+        raise RequestException(f'{response} {error_message}')
+
+
+def full_chunk_report():
+    """
+    Send the ids of all chunks stored on this node to the metaserver, in batches. Chunks written
+    after a directory has been listed are sent with the last batch. Chunks written shortly before or
+    during the report are sent as recent.
+    """
+    global report_writes
+    fs_lock.acquire()
+    if report_writes is not None:
+        fs_lock.release()
+        log.info('Full chunk report is already running')
+        return
+    report_writes = set()
+    fs_lock.release()
+
+    log.info('Starting full chunk report')
+    recent_since = time() - REPORT_RECENT_AGE
+    total = 0
+    first = True
+    batch = []
+    recent = []
+    try:
+        for (path, base_int) in list_chunk_dirs():
+            fs_lock.acquire()
+            for file in list_dir(path):
+                if file.name.endswith('.efs'):
+                    chunk_id = base_int + int(file.name[:-4])
+                    if is_recent(file, recent_since):
+                        recent.append(chunk_id)
+                    else:
+                        batch.append(chunk_id)
+            fs_lock.release()
+            if len(batch) + len(recent) >= REPORT_BATCH_SIZE:
+                send_chunk_report(batch, recent, first, False)
+                total += len(batch) + len(recent)
+                first = False
+                batch = []
+                recent = []
+
+        fs_lock.acquire()
+        recent.extend(report_writes)
+        report_writes = None
+        fs_lock.release()
+        send_chunk_report(batch, recent, first, True)
+        total += len(batch) + len(recent)
+        log.info('Full chunk report done, sent %s chunks', total)
+    except (requests.ConnectionError, RequestException) as e:
+        log.warning('Unable to send full chunk report to metaserver: %s', e)
+        fs_lock.acquire()
+        report_writes = None
+        fs_lock.release()
+
+
+def report_missing_chunks():
+    fs_lock.acquire()
+    chunks = list(missing_chunks)
+    missing_chunks.clear()
+    fs_lock.release()
+
+    if len(chunks) == 0:
+        return
+
+    log.info('Reporting %s missing chunks', len(chunks))
+    try:
+        (success, response, error_message) = dsnapi.get('reportMissingChunks', data={'chunks': delta_encode(chunks)})
+        if success:
+            return
+        log.warning('Unable to report missing chunks: %s %s', response, error_message)
+    except (requests.ConnectionError, RequestException) as e:
+        log.warning('Unable to report missing chunks: %s', e)
+
+    fs_lock.acquire()
+    missing_chunks.update(chunks)
+    fs_lock.release()
+
+
+def start_full_chunk_report():
+    # Runs in its own thread, so announcements are not delayed on large nodes
+    t = threading.Thread(target=full_chunk_report, args=[])
+    t.daemon = True
+    t.start()
+
+
 def timers():
     announce()
     schedule.every(10).to(13).seconds.do(announce)
+    schedule.every(10).to(15).seconds.do(process_deletions)
+    schedule.every(10).to(15).seconds.do(report_missing_chunks)
+    start_full_chunk_report()
+    schedule.every(6).hours.do(start_full_chunk_report)
     schedule.every(60).to(120).seconds.do(garbage_collect)
     while True:
         schedule.run_pending()
@@ -0,0 +1,70 @@
+package eclipfs.metaserver.erasure;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encode and decode throughput of the Reed-Solomon codec, for one chunk per operation.
+ *
+ * mvn -P benchmark package
+ * java -cp target/eclipfs.jar org.openjdk.jmh.Main ReedSolomonBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReedSolomonBenchmark {
+
+	@Param({"4+2", "6+3", "10+4"})
+	public String layout;
+
+	@Param({"1000000", "4000000"})
+	public int chunkSize;
+
+	private ReedSolomon codec;
+	private byte[] data;
+	private byte[][] shards;
+	private boolean[] present;
+
+	@Setup
+	public void setup() {
+		final String[] split = this.layout.split("\\+");
+		this.codec = new ReedSolomon(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+		this.data = new byte[this.chunkSize];
+		new Random(0).nextBytes(this.data);
+		this.shards = this.codec.encode(this.data);
+
+		// Worst case for decoding: as many data shards missing as there are parity shards
+		this.present = new boolean[this.codec.getTotalShards()];
+		for (int i = 0; i < this.present.length; i++) {
+			this.present[i] = i >= Math.min(this.codec.getParityShards(), this.codec.getDataShards());
+		}
+	}
+
+	@Benchmark
+	public void encode(final Blackhole blackhole) {
+		blackhole.consume(this.codec.encode(this.data));
+	}
+
+	@Benchmark
+	public void decode(final Blackhole blackhole) {
+		this.codec.decodeMissing(this.shards, this.present, 0, this.shards[0].length);
+		blackhole.consume(this.shards);
+	}
+
+}
@@ -0,0 +1,272 @@
+package eclipfs.metaserver;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.model.ClientLocation;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Finds the location of a client from its IP address, for clients that don't send a location
+ * themselves. Ranges are kept in a table sorted by start address, so a lookup is a binary search
+ * followed by a walk up to enclosing ranges, the most specific range wins. When the request comes
+ * from a proxy listed in the TRUSTED_PROXIES environment variable (comma separated CIDR ranges),
+ * the client address is taken from the X-Forwarded-For header.
+ */
+public class ClientLocations {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Client locations");
+
+	private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+	private static final Pattern IPV6 = Pattern.compile("[0-9a-fA-F:.]*:[0-9a-fA-F:.]*");
+	// IPv4 addresses are stored as IPv4-mapped IPv6 addresses, ::ffff:0:0/96
+	private static final byte[] IPV4_MAPPED_PREFIX = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff};
+
+	private static final Table<Boolean> TRUSTED_PROXIES = parseTrustedProxies();
+	private static Table<String> locations = null;
+
+	public static synchronized void reload() throws SQLException {
+		final List<Prefix<String>> prefixes = new ArrayList<>();
+		for (final ClientLocation location : ClientLocation.list()) {
+			final Optional<Prefix<String>> prefix = parsePrefix(location.getCidr(), location.getLocation());
+			if (prefix.isPresent()) {
+				prefixes.add(prefix.get());
+			} else {
+				LOGGER.warn("Ignoring invalid range {}", location.getCidr());
+			}
+		}
+		locations = new Table<>(prefixes);
+	}
+
+	private static synchronized Table<String> getLocations() throws SQLException {
+		if (locations == null) {
+			reload();
+		}
+		return locations;
+	}
+
+	private static Table<Boolean> parseTrustedProxies() {
+		final List<Prefix<Boolean>> prefixes = new ArrayList<>();
+		final String env = System.getenv("TRUSTED_PROXIES");
+		if (env != null) {
+			for (final String cidr : env.split(",")) {
+				if (cidr.isBlank()) {
+					continue;
+				}
+				final Optional<Prefix<Boolean>> prefix = parsePrefix(cidr.trim(), true);
+				if (prefix.isPresent()) {
+					prefixes.add(prefix.get());
+				} else {
+					LOGGER.warn("Ignoring invalid trusted proxy range {}", cidr);
+				}
+			}
+		}
+		return new Table<>(prefixes);
+	}
+
+	/**
+	 * @return Location of the range the client address is in, if any
+	 */
+	public static Optional<String> getLocation(final HttpServletRequest request) throws SQLException {
+		final Optional<byte[]> address = getClientAddress(request);
+		if (address.isEmpty()) {
+			return Optional.empty();
+		}
+		return getLocations().lookup(address.get());
+	}
+
+	private static Optional<byte[]> getClientAddress(final HttpServletRequest request) {
+		final Optional<byte[]> remote = parseAddress(request.getRemoteAddr());
+		if (remote.isEmpty()) {
+			return Optional.empty();
+		}
+
+		// Each proxy appends the address it received the request from, so the header is read from
+		// right to left, for as long as the address is a trusted proxy.
+		final List<String> hops = new ArrayList<>();
+		for (final String header : Collections.list(request.getHeaders("X-Forwarded-For"))) {
+			for (final String hop : header.split(",")) {
+				hops.add(hop.trim());
+			}
+		}
+
+		byte[] address = remote.get();
+		for (int i = hops.size() - 1; i >= 0 && TRUSTED_PROXIES.lookup(address).isPresent(); i--) {
+			final Optional<byte[]> hop = parseAddress(hops.get(i));
+			if (hop.isEmpty()) {
+				break;
+			}
+			address = hop.get();
+		}
+		return Optional.of(address);
+	}
+
+	/**
+	 * Parse an IP address literal. Host names are not accepted, so this never does a DNS lookup.
+	 * @return 16 byte address
+	 */
+	private static Optional<byte[]> parseAddress(String string) {
+		if (string == null) {
+			return Optional.empty();
+		}
+		if (string.startsWith("[") && string.endsWith("]")) {
+			string = string.substring(1, string.length() - 1);
+		}
+		if (IPV4.matcher(string).matches()) {
+			// Parsed here, InetAddress treats out of range octets like 999.1.1.1 as a host name
+			final String[] octets = string.split("\\.");
+			final byte[] mapped = Arrays.copyOf(IPV4_MAPPED_PREFIX, 16);
+			for (int i = 0; i < 4; i++) {
+				final int octet = Integer.parseInt(octets[i]);
+				if (octet > 255) {
+					return Optional.empty();
+				}
+				mapped[12 + i] = (byte) octet;
+			}
+			return Optional.of(mapped);
+		}
+		if (!IPV6.matcher(string).matches()) {
+			return Optional.empty();
+		}
+		// Contains a colon, so InetAddress parses it as an IPv6 literal without a DNS lookup
+		final InetAddress address;
+		try {
+			address = InetAddress.getByName(string);
+		} catch (final UnknownHostException e) {
+			return Optional.empty();
+		}
+		if (address instanceof Inet4Address) {
+			final byte[] mapped = Arrays.copyOf(IPV4_MAPPED_PREFIX, 16);
+			System.arraycopy(address.getAddress(), 0, mapped, 12, 4);
+			return Optional.of(mapped);
+		}
+		return Optional.of(address.getAddress());
+	}
+
+	public static boolean isValidCidr(final String cidr) {
+		return parsePrefix(cidr, true).isPresent();
+	}
+
+	/**
+	 * Parse a range in CIDR notation. A plain address is a range of one address.
+	 * @return Range, or empty if invalid or if the address has bits set after the prefix
+	 */
+	private static <T> Optional<Prefix<T>> parsePrefix(final String cidr, final T value) {
+		final String[] parts = cidr.split("/", -1);
+		if (parts.length > 2) {
+			return Optional.empty();
+		}
+		final Optional<byte[]> optAddress = parseAddress(parts[0]);
+		if (optAddress.isEmpty()) {
+			return Optional.empty();
+		}
+		final boolean ipv4 = IPV4.matcher(parts[0]).matches();
+		final int maxLength = ipv4 ? 32 : 128;
+		int length = maxLength;
+		if (parts.length == 2) {
+			try {
+				length = Integer.parseInt(parts[1]);
+			} catch (final NumberFormatException e) {
+				return Optional.empty();
+			}
+			if (length < 0 || length > maxLength) {
+				return Optional.empty();
+			}
+		}
+		if (ipv4) {
+			length += 96;
+		}
+
+		final byte[] start = optAddress.get();
+		final byte[] end = start.clone();
+		for (int bit = length; bit < 128; bit++) {
+			if ((start[bit / 8] & (0x80 >> (bit % 8))) != 0) {
+				return Optional.empty();
+			}
+			end[bit / 8] |= 0x80 >> (bit % 8);
+		}
+		return Optional.of(new Prefix<>(start, end, length, value));
+	}
+
+	private static class Prefix<T> {
+
+		private final byte[] start;
+		private final byte[] end;
+		private final int length;
+		private final T value;
+
+		private Prefix(final byte[] start, final byte[] end, final int length, final T value) {
+			this.start = start;
+			this.end = end;
+			this.length = length;
+			this.value = value;
+		}
+
+		private boolean contains(final byte[] address) {
+			return Arrays.compareUnsigned(this.start, address) <= 0 && Arrays.compareUnsigned(address, this.end) <= 0;
+		}
+
+	}
+
+	/**
+	 * Ranges sorted by start address, and for equal start addresses from large to small. CIDR ranges
+	 * either contain each other or don't overlap, so the ranges containing an address are the last
+	 * range starting at or before it and its enclosing ranges.
+	 */
+	private static class Table<T> {
+
+		private final List<Prefix<T>> prefixes;
+		// Index of the smallest range enclosing each range, or -1
+		private final int[] parents;
+
+		private Table(final List<Prefix<T>> prefixes) {
+			this.prefixes = new ArrayList<>(prefixes);
+			this.prefixes.sort(Comparator.<Prefix<T>, byte[]>comparing(p -> p.start, Arrays::compareUnsigned).thenComparingInt(p -> p.length));
+			this.parents = new int[this.prefixes.size()];
+			final Deque<Integer> enclosing = new ArrayDeque<>();
+			for (int i = 0; i < this.prefixes.size(); i++) {
+				while (!enclosing.isEmpty() && !this.prefixes.get(enclosing.peek()).contains(this.prefixes.get(i).start)) {
+					enclosing.pop();
+				}
+				this.parents[i] = enclosing.isEmpty() ? -1 : enclosing.peek();
+				enclosing.push(i);
+			}
+		}
+
+		private Optional<T> lookup(final byte[] address) {
+			int low = 0;
+			int high = this.prefixes.size() - 1;
+			int index = -1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				if (Arrays.compareUnsigned(this.prefixes.get(mid).start, address) <= 0) {
+					index = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+
+			while (index >= 0 && !this.prefixes.get(index).contains(address)) {
+				index = this.parents[index];
+			}
+			return index >= 0 ? Optional.of(this.prefixes.get(index).value) : Optional.empty();
+		}
+
+	}
+
+}
@@ -74,7 +74,10 @@ public class Database {
 	}
 
 	public static Connection getConnection() throws SQLException {
-		return ds.getConnection();
+		final long start = System.nanoTime();
+		final Connection conn = ds.getConnection();
+		ReplicationThrottle.recordPoolWait(System.nanoTime() - start);
+		return conn;
 	}
 
 }
@@ -0,0 +1,243 @@
+package eclipfs.metaserver;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.erasure.ReedSolomon;
+import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.ChunkStripe;
+import eclipfs.metaserver.model.ChunkStripe.Shard;
+import eclipfs.metaserver.model.File;
+import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.OnlineNode;
+
+/**
+ * Conversion of chunks to an erasure coded layout, and reconstruction of lost shards. Nodes only
+ * store and serve opaque data, so encoding and decoding happens on the metaserver: chunks are
+ * written as normal copies by clients, then downloaded, encoded and uploaded as shards by
+ * replication.
+ */
+public class ErasureCoding {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Erasure coding");
+
+	/**
+	 * Find chunks of erasure coded files that have not been encoded yet, and encoded chunks
+	 * with shards that are missing or on failed or draining nodes. Deduplicated and inline chunks are
+	 * skipped, their data is stored by another chunk or in the database. Chunks with deduplicated copies
+	 * in files that are not erasure coded are kept as full copies.
+	 */
+	static void addPendingChunks(final Deque<Long> queue, final int limit) throws SQLException {
+		final List<Long> excludedNodes = Node.listFailedNodeIds();
+		excludedNodes.addAll(Node.listDrainingNodeIds());
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT chunk.id \n"
+						+ "FROM chunk \n"
+						+ "	JOIN inode ON chunk.file=inode.id \n"
+						+ "	LEFT JOIN chunk_stripe ON chunk_stripe.chunk=chunk.id \n"
+						+ "WHERE chunk.data IS NULL AND chunk.inline_data IS NULL \n"
+						+ "	AND ((chunk_stripe.chunk IS NULL AND inode.erasure_data > 0 AND NOT " + Chunk.REPLICATED_DEPENDENTS_SQL + ") \n"
+						+ "	OR (chunk_stripe.chunk IS NOT NULL AND chunk_stripe.data_shards + chunk_stripe.parity_shards > \n"
+						+ "		(SELECT COUNT(*) FROM chunk_shard WHERE chunk_shard.chunk=chunk.id AND NOT chunk_shard.node = ANY(?)))) \n"
+						+ "ORDER BY chunk.id LIMIT ?")) {
+			query.setArray(1, conn.createArrayOf("bigint", excludedNodes.toArray()));
+			query.setInt(2, limit);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				queue.add(result.getLong(1));
+			}
+		}
+	}
+
+	/**
+	 * Replace full copies of a chunk by data and parity shards, using the erasure coding layout of its file
+	 * @return Whether the chunk was encoded
+	 */
+	static boolean encode(final Chunk chunk) throws SQLException, IOException {
+		final File file = chunk.getFile();
+		final ReedSolomon codec = new ReedSolomon(file.getErasureDataShards(), file.getErasureParityShards());
+
+		Optional<byte[]> optData = Optional.empty();
+		for (final OnlineNode node : chunk.getOnlineNodes()) {
+			optData = node.downloadChunk(chunk.getId(), LOGGER).filter(d -> Arrays.equals(md5(d), chunk.getChecksum()));
+			if (optData.isPresent()) {
+				break;
+			}
+		}
+
+		if (optData.isEmpty()) {
+			LOGGER.warn("Cannot encode chunk {}, no online node has a valid copy", chunk.getId());
+			return false;
+		}
+
+		final List<OnlineNode> nodes = Nodes.selectSpreadNodes(codec.getTotalShards(), List.of());
+		if (nodes.size() < codec.getTotalShards()) {
+			LOGGER.warn("Cannot encode chunk {}, need {} nodes but only {} are available", chunk.getId(), codec.getTotalShards(), nodes.size());
+			return false;
+		}
+
+		final byte[] data = optData.get();
+		final byte[][] shards = codec.encode(data);
+		final long[] shardIds = new long[shards.length];
+		final byte[][] checksums = new byte[shards.length][];
+		for (int i = 0; i < shards.length; i++) {
+			shardIds[i] = ChunkStripe.allocateShardId();
+			checksums[i] = md5(shards[i]);
+			if (!nodes.get(i).uploadShard(shardIds[i], shards[i], LOGGER)) {
+				// Shards already written are not registered, garbage collection removes them
+				LOGGER.warn("Failed to encode chunk {}, could not write shard {} to node {}", chunk.getId(), i, nodes.get(i).getName());
+				return false;
+			}
+		}
+
+		ChunkStripe.create(chunk, codec.getDataShards(), codec.getParityShards(), data.length, shardIds, nodes, checksums);
+		LOGGER.info("Encoded chunk {} as {}+{} shards", chunk.getId(), codec.getDataShards(), codec.getParityShards());
+		return true;
+	}
+
+	/**
+	 * Rebuild shards that are lost, or stored on failed or draining nodes, from the remaining shards
+	 * @return Number of shards rebuilt
+	 */
+	static int reconstruct(final Chunk chunk, final ChunkStripe stripe) throws SQLException, IOException {
+		final ReedSolomon codec = new ReedSolomon(stripe.getDataShards(), stripe.getParityShards());
+		final int shardSize = codec.getShardSize((int) stripe.getSize());
+		final byte[][] shards = new byte[codec.getTotalShards()][];
+		final boolean[] present = new boolean[codec.getTotalShards()];
+
+		int downloaded = 0;
+		for (final ShardSource source : planRead(stripe, null)) {
+			if (downloaded == codec.getDataShards()) {
+				break;
+			}
+			final Optional<byte[]> optData = source.getNode().downloadChunk(source.getShard().getId(), LOGGER)
+					.filter(d -> d.length == shardSize && Arrays.equals(md5(d), source.getShard().getChecksum()));
+			if (optData.isPresent()) {
+				shards[source.getShard().getIndex()] = optData.get();
+				present[source.getShard().getIndex()] = true;
+				downloaded++;
+			}
+		}
+
+		if (downloaded < codec.getDataShards()) {
+			LOGGER.error("Cannot reconstruct chunk {}, only {} of {} required shards could be read", chunk.getId(), downloaded, codec.getDataShards());
+			return 0;
+		}
+
+		// Shards that need to be rebuilt: lost entirely, or on a failed or draining node. Shards on nodes
+		// that are only briefly offline are left alone, like full copies during normal replication.
+		final List<Integer> rebuild = new ArrayList<>();
+		final List<Node> healthy = new ArrayList<>();
+		for (int i = 0; i < codec.getTotalShards(); i++) {
+			final Optional<Shard> shard = getShard(stripe, i);
+			final Optional<Node> node = shard.isPresent() ? Node.byId(shard.get().getNodeId()) : Optional.empty();
+			if (node.isEmpty() || OnlineNode.isFailed(node.get().getId()) || node.get().isDraining()) {
+				rebuild.add(i);
+			} else {
+				healthy.add(node.get());
+			}
+		}
+
+		if (rebuild.isEmpty()) {
+			return 0;
+		}
+
+		final List<OnlineNode> targets = Nodes.selectSpreadNodes(rebuild.size(), healthy);
+		if (targets.size() < rebuild.size()) {
+			LOGGER.warn("Not enough nodes to rebuild all shards of chunk {}, rebuilding {} of {}", chunk.getId(), targets.size(), rebuild.size());
+		}
+
+		for (int i = 0; i < shards.length; i++) {
+			if (!present[i]) {
+				shards[i] = new byte[shardSize];
+			}
+		}
+		codec.decodeMissing(shards, present, 0, shardSize);
+
+		int rebuilt = 0;
+		for (int i = 0; i < targets.size(); i++) {
+			final int index = rebuild.get(i);
+			final OnlineNode target = targets.get(i);
+			final Optional<Shard> optShard = getShard(stripe, index);
+			final long shardId = optShard.isPresent() ? optShard.get().getId() : ChunkStripe.allocateShardId();
+			if (!target.uploadShard(shardId, shards[index], LOGGER)) {
+				continue;
+			}
+			if (optShard.isPresent()) {
+				optShard.get().moveTo(target);
+			} else {
+				ChunkStripe.addShard(chunk.getId(), shardId, index, target, md5(shards[index]));
+			}
+			rebuilt++;
+		}
+
+		LOGGER.info("Rebuilt {} shards of chunk {}", rebuilt, chunk.getId());
+		return rebuilt;
+	}
+
+	/**
+	 * Choose shards to read for an erasure coded chunk. Data shards are preferred, because when all data
+	 * shards are read no decoding is needed. Other shards are preferred if they are stored topologically near the given location.
+	 * @param location Location of the reader, may be null
+	 * @return Shards on online nodes, in order of preference. The first {@link ChunkStripe#getDataShards()} entries
+	 * are enough to reconstruct the chunk. If there are fewer entries, the chunk is currently unavailable.
+	 */
+	public static List<ShardSource> planRead(final ChunkStripe stripe, final String location) {
+		final List<ShardSource> sources = new ArrayList<>();
+		for (final Shard shard : stripe.getShards()) {
+			OnlineNode.getOnlineNodeById(shard.getNodeId()).ifPresent(node -> sources.add(new ShardSource(shard, node)));
+		}
+		sources.sort(Comparator
+				.comparing((final ShardSource s) -> s.getShard().getIndex() >= stripe.getDataShards())
+				.thenComparingInt(s -> location == null ? 0 : Topology.getDistance(location, s.getNode().getLocation()))
+				.thenComparingInt(s -> s.getShard().getIndex()));
+		return sources;
+	}
+
+	private static Optional<Shard> getShard(final ChunkStripe stripe, final int index) {
+		return stripe.getShards().stream().filter(s -> s.getIndex() == index).findFirst();
+	}
+
+	private static byte[] md5(final byte[] data) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(data);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static class ShardSource {
+
+		private final Shard shard;
+		private final OnlineNode node;
+
+		private ShardSource(final Shard shard, final OnlineNode node) {
+			this.shard = shard;
+			this.node = node;
+		}
+
+		public Shard getShard() {
+			return this.shard;
+		}
+
+		public OnlineNode getNode() {
+			return this.node;
+		}
+
+	}
+
+}
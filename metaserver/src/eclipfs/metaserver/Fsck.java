@@ -0,0 +1,315 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consistency check of the chunk and chunk_writing tables. Both tables are split into id ranges
+ * that are scanned by a pool of worker threads, one page of ids per query, so a check takes time
+ * proportional to the number of chunks divided by {@link Tunables#FSCK_THREADS}. Problems are passed
+ * to a consumer as they are found, from multiple threads. With repair enabled, repairable problems
+ * are fixed with one query per page. Chunks that are removed are added to the deletion journal of
+ * their nodes by the database, like any other removed chunk. Files modified and uploads started
+ * less than {@link Tunables#FSCK_MIN_AGE} ago may be in the middle of a write, they are not checked
+ * for chunks beyond the end of the file or stale uploads.
+ */
+public class Fsck {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Fsck");
+
+	public enum Problem {
+
+		/** Chunk of a file that no longer exists, or of a directory */
+		ORPHAN_CHUNK("orphan chunk"),
+		/** Chunk that starts at or after the end of its file, according to the file size */
+		CHUNK_BEYOND_END("chunk beyond end of file"),
+		/** Chunk without copies, erasure coded shards or chunk it is a deduplicated copy of, its data is lost and it can't be repaired */
+		CHUNK_WITHOUT_COPIES("chunk without copies"),
+		/** Upload that was never finalized, or of a file that no longer exists */
+		STALE_WRITING_CHUNK("stale writing chunk");
+
+		private final String name;
+
+		Problem(final String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+	}
+
+	public static class Finding {
+
+		private final Problem problem;
+		private final long id;
+		private final long file;
+		private final boolean repaired;
+
+		private Finding(final Problem problem, final long id, final long file, final boolean repaired) {
+			this.problem = problem;
+			this.id = id;
+			this.file = file;
+			this.repaired = repaired;
+		}
+
+		public Problem getProblem() {
+			return this.problem;
+		}
+
+		/**
+		 * @return Chunk id, or writing chunk id for {@link Problem#STALE_WRITING_CHUNK}
+		 */
+		public long getId() {
+			return this.id;
+		}
+
+		public long getFile() {
+			return this.file;
+		}
+
+		public boolean isRepaired() {
+			return this.repaired;
+		}
+
+	}
+
+	public static class Result {
+
+		private final AtomicLong chunks = new AtomicLong();
+		private final AtomicLong writingChunks = new AtomicLong();
+		private final Map<Problem, AtomicLong> problems = new EnumMap<>(Problem.class);
+		private final AtomicLong repaired = new AtomicLong();
+		private long time;
+
+		private Result() {
+			for (final Problem problem : Problem.values()) {
+				this.problems.put(problem, new AtomicLong());
+			}
+		}
+
+		public long getCheckedChunks() {
+			return this.chunks.get();
+		}
+
+		public long getCheckedWritingChunks() {
+			return this.writingChunks.get();
+		}
+
+		public long getCount(final Problem problem) {
+			return this.problems.get(problem).get();
+		}
+
+		public long getRepaired() {
+			return this.repaired.get();
+		}
+
+		/**
+		 * @return Duration of the check in milliseconds
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+	}
+
+	/**
+	 * @param repair Whether to repair problems that can be repaired
+	 * @param consumer Called for every problem found, from worker threads
+	 */
+	public static Result run(final boolean repair, final Consumer<Finding> consumer) throws SQLException, InterruptedException {
+		final long start = System.currentTimeMillis();
+		final Result result = new Result();
+		final Consumer<Finding> counting = finding -> {
+			result.problems.get(finding.getProblem()).incrementAndGet();
+			if (finding.isRepaired()) {
+				result.repaired.incrementAndGet();
+			}
+			consumer.accept(finding);
+		};
+
+		LOGGER.info("Starting check with {} threads{}", Tunables.FSCK_THREADS, repair ? ", repair enabled" : "");
+		final ExecutorService executor = Executors.newFixedThreadPool(Tunables.FSCK_THREADS);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (final long[] range : partition("chunk")) {
+				futures.add(executor.submit(() -> {
+					checkChunks(range[0], range[1], repair, result, counting);
+					return null;
+				}));
+			}
+			for (final long[] range : partition("chunk_writing")) {
+				futures.add(executor.submit(() -> {
+					checkWritingChunks(range[0], range[1], repair, result, counting);
+					return null;
+				}));
+			}
+
+			for (final Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (final ExecutionException e) {
+					if (e.getCause() instanceof SQLException) {
+						throw (SQLException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		result.time = System.currentTimeMillis() - start;
+		LOGGER.info("Checked {} chunks and {} writing chunks in {} seconds, {} repaired",
+				result.getCheckedChunks(), result.getCheckedWritingChunks(), result.getTime() / 1000, result.getRepaired());
+		return result;
+	}
+
+	/**
+	 * Split the ids of a table in ranges, more ranges than threads so threads that finish early can
+	 * take over work when ids are not evenly distributed
+	 * @return Id ranges, exclusive start and inclusive end
+	 */
+	private static List<long[]> partition(final String table) throws SQLException {
+		final long min;
+		final long max;
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT MIN(id), MAX(id) FROM \"" + table + "\"")) {
+			final ResultSet result = query.executeQuery();
+			result.next();
+			min = result.getLong(1) - 1;
+			max = result.getLong(2);
+		}
+
+		final List<long[]> ranges = new ArrayList<>();
+		final int count = Tunables.FSCK_THREADS * 4;
+		final long size = Math.max(1, (max - min + count - 1) / count);
+		for (long from = min; from < max; from += size) {
+			ranges.add(new long[] {from, Math.min(max, from + size)});
+		}
+		return ranges;
+	}
+
+	private static void checkChunks(final long from, final long to, final boolean repair, final Result result,
+			final Consumer<Finding> consumer) throws SQLException {
+		final long modifiedBefore = System.currentTimeMillis() - Tunables.FSCK_MIN_AGE;
+		long cursor = from;
+		while (cursor < to) {
+			final List<Finding> findings = new ArrayList<>();
+			final List<Long> remove = new ArrayList<>();
+			int count = 0;
+			try (Connection conn = Database.getConnection()) {
+				try (PreparedStatement query = conn.prepareStatement("SELECT chunk.id, chunk.file, chunk.index, inode.is_file, inode.size, inode.chunk_size, inode.mtime, \n"
+						+ "	EXISTS (SELECT 1 FROM chunk_node WHERE chunk_node.chunk=chunk.id) \n"
+						+ "	OR EXISTS (SELECT 1 FROM chunk_stripe WHERE chunk_stripe.chunk=chunk.id) \n"
+						+ "	OR EXISTS (SELECT 1 FROM chunk data WHERE data.id=chunk.data) \n"
+						+ "	OR chunk.inline_data IS NOT NULL \n"
+						+ "FROM chunk \n"
+						+ "	LEFT JOIN inode ON chunk.file=inode.id \n"
+						+ "WHERE chunk.id > ? AND chunk.id <= ? \n"
+						+ "ORDER BY chunk.id LIMIT ?")) {
+					query.setLong(1, cursor);
+					query.setLong(2, to);
+					query.setInt(3, Tunables.FSCK_PAGE_SIZE);
+					final ResultSet rs = query.executeQuery();
+					while (rs.next()) {
+						count++;
+						cursor = rs.getLong(1);
+						final long file = rs.getLong(2);
+						final long index = rs.getInt(3);
+						final boolean isFile = rs.getBoolean(4);
+						final long size = rs.getLong(5);
+						final Integer chunkSize = rs.getObject(6, Integer.class);
+						final long mtime = rs.getLong(7);
+						final boolean stored = rs.getBoolean(8);
+
+						if (!isFile) {
+							findings.add(new Finding(Problem.ORPHAN_CHUNK, cursor, file, repair));
+							remove.add(cursor);
+						} else if (chunkSize != null && index * chunkSize >= size && mtime < modifiedBefore) {
+							findings.add(new Finding(Problem.CHUNK_BEYOND_END, cursor, file, repair));
+							remove.add(cursor);
+						} else if (!stored) {
+							findings.add(new Finding(Problem.CHUNK_WITHOUT_COPIES, cursor, file, false));
+						}
+					}
+				}
+
+				if (repair && !remove.isEmpty()) {
+					try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk WHERE id = ANY(?)")) {
+						query.setArray(1, conn.createArrayOf("bigint", remove.toArray()));
+						query.execute();
+					}
+				}
+			}
+
+			result.chunks.addAndGet(count);
+			findings.forEach(consumer);
+			if (count < Tunables.FSCK_PAGE_SIZE) {
+				break;
+			}
+		}
+	}
+
+	private static void checkWritingChunks(final long from, final long to, final boolean repair, final Result result,
+			final Consumer<Finding> consumer) throws SQLException {
+		final long staleBefore = (System.currentTimeMillis() - Tunables.FSCK_MIN_AGE) / 1000; // seconds
+		long cursor = from;
+		while (cursor < to) {
+			final List<Finding> findings = new ArrayList<>();
+			final List<Long> remove = new ArrayList<>();
+			int count = 0;
+			try (Connection conn = Database.getConnection()) {
+				try (PreparedStatement query = conn.prepareStatement("SELECT chunk_writing.id, chunk_writing.file, \n"
+						+ "	chunk_writing.time < ? OR NOT EXISTS (SELECT 1 FROM inode WHERE inode.id=chunk_writing.file) \n"
+						+ "FROM chunk_writing \n"
+						+ "WHERE chunk_writing.id > ? AND chunk_writing.id <= ? \n"
+						+ "ORDER BY chunk_writing.id LIMIT ?")) {
+					query.setLong(1, staleBefore);
+					query.setLong(2, cursor);
+					query.setLong(3, to);
+					query.setInt(4, Tunables.FSCK_PAGE_SIZE);
+					final ResultSet rs = query.executeQuery();
+					while (rs.next()) {
+						count++;
+						cursor = rs.getLong(1);
+						if (rs.getBoolean(3)) {
+							findings.add(new Finding(Problem.STALE_WRITING_CHUNK, cursor, rs.getLong(2), repair));
+							remove.add(cursor);
+						}
+					}
+				}
+
+				if (repair && !remove.isEmpty()) {
+					try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_writing WHERE id = ANY(?)")) {
+						query.setArray(1, conn.createArrayOf("bigint", remove.toArray()));
+						query.execute();
+					}
+				}
+			}
+
+			result.writingChunks.addAndGet(count);
+			findings.forEach(consumer);
+			if (count < Tunables.FSCK_PAGE_SIZE) {
+				break;
+			}
+		}
+	}
+
+}
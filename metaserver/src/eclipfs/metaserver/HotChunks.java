@@ -0,0 +1,228 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.Nodes.FilterStrategy;
+import eclipfs.metaserver.ReplicationWindows.Decision;
+import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.OnlineNode;
+
+/**
+ * Detects chunks that are read often from one location, and places an extra temporary copy
+ * in that location. Reads are counted per chunk and location in a count-min sketch, so memory
+ * use does not depend on the number of chunks. Counters are halved periodically, so chunks
+ * that are no longer read cool down, after which their extra copies are removed again.
+ */
+public class HotChunks {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Hot chunks");
+
+	private static final int DEPTH = 4;
+	private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+	private static final float[][] SKETCH = new float[DEPTH][Tunables.HOT_CHUNK_SKETCH_WIDTH];
+	private static long lastDecay = System.currentTimeMillis();
+	private static long lastTrim = System.currentTimeMillis();
+
+	// Chunk and location pairs a copy was recently placed for (or attempted), to avoid repeated attempts
+	private static final Map<String, Long> RECENT = new HashMap<>();
+
+	private static long placed = 0;
+	private static long trimmed = 0;
+	private static long promoted = 0;
+
+	private static int index(final int row, final long chunkId, final String location) {
+		long h = (chunkId ^ ((long) location.hashCode() << 32)) * SEEDS[row];
+		h ^= h >>> 31;
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= h >>> 29;
+		return (int) Math.floorMod(h, (long) Tunables.HOT_CHUNK_SKETCH_WIDTH);
+	}
+
+	private static void decay() {
+		final long now = System.currentTimeMillis();
+		while (now - lastDecay >= Tunables.HOT_CHUNK_DECAY_INTERVAL) {
+			for (final float[] row : SKETCH) {
+				for (int i = 0; i < row.length; i++) {
+					row[i] /= 2;
+				}
+			}
+			lastDecay += Tunables.HOT_CHUNK_DECAY_INTERVAL;
+		}
+	}
+
+	private static float estimate(final long chunkId, final String location) {
+		float min = Float.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			min = Math.min(min, SKETCH[row][index(row, chunkId, location)]);
+		}
+		return min;
+	}
+
+	/**
+	 * Count a read of a chunk by a client in a location. When the chunk becomes hot in that
+	 * location and has no copy there yet, an extra copy is placed in the background.
+	 */
+	public static void recordRead(final Chunk chunk, final String location) {
+		final String key = chunk.getId() + " " + location;
+		synchronized(HotChunks.class) {
+			decay();
+			// Conservative update: only increment counters that are at the current minimum, reduces overestimation
+			final float current = estimate(chunk.getId(), location);
+			for (int row = 0; row < DEPTH; row++) {
+				final int i = index(row, chunk.getId(), location);
+				if (SKETCH[row][i] == current) {
+					SKETCH[row][i]++;
+				}
+			}
+
+			if (current + 1 < Tunables.HOT_CHUNK_THRESHOLD) {
+				return;
+			}
+
+			final long now = System.currentTimeMillis();
+			RECENT.values().removeIf(time -> now - time > Tunables.HOT_CHUNK_RECHECK_INTERVAL);
+			if (RECENT.putIfAbsent(key, now) != null) {
+				return;
+			}
+		}
+
+		MetaServer.getExecutorService().execute(() -> {
+			try {
+				placeCopy(chunk, location);
+			} catch (final SQLException e) {
+				LOGGER.warn("Failed to place extra copy of chunk " + chunk.getId(), e);
+			}
+		});
+	}
+
+	private static void placeCopy(final Chunk chunk, final String location) throws SQLException {
+		final List<OnlineNode> sources = chunk.getOnlineNodes();
+		if (sources.isEmpty() || sources.stream().anyMatch(n -> n.getLocation().equals(location))) {
+			return;
+		}
+
+		final Optional<OnlineNode> optTarget = Nodes.selectNode(chunk, TransferType.UPLOAD, FilterStrategy.MUST, location);
+		if (optTarget.isEmpty()) {
+			LOGGER.info("Chunk {} is hot in {}, but no node in that location is available", chunk.getId(), location);
+			return;
+		}
+		final OnlineNode target = optTarget.get();
+
+		final long size = chunk.getFile().getChunkSize();
+		OnlineNode source = null;
+		double bestTime = Double.POSITIVE_INFINITY;
+		for (final OnlineNode candidate : sources) {
+			final double time = LinkCosts.estimateTransferTime(candidate.getLocation(), location, size);
+			if (time < bestTime) {
+				bestTime = time;
+				source = candidate;
+			}
+		}
+
+		if (ReplicationWindows.tryStart(source.getLocation(), location, size, false) != Decision.ALLOW) {
+			LOGGER.info("Chunk {} is hot in {}, but replication from {} is not allowed right now", chunk.getId(), location, source.getLocation());
+			return;
+		}
+
+		try {
+			final List<Long> replicated = target.requestReplicate(List.of(chunk), source, LOGGER);
+			if (replicated.contains(chunk.getId())) {
+				chunk.addTemporaryNode(target);
+				synchronized(HotChunks.class) {
+					placed++;
+				}
+				LOGGER.info("Chunk {} is hot in {}, placed extra copy on {}", chunk.getId(), location, target.getName());
+			}
+		} finally {
+			ReplicationWindows.finish(source.getLocation(), location);
+		}
+	}
+
+	/**
+	 * Remove temporary copies of chunks that are no longer read often in their location.
+	 * Called by the replication thread, does nothing if called more often than
+	 * {@link Tunables#HOT_CHUNK_TRIM_INTERVAL}. If a chunk has lost normal copies, its
+	 * temporary copy is kept as a normal copy instead.
+	 */
+	static void trimCold() throws SQLException {
+		final long now = System.currentTimeMillis();
+		if (now - lastTrim < Tunables.HOT_CHUNK_TRIM_INTERVAL) {
+			return;
+		}
+		lastTrim = now;
+
+		final List<long[]> candidates = new ArrayList<>(); // chunk, node
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT chunk, node FROM chunk_node WHERE temporary_since < ?")) {
+			query.setLong(1, now - Tunables.HOT_CHUNK_MIN_LIFETIME);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				candidates.add(new long[] {result.getLong(1), result.getLong(2)});
+			}
+		}
+
+		for (final long[] candidate : candidates) {
+			final Optional<Chunk> optChunk = Chunk.byId(candidate[0]);
+			final Optional<Node> optNode = Node.byId(candidate[1]);
+			if (optChunk.isEmpty() || optNode.isEmpty()) {
+				continue;
+			}
+			final Chunk chunk = optChunk.get();
+			final Node node = optNode.get();
+
+			synchronized(HotChunks.class) {
+				decay();
+				if (estimate(chunk.getId(), node.getLocation()) >= Tunables.HOT_CHUNK_COOL_THRESHOLD) {
+					continue;
+				}
+			}
+
+			final long permanentLocations = chunk.getPermanentNodes().stream()
+					.filter(n -> !OnlineNode.isFailed(n.getId()))
+					.map(Node::getLocation)
+					.distinct()
+					.count();
+			if (permanentLocations < chunk.getReplicationGoal()) {
+				chunk.makePermanent(node);
+				synchronized(HotChunks.class) {
+					promoted++;
+				}
+				LOGGER.info("Kept extra copy of chunk {} on {}, the chunk is undergoal", chunk.getId(), node.getName());
+			} else if (chunk.removeTemporaryNode(node)) {
+				synchronized(HotChunks.class) {
+					trimmed++;
+				}
+				LOGGER.info("Removed extra copy of chunk {} from {}, no longer hot", chunk.getId(), node.getName());
+			}
+		}
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		decay();
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("recently hot", String.valueOf(RECENT.size()));
+		state.put("copies placed", String.valueOf(placed));
+		state.put("copies trimmed", String.valueOf(trimmed));
+		state.put("copies kept", String.valueOf(promoted));
+		final Optional<Map.Entry<String, Long>> newest = RECENT.entrySet().stream().max(Comparator.comparingLong(Map.Entry::getValue));
+		state.put("last hot chunk", newest.map(Map.Entry::getKey).orElse("-"));
+		return state;
+	}
+
+}
@@ -0,0 +1,100 @@
+package eclipfs.metaserver;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measured throughput and round trip time between locations, used to choose the
+ * cheapest source and target for replication. Throughput is measured from completed
+ * replication transfers, round trip time from the metaserver's requests to nodes.
+ * Locations in the same top level failure domain, see {@link Topology}, are local to
+ * each other.
+ */
+public class LinkCosts {
+
+	private static final double SMOOTHING = 0.2;
+
+	private static final Map<String, Link> LINKS = new TreeMap<>();
+	private static final Map<String, Double> LOCATION_RTT = new HashMap<>();
+
+	private static Link getLink(final String sourceLocation, final String targetLocation) {
+		return LINKS.computeIfAbsent(sourceLocation + " -> " + targetLocation, k -> new Link(isLocal(sourceLocation, targetLocation)));
+	}
+
+	public static synchronized void recordTransfer(final String sourceLocation, final String targetLocation, final long bytes, final long millis) {
+		if (bytes <= 0 || millis <= 0) {
+			return;
+		}
+		final Link link = getLink(sourceLocation, targetLocation);
+		final double throughput = bytes * 1000.0 / millis;
+		link.throughput = link.samples == 0 ? throughput : SMOOTHING * throughput + (1 - SMOOTHING) * link.throughput;
+		link.samples++;
+	}
+
+	public static synchronized void recordNodeRtt(final String location, final long nanos) {
+		final double rtt = nanos / 1_000_000.0;
+		LOCATION_RTT.merge(location, rtt, (old, sample) -> SMOOTHING * sample + (1 - SMOOTHING) * old);
+	}
+
+	private static boolean isLocal(final String sourceLocation, final String targetLocation) {
+		return Topology.getCommonDepth(sourceLocation, targetLocation) > 0;
+	}
+
+	private static double getRtt(final String sourceLocation, final String targetLocation) {
+		if (isLocal(sourceLocation, targetLocation)) {
+			return 0;
+		}
+		// Only the round trip time from the metaserver to each location is known,
+		// the path through the metaserver is used as an upper bound.
+		return LOCATION_RTT.getOrDefault(sourceLocation, 0.0) + LOCATION_RTT.getOrDefault(targetLocation, 0.0);
+	}
+
+	/**
+	 * Estimate how long it takes to transfer data between two locations, taking into account
+	 * the bandwidth limit of the active replication window and transfers already in progress.
+	 * @return Estimated transfer time in milliseconds
+	 */
+	public static synchronized double estimateTransferTime(final String sourceLocation, final String targetLocation, final long bytes) throws SQLException {
+		final Link link = getLink(sourceLocation, targetLocation);
+		double throughput = link.throughput;
+		final long bandwidthLimit = ReplicationWindows.getBandwidthLimit(sourceLocation, targetLocation);
+		if (bandwidthLimit > 0) {
+			throughput = Math.min(throughput, bandwidthLimit);
+		}
+		// Transfers in progress share the link
+		final int sharing = ReplicationWindows.getInFlight(sourceLocation, targetLocation) + 1;
+		return getRtt(sourceLocation, targetLocation) + bytes * 1000.0 / throughput * sharing;
+	}
+
+	// for dashboard
+	public static synchronized List<Object[]> getLinks() {
+		final List<Object[]> rows = new ArrayList<>();
+		LINKS.forEach((name, link) -> {
+			final String[] locations = name.split(" -> ");
+			rows.add(new Object[] {
+					name,
+					String.format("%.2f MB/s", link.throughput / 1_000_000),
+					String.format("%.0f ms", getRtt(locations[0], locations[1])),
+					link.samples,
+			});
+		});
+		return rows;
+	}
+
+	private static class Link {
+
+		// Optimistic defaults, so unmeasured links are tried and get measured
+		private double throughput;
+		private long samples = 0;
+
+		private Link(final boolean local) {
+			this.throughput = local ? Tunables.LINK_DEFAULT_LOCAL_THROUGHPUT : Tunables.LINK_DEFAULT_REMOTE_THROUGHPUT;
+		}
+
+	}
+
+}
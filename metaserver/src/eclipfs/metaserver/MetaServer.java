@@ -28,14 +28,28 @@ import eclipfs.metaserver.command.ChangeDirectoryCommand;
 import eclipfs.metaserver.command.Command;
 import eclipfs.metaserver.command.DeleteCommand;
 import eclipfs.metaserver.command.DirectoryCreateCommand;
+import eclipfs.metaserver.command.ErasureCodingCommand;
+import eclipfs.metaserver.command.FsckCommand;
 import eclipfs.metaserver.command.ListCommand;
 import eclipfs.metaserver.command.NodeCreateCommand;
+import eclipfs.metaserver.command.NodeDrainCommand;
 import eclipfs.metaserver.command.NodeListCommand;
 import eclipfs.metaserver.command.NodeRemoveCommand;
+import eclipfs.metaserver.command.NodeTierCommand;
+import eclipfs.metaserver.command.RebalanceCommand;
+import eclipfs.metaserver.command.ReplicationGoalCommand;
+import eclipfs.metaserver.command.ReplicationThrottleCommand;
+import eclipfs.metaserver.command.StripeCommand;
+import eclipfs.metaserver.command.SubnetAddCommand;
+import eclipfs.metaserver.command.SubnetListCommand;
+import eclipfs.metaserver.command.SubnetRemoveCommand;
 import eclipfs.metaserver.command.ToggleWriteAccessCommand;
 import eclipfs.metaserver.command.UpCommand;
 import eclipfs.metaserver.command.UserAddCommand;
 import eclipfs.metaserver.command.UserListCommand;
+import eclipfs.metaserver.command.WindowAddCommand;
+import eclipfs.metaserver.command.WindowListCommand;
+import eclipfs.metaserver.command.WindowRemoveCommand;
 import eclipfs.metaserver.http.JettyManager;
 import eclipfs.metaserver.http.PasswordChecker;
 import eclipfs.metaserver.migration.Migrations;
@@ -53,14 +67,28 @@ public class MetaServer {
 		COMMANDS.put("cd", new ChangeDirectoryCommand());
 		COMMANDS.put("del", new DeleteCommand());
 		COMMANDS.put("mkdir", new DirectoryCreateCommand());
+		COMMANDS.put("erasure", new ErasureCodingCommand());
+		COMMANDS.put("fsck", new FsckCommand());
 		COMMANDS.put("ls", new ListCommand());
 		COMMANDS.put("nodelist", new NodeListCommand());
 		COMMANDS.put("nodecreate", new NodeCreateCommand());
+		COMMANDS.put("nodedrain", new NodeDrainCommand());
 		COMMANDS.put("noderemove", new NodeRemoveCommand());
+		COMMANDS.put("nodetier", new NodeTierCommand());
+		COMMANDS.put("rebalance", new RebalanceCommand());
+		COMMANDS.put("goal", new ReplicationGoalCommand());
+		COMMANDS.put("throttle", new ReplicationThrottleCommand());
+		COMMANDS.put("stripe", new StripeCommand());
+		COMMANDS.put("subnetadd", new SubnetAddCommand());
+		COMMANDS.put("subnetlist", new SubnetListCommand());
+		COMMANDS.put("subnetremove", new SubnetRemoveCommand());
 		COMMANDS.put("togglewriteaccess", new ToggleWriteAccessCommand());
 		COMMANDS.put("up", new UpCommand());
 		COMMANDS.put("useradd", new UserAddCommand());
 		COMMANDS.put("userlist", new UserListCommand());
+		COMMANDS.put("windowadd", new WindowAddCommand());
+		COMMANDS.put("windowlist", new WindowListCommand());
+		COMMANDS.put("windowremove", new WindowRemoveCommand());
 	}
 
 	private static final ExecutorService THREAD_POOL = Executors.newCachedThreadPool();
@@ -78,6 +106,7 @@ public class MetaServer {
 	private static final int PBKDF2_ITER = 100000;
 
 	private static final int defaultChunkSize;
+	private static final boolean deduplication;
 
 	static {
 		String keyString = System.getenv("ENCRYPTION_KEY");
@@ -101,6 +130,11 @@ public class MetaServer {
 
 		defaultChunkSize = System.getenv("CHUNK_SIZE") != null ? Integer.parseInt(System.getenv("CHUNK_SIZE")) : 1_000_000;
 		LOGGER.info("Using chunk size " + StringFormatUtils.formatByteCount(defaultChunkSize));
+
+		deduplication = "true".equals(System.getenv("DEDUPLICATION"));
+		if (deduplication) {
+			LOGGER.info("Chunk deduplication is enabled");
+		}
 	}
 
 	public static void main(final String[] args) throws Exception {
@@ -115,6 +149,12 @@ public class MetaServer {
 			@Override
 			public void run() {
 				THREAD_POOL.execute(Replication::run);
+				THREAD_POOL.execute(Tiering::run);
+				THREAD_POOL.execute(OvergoalTrimming::run);
+				THREAD_POOL.execute(Rebalancer::run);
+				THREAD_POOL.execute(UploadExpiry::run);
+				THREAD_POOL.execute(Scrubber::run);
+				THREAD_POOL.execute(SnapshotDeletion::run);
 			}
 		}.start();
 
@@ -183,6 +223,10 @@ public class MetaServer {
 		return defaultChunkSize;
 	}
 
+	public static boolean isDeduplicationEnabled() {
+		return deduplication;
+	}
+
 	public static ExecutorService getExecutorService() {
 		return THREAD_POOL;
 	}
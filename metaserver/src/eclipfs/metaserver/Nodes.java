@@ -8,9 +8,13 @@ import static eclipfs.metaserver.Nodes.FilterStrategy.SHOULD_NOT;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -19,7 +23,9 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang3.Validate;
 
 import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.File;
 import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.NodeTier;
 import eclipfs.metaserver.model.OnlineNode;
 import xyz.derkades.derkutils.ListUtils;
 
@@ -38,30 +44,50 @@ public class Nodes {
 	}
 
 	public static List<OnlineNode> selectNodes(final int count, final Chunk chunk, final TransferType type) throws SQLException {
-		return selectNodes(count, chunk, type, FilterStrategy.SHOULD, node -> true);
+		return selectNodes(count, chunk, type, FilterStrategy.SHOULD, Set.of(), NodeTier.HOT);
 	}
 
 	public static List<OnlineNode> selectNodes(final int count, final Chunk chunk, final TransferType type, final FilterStrategy strategy, final String label) throws SQLException {
-		return selectNodes(count, chunk, type, strategy, node -> locationGood(node, label, strategy));
+		Validate.notNull(label);
+		return selectNodes(count, chunk, type, strategy, Set.of(label), NodeTier.HOT);
 	}
 
 	public static List<OnlineNode> selectNodes(final int count, final Chunk chunk, final TransferType type, final FilterStrategy strategy, final Set<String> labels) throws SQLException {
-		return selectNodes(count, chunk, type, strategy, node -> locationsGood(node, labels, strategy));
+		return selectNodes(count, chunk, type, strategy, labels, NodeTier.HOT);
 	}
 
-	private static List<OnlineNode> selectNodes(final int count, final Chunk chunk, final TransferType type, final FilterStrategy strategy, final Predicate<OnlineNode> predicate) throws SQLException {
+	/**
+	 * Select nodes by location. With {@link FilterStrategy#MUST} or {@link FilterStrategy#SHOULD}, nodes in one
+	 * of the given locations are selected. With {@link FilterStrategy#MUST_NOT} or {@link FilterStrategy#SHOULD_NOT},
+	 * nodes outside of the given locations are selected, in the most distant failure domains of the {@link Topology}
+	 * first. If there are not enough of those, SHOULD falls back to the topologically nearest other nodes.
+	 * @param tier For uploads, only nodes in this tier are selected. Ignored for downloads.
+	 */
+	public static List<OnlineNode> selectNodes(final int count, final Chunk chunk, final TransferType type, final FilterStrategy strategy, final Set<String> labels, final NodeTier tier) throws SQLException {
+		Validate.notNull(strategy);
+		Validate.notNull(labels);
 		if (count == 0) {
 			return Collections.emptyList();
 		}
 
+		final Predicate<OnlineNode> predicate = labels.isEmpty() ? node -> true : node -> locationsGood(node, labels, strategy);
+
 		final List<OnlineNode> allNodes;
 		if (type == TransferType.DOWNLOAD) {
 			allNodes = new ArrayList<>(chunk.getOnlineNodes()); // needs to be mutable
 		} else {
-			allNodes = OnlineNode.getOnlineNodes().stream().filter(n -> n.getFreeSpace() > Tunables.MINIMUM_FREE_SPACE_FOR_UPLOAD).collect(Collectors.toCollection(ArrayList::new));
+			allNodes = OnlineNode.getOnlineNodes().stream()
+					.filter(n -> n.getTier() == tier && !n.isDraining())
+					.filter(n -> n.getFreeSpace() > Tunables.MINIMUM_FREE_SPACE_FOR_UPLOAD)
+					.collect(Collectors.toCollection(ArrayList::new));
 		}
 
 		Collections.shuffle(allNodes);
+		if (!labels.isEmpty()) {
+			// Stable sort, nodes at the same distance stay in random order
+			final Comparator<OnlineNode> byDistance = Comparator.comparingInt(n -> Topology.getDistance(n.getLocation(), labels));
+			allNodes.sort(strategy == MUST || strategy == SHOULD ? byDistance : byDistance.reversed());
+		}
 
 		final List<OnlineNode> finalSelection = new ArrayList<>(count);
 		final Deque<OnlineNode> fallback = new ArrayDeque<>(allNodes.size());
@@ -89,16 +115,152 @@ public class Nodes {
 		return Collections.unmodifiableList(finalSelection);
 	}
 
-	private static boolean locationGood(final Node node, final String label, final FilterStrategy strategy) {
-		Validate.notNull(node);
-		Validate.notNull(label);
-		Validate.notNull(strategy);
-		if (strategy == MUST || strategy == SHOULD) {
-			return label.equals(node.getLocation());
-		} else if (strategy == MUST_NOT || strategy == SHOULD_NOT) {
-			return !label.equals(node.getLocation());
+	/**
+	 * Select nodes to write a chunk of a striped file to. Eligible nodes are ordered by id, and each chunk index
+	 * uses the next nodes in that order, so consecutive chunks are written to different nodes. The starting
+	 * point depends on the file, so small striped files don't all start on the same node.
+	 * @param location Location of the writer. If present, only the nearest nodes are used, as long as there are
+	 * at least as many as requested.
+	 */
+	public static List<OnlineNode> selectStripedNodes(final int count, final File file, final int index, final Optional<String> location) {
+		List<OnlineNode> eligible = OnlineNode.getOnlineNodes().stream()
+				.filter(n -> n.getTier() == NodeTier.HOT && !n.isDraining())
+				.filter(n -> n.getFreeSpace() > Tunables.MINIMUM_FREE_SPACE_FOR_UPLOAD)
+				.collect(Collectors.toCollection(ArrayList::new));
+		if (location.isPresent()) {
+			eligible = nearest(eligible, location.get(), count);
 		}
-		throw new IllegalStateException(strategy.name());
+		eligible.sort(Comparator.comparingLong(Node::getId));
+
+		if (eligible.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		final int start = Math.floorMod(Long.hashCode(file.getId()) + (long) index * count, eligible.size());
+		final List<OnlineNode> selection = new ArrayList<>(count);
+		for (int i = 0; i < count && i < eligible.size(); i++) {
+			selection.add(eligible.get((start + i) % eligible.size()));
+		}
+		return Collections.unmodifiableList(selection);
+	}
+
+	/**
+	 * Select a node to read a chunk of a striped file from. Replicas are ordered by node id and chosen by
+	 * chunk index, so a sequential reader reads consecutive chunks from different nodes.
+	 * @param location Location of the reader. If present, only the nearest replicas are used.
+	 */
+	public static Optional<OnlineNode> selectStripedReplica(final Chunk chunk, final Optional<String> location) throws SQLException {
+		List<OnlineNode> replicas = new ArrayList<>(chunk.getOnlineNodes());
+		if (location.isPresent()) {
+			replicas = nearest(replicas, location.get(), 1);
+		}
+		replicas.sort(Comparator.comparingLong(Node::getId));
+
+		if (replicas.isEmpty()) {
+			return Optional.empty();
+		}
+		return Optional.of(replicas.get(chunk.getIndex() % replicas.size()));
+	}
+
+	/**
+	 * @return Nodes within the smallest {@link Topology} distance of the location that includes at least
+	 * the given number of nodes
+	 */
+	private static List<OnlineNode> nearest(final List<OnlineNode> nodes, final String location, final int count) {
+		if (nodes.size() <= count) {
+			return new ArrayList<>(nodes);
+		}
+		final int[] distances = nodes.stream().mapToInt(n -> Topology.getDistance(n.getLocation(), location)).sorted().toArray();
+		final int maxDistance = distances[count - 1];
+		return nodes.stream()
+				.filter(n -> Topology.getDistance(n.getLocation(), location) <= maxDistance)
+				.collect(Collectors.toCollection(ArrayList::new));
+	}
+
+	/**
+	 * Select nodes for the shards of an erasure coded chunk. Each node is used at most once, and nodes
+	 * are spread over as many locations as possible: a location is only used for a second shard when
+	 * every available location already has one. Among equally used locations, the location most
+	 * distant from already used locations in the {@link Topology} is chosen.
+	 * @param existing Nodes already holding shards of the chunk, these nodes and locations are avoided
+	 * @return Selected nodes, fewer than requested if there are not enough nodes with free space
+	 */
+	public static List<OnlineNode> selectSpreadNodes(final int count, final Collection<? extends Node> existing) {
+		Validate.notNull(existing, "Existing nodes is null");
+		final Map<String, Integer> locationUsage = new HashMap<>();
+		for (final Node node : existing) {
+			locationUsage.merge(node.getLocation(), 1, Integer::sum);
+		}
+
+		final List<OnlineNode> candidates = OnlineNode.getOnlineNodes().stream()
+				.filter(n -> n.getTier() == NodeTier.HOT && !n.isDraining())
+				.filter(n -> n.getFreeSpace() > Tunables.MINIMUM_FREE_SPACE_FOR_UPLOAD)
+				.filter(n -> !existing.contains(n))
+				.collect(Collectors.toCollection(ArrayList::new));
+		Collections.shuffle(candidates);
+
+		final List<OnlineNode> selection = new ArrayList<>(count);
+		while (selection.size() < count && !candidates.isEmpty()) {
+			final OnlineNode node = candidates.stream()
+					.min(Comparator.comparingInt((final OnlineNode n) -> locationUsage.getOrDefault(n.getLocation(), 0))
+							.thenComparing(Comparator.comparingInt((final OnlineNode n) -> Topology.getDistance(n.getLocation(), locationUsage.keySet())).reversed()))
+					.get();
+			candidates.remove(node);
+			selection.add(node);
+			locationUsage.merge(node.getLocation(), 1, Integer::sum);
+		}
+		return Collections.unmodifiableList(selection);
+	}
+
+	/**
+	 * Select a node in a different tier to move a copy of a chunk to. Nodes that already have the chunk
+	 * are never selected. To keep copies spread over locations, only nodes in the location of the copy
+	 * that is moved, or in a location without a copy, are selected. Locations nearest to the moved copy are preferred.
+	 * @param from Node the copy is moved away from
+	 */
+	public static Optional<OnlineNode> selectTierNode(final Chunk chunk, final Node from, final NodeTier tier) throws SQLException {
+		final List<Node> holders = chunk.getNodes();
+		final Set<String> otherLocations = holders.stream()
+				.filter(n -> !n.equals(from))
+				.map(Node::getLocation)
+				.collect(Collectors.toSet());
+
+		final List<OnlineNode> candidates = OnlineNode.getOnlineNodes().stream()
+				.filter(n -> n.getTier() == tier && !n.isDraining())
+				.filter(n -> n.getFreeSpace() > Tunables.MINIMUM_FREE_SPACE_FOR_UPLOAD)
+				.filter(n -> !holders.contains(n))
+				.filter(n -> n.getLocation().equals(from.getLocation()) || !otherLocations.contains(n.getLocation()))
+				.collect(Collectors.toCollection(ArrayList::new));
+		Collections.shuffle(candidates);
+		candidates.sort(Comparator.comparingInt(n -> Topology.getDistance(n.getLocation(), from.getLocation())));
+		return ListUtils.toOptional(candidates);
+	}
+
+	/**
+	 * @return Human readable drain progress of a node, with an estimate of the remaining time
+	 * based on the average rate since draining started.
+	 */
+	public static String getDrainStatus(final Node node) throws SQLException {
+		if (!node.isDraining()) {
+			return "-";
+		}
+
+		final long remaining = node.getDrainRemainingChunks();
+		if (remaining == 0) {
+			return "done, safe to remove";
+		}
+
+		final long total = Math.max(node.getDrainChunkCount(), remaining);
+		final long done = total - remaining;
+		final long elapsed = System.currentTimeMillis() - node.getDrainStartTime().orElseThrow();
+		final String eta;
+		if (done == 0) {
+			eta = "unknown";
+		} else {
+			final long millis = elapsed * remaining / done;
+			eta = String.format("%dh %02dm", millis / 3_600_000, millis / 60_000 % 60);
+		}
+		return String.format("%d%% (%d chunks left, eta %s)", done * 100 / total, remaining, eta);
 	}
 
 	private static boolean locationsGood(final Node node, final Set<String> labels, final FilterStrategy strategy) {
@@ -0,0 +1,138 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.OnlineNode;
+import xyz.derkades.derkutils.StringFormatUtils;
+
+/**
+ * Removes copies of chunks above their replication goal, left over from retried uploads, nodes that
+ * came back after their chunks were replicated elsewhere, or changed replication goals. Only the
+ * chunk_node row is removed, the data is deleted by garbage collection on the node. Temporary copies
+ * of hot chunks are not counted, they are removed by {@link HotChunks}. Copies on draining nodes
+ * are not counted or removed either, they stay until the node is removed.
+ */
+public class OvergoalTrimming {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Overgoal trimming");
+
+	private static long scanCursor = 0;
+	private static long trimmedCopies = 0;
+	private static long reclaimedBytes = 0;
+
+	static void run() {
+		while(true) {
+			try {
+				Thread.sleep(ReplicationThrottle.getDelay());
+
+				final boolean fullScan = scanCursor == 0;
+				final List<Long> chunkIds = findOvergoalChunks();
+				if (chunkIds.isEmpty() && fullScan) {
+					Thread.sleep(Tunables.TRIM_EMPTY_SLEEP);
+					continue;
+				}
+
+				for (final long chunkId : chunkIds) {
+					final Optional<Chunk> optChunk = Chunk.byId(chunkId);
+					if (optChunk.isPresent()) {
+						trim(optChunk.get());
+					}
+				}
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static List<Long> findOvergoalChunks() throws SQLException {
+		final List<Long> excludedNodes = Node.listFailedNodeIds();
+		excludedNodes.addAll(Node.listDrainingNodeIds());
+		final List<Long> chunkIds = new ArrayList<>();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT chunk.id \n"
+						+ "FROM chunk \n"
+						+ "	JOIN chunk_node ON chunk=chunk.id \n"
+						+ "	JOIN inode ON chunk.file=inode.id \n"
+						+ "WHERE chunk.id > ? AND chunk_node.temporary_since IS NULL AND NOT chunk_node.node = ANY(?) \n"
+						+ "GROUP BY chunk.id, inode.replication_goal \n"
+						+ "HAVING COUNT(*) > " + Chunk.REPLICATION_GOAL_SQL + " \n"
+						+ "ORDER BY chunk.id LIMIT ?")) {
+			query.setLong(1, scanCursor);
+			query.setArray(2, conn.createArrayOf("bigint", excludedNodes.toArray()));
+			query.setInt(3, Tunables.TRIM_SCAN_AMOUNT);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				scanCursor = result.getLong(1);
+				chunkIds.add(result.getLong(1));
+			}
+		}
+
+		if (chunkIds.size() < Tunables.TRIM_SCAN_AMOUNT) {
+			scanCursor = 0;
+		}
+		return chunkIds;
+	}
+
+	/**
+	 * Remove copies of a chunk until it is at its replication goal. A copy is only removed if enough
+	 * locations remain to meet the goal. Copies in the location with the most copies are removed first,
+	 * then copies on the node with the least free space. Copies on offline nodes are kept, they can't
+	 * be deleted right away and may be needed if other copies are lost.
+	 */
+	static void trim(final Chunk chunk) throws SQLException {
+		final int goal = chunk.getReplicationGoal();
+		final List<Node> copies = chunk.getPermanentNodes().stream()
+				.filter(n -> !OnlineNode.isFailed(n.getId()) && !n.isDraining())
+				.collect(Collectors.toCollection(ArrayList::new));
+
+		while (copies.size() > goal) {
+			final Map<String, Long> perLocation = copies.stream()
+					.collect(Collectors.groupingBy(Node::getLocation, Collectors.counting()));
+			final Optional<OnlineNode> optRemove = copies.stream()
+					.map(n -> OnlineNode.getOnlineNodeById(n.getId()))
+					.filter(Optional::isPresent)
+					.map(Optional::get)
+					.filter(n -> perLocation.get(n.getLocation()) > 1 || perLocation.size() > goal)
+					.max(Comparator.comparingLong((final OnlineNode n) -> perLocation.get(n.getLocation()))
+							.thenComparing(Comparator.comparingLong(OnlineNode::getFreeSpace).reversed()));
+			if (optRemove.isEmpty()) {
+				break;
+			}
+
+			final OnlineNode node = optRemove.get();
+			copies.remove(node);
+			if (chunk.removeNode(node)) {
+				final long bytes = chunk.getSizeEstimate();
+				synchronized(OvergoalTrimming.class) {
+					trimmedCopies++;
+					reclaimedBytes += bytes;
+				}
+				LOGGER.info("Removed overgoal copy of chunk {} from {}, reclaiming {}", chunk.getId(), node.getName(), StringFormatUtils.formatByteCount(bytes));
+			}
+		}
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("overgoal copies removed", String.valueOf(trimmedCopies));
+		state.put("overgoal bytes reclaimed", StringFormatUtils.formatByteCount(reclaimedBytes));
+		return state;
+	}
+
+}
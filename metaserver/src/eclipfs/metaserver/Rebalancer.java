@@ -0,0 +1,165 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.ReplicationWindows.Decision;
+import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.OnlineNode;
+import xyz.derkades.derkutils.StringFormatUtils;
+
+/**
+ * Moves chunks from the fullest to the emptiest node within a location, so nodes that were added
+ * later get their share of data and full nodes don't drop out of upload placement. Chunks are never
+ * moved between locations or tiers. Disabled by default, it is started with a byte budget using the
+ * rebalance command and stops when the budget is used up. It only runs while replication is idle and
+ * foreground load is below the throttle targets.
+ */
+public class Rebalancer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Rebalancer");
+
+	private static long budget = 0;
+	private static long moved = 0;
+	private static String lastMove = "-";
+
+	public static synchronized void start(final long bytes) {
+		Validate.isTrue(bytes > 0, "Budget must be positive");
+		budget = bytes;
+		LOGGER.info("Rebalancing started with a budget of {}", StringFormatUtils.formatByteCount(bytes));
+	}
+
+	public static synchronized void stop() {
+		budget = 0;
+	}
+
+	private static synchronized long getBudget() {
+		return budget;
+	}
+
+	static void run() {
+		while(true) {
+			try {
+				Thread.sleep(Math.max(ReplicationThrottle.getDelay(), ReplicationThrottle.getIdleWait()));
+
+				if (getBudget() <= 0 || Replication.isBusy() || Replication.getQueueSize() > 0 || ReplicationThrottle.getLoad() >= 1) {
+					continue;
+				}
+
+				rebalanceOnce();
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Move one batch of chunks between the pair of nodes, in the same location, with the largest
+	 * difference in free space.
+	 */
+	private static void rebalanceOnce() throws SQLException {
+		final Map<String, List<OnlineNode>> byLocation = OnlineNode.getOnlineNodes().stream()
+				.filter(n -> !n.isDraining())
+				.collect(Collectors.groupingBy(n -> n.getLocation() + " " + n.getTier().getName()));
+
+		OnlineNode source = null;
+		OnlineNode target = null;
+		long difference = Tunables.REBALANCE_MIN_FREE_DIFFERENCE;
+		for (final List<OnlineNode> nodes : byLocation.values()) {
+			final OnlineNode fullest = nodes.stream().min(Comparator.comparingLong(OnlineNode::getFreeSpace)).orElseThrow();
+			final OnlineNode emptiest = nodes.stream().max(Comparator.comparingLong(OnlineNode::getFreeSpace)).orElseThrow();
+			if (emptiest.getFreeSpace() - fullest.getFreeSpace() > difference) {
+				difference = emptiest.getFreeSpace() - fullest.getFreeSpace();
+				source = fullest;
+				target = emptiest;
+			}
+		}
+
+		if (source == null) {
+			return;
+		}
+
+		// Move at most half the difference, so the pair doesn't swap places
+		final List<Chunk> chunks = findMovableChunks(source, target, Math.min(getBudget(), difference / 2));
+		if (chunks.isEmpty()) {
+			return;
+		}
+
+		final long bytes = chunks.stream().mapToLong(Chunk::getSizeEstimate).sum();
+		if (ReplicationWindows.tryStart(source.getLocation(), target.getLocation(), bytes, false) != Decision.ALLOW) {
+			return;
+		}
+
+		try {
+			final long start = System.currentTimeMillis();
+			final List<Long> replicated = target.requestReplicate(chunks, source, LOGGER);
+			LinkCosts.recordTransfer(source.getLocation(), target.getLocation(), bytes, System.currentTimeMillis() - start);
+			// Copies are verified against the chunk checksum by the target node before they are reported as replicated
+			Chunk.moveNode(source, target, replicated);
+			final long movedBytes = chunks.stream().filter(c -> replicated.contains(c.getId())).mapToLong(Chunk::getSizeEstimate).sum();
+			synchronized(Rebalancer.class) {
+				budget = Math.max(0, budget - movedBytes);
+				moved += movedBytes;
+				lastMove = source.getName() + " -> " + target.getName();
+			}
+			LOGGER.info("Moved {} chunks ({}) from {} to {}", replicated.size(), StringFormatUtils.formatByteCount(movedBytes), source.getName(), target.getName());
+		} finally {
+			ReplicationWindows.finish(source.getLocation(), target.getLocation());
+		}
+	}
+
+	private static List<Chunk> findMovableChunks(final OnlineNode source, final OnlineNode target, final long maxBytes) throws SQLException {
+		final List<Long> chunkIds = new ArrayList<>();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT chunk FROM chunk_node \n"
+						+ "WHERE node=? AND temporary_since IS NULL \n"
+						+ "	AND NOT EXISTS (SELECT 1 FROM chunk_node other WHERE other.chunk=chunk_node.chunk AND other.node=?) \n"
+						+ "LIMIT ?")) {
+			query.setLong(1, source.getId());
+			query.setLong(2, target.getId());
+			query.setInt(3, Tunables.REPLICATION_BATCH_SIZE);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				chunkIds.add(result.getLong(1));
+			}
+		}
+
+		final List<Chunk> chunks = new ArrayList<>();
+		long bytes = 0;
+		for (final long chunkId : chunkIds) {
+			final Optional<Chunk> optChunk = Chunk.byId(chunkId);
+			if (optChunk.isEmpty()) {
+				continue;
+			}
+			bytes += optChunk.get().getSizeEstimate();
+			if (bytes > maxBytes && !chunks.isEmpty()) {
+				break;
+			}
+			chunks.add(optChunk.get());
+		}
+		return chunks;
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("rebalance budget left", StringFormatUtils.formatByteCount(budget));
+		state.put("rebalanced", StringFormatUtils.formatByteCount(moved));
+		state.put("last rebalance", lastMove);
+		return state;
+	}
+
+}
@@ -1,22 +1,35 @@
 package eclipfs.metaserver;
 
+import java.io.IOException;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import eclipfs.metaserver.Nodes.FilterStrategy;
+import eclipfs.metaserver.ReplicationWindows.Decision;
 import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.ChunkStripe;
 import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.NodeTier;
 import eclipfs.metaserver.model.OnlineNode;
 
 public class Replication {
@@ -29,8 +42,8 @@ public class Replication {
 		lastBusyTime = System.currentTimeMillis();
 	}
 
-	private static boolean isBusy() {
-		return System.currentTimeMillis() - lastBusyTime < Tunables.REPLICATION_IDLE_WAIT;
+	static boolean isBusy() {
+		return System.currentTimeMillis() - lastBusyTime < ReplicationThrottle.getIdleWait();
 	}
 
 	// for dashboard
@@ -43,10 +56,21 @@ public class Replication {
 			return "Idle (nothing to do)";
 		}
 
-		return "Running";
+		return "Running (" + IN_PROGRESS.size() + " transfers in progress)";
 	}
 
 	private final static Deque<Long> QUEUE = new ArrayDeque<>();
+	// Chunks known to have lost a copy, added to the front of the queue
+	private final static Queue<Long> REPAIR = new ConcurrentLinkedQueue<>();
+	private final static Set<Long> IN_PROGRESS = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Check a chunk before chunks found by the undergoal scan, for example after a copy was found to
+	 * be corrupt
+	 */
+	public static void addRepair(final long chunkId) {
+		REPAIR.add(chunkId);
+	}
 
 	// for dashboard
 	public static int getQueueSize() {
@@ -56,17 +80,29 @@ public class Replication {
 	static void run() {
 		while(true) {
 			try {
-				Thread.sleep(Tunables.REPLICATION_DELAY);
+				ReplicationThrottle.update();
+				HotChunks.trimCold();
+				Thread.sleep(ReplicationThrottle.getDelay());
 
 				if (isBusy()) {
 					continue;
 				}
 
+				while (!REPAIR.isEmpty()) {
+					QUEUE.addFirst(REPAIR.poll());
+				}
+
 				if (QUEUE.isEmpty()) {
+					final boolean fullScan = scanCursor == 0;
 					final long start = System.currentTimeMillis();
 					addUndergoalChunks(QUEUE, Tunables.REPLICATION_ADD_AMOUNT);
+					if (fullScan) {
+						ErasureCoding.addPendingChunks(QUEUE, Tunables.REPLICATION_ADD_AMOUNT);
+					}
 					final long time = System.currentTimeMillis() - start;
-					if (QUEUE.isEmpty()) {
+					if (QUEUE.isEmpty() && !fullScan) {
+						LOGGER.info("Nothing found in remaining chunks, starting from the beginning (took " + time + "ms to find chunks).");
+					} else if (QUEUE.isEmpty()) {
 						LOGGER.info("Queue still empty, going to sleep for a while (took " + time + "ms to find chunks).");
 						Thread.sleep(Tunables.REPLICATION_EMPTY_SLEEP);
 					} else {
@@ -77,48 +113,171 @@ public class Replication {
 
 				LOGGER.info("Processing replication queue, " + QUEUE.size() + " entries left.");
 
-				final long chunkId = QUEUE.pop();
-				final Optional<Chunk> optChunk = Chunk.byId(chunkId);
-				if (optChunk.isEmpty()) {
-					LOGGER.warn("Skipping chunk " + chunkId + ", it has been deleted.");
-					continue;
-				}
-				final Chunk chunk = optChunk.get();
-				final List<Node> nodes = chunk.getNodes();
-				final Set<String> existingLabels = nodes.stream().map(Node::getLocation).distinct().collect(Collectors.toSet());
-				final int replication = existingLabels.size();
-				final String chunkStr = chunk.getFile().getId() + "." + chunk.getIndex();
-				if (replication > Tunables.REPLICATION_GOAL) {
-					LOGGER.warn("Chunk " + chunkStr + " is overgoal");
-					continue;
-				} else if (replication == Tunables.REPLICATION_GOAL) {
-					LOGGER.warn("Chunk " + chunkStr + " is replicated correctly");
-					continue;
+				// Group chunks by source and target node, so they can be transferred in a single request
+				final Map<String, Batch> batches = new HashMap<>();
+				for (int i = 0; i < Tunables.REPLICATION_BATCH_SIZE && !QUEUE.isEmpty(); i++) {
+					planReplication(QUEUE.pop(), batches);
 				}
 
-				LOGGER.info("Chunk " + chunkStr + " is undergoal (" + replication + "/" + Tunables.REPLICATION_GOAL + ")");
-				final Optional<OnlineNode> optReplicationTarget = Nodes.selectNode(chunk, TransferType.UPLOAD, FilterStrategy.MUST_NOT, existingLabels);
-				if (optReplicationTarget.isEmpty()) {
-					LOGGER.warn("Cannot replicate chunk, no target node available. Current labels: " + String.join(", ", existingLabels));
-					continue;
+				for (final Batch batch : batches.values()) {
+					final long bytes = batch.chunks.stream().mapToLong(c -> c.getFile().getChunkSize()).sum();
+					final Decision decision = ReplicationWindows.tryStart(batch.source.getLocation(), batch.target.getLocation(), bytes, batch.critical);
+					if (decision == Decision.ALLOW) {
+						startTransfer(batch);
+					} else if (decision == Decision.POSTPONE) {
+						batch.chunks.forEach(c -> QUEUE.addLast(c.getId()));
+					} else {
+						LOGGER.info(batch.chunks.size() + " chunks deferred, outside of replication window");
+					}
 				}
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static void planReplication(final long chunkId, final Map<String, Batch> batches) throws SQLException {
+		if (IN_PROGRESS.contains(chunkId)) {
+			return;
+		}
 
-				final OnlineNode replicationTarget = optReplicationTarget.get();
-				final Optional<OnlineNode> optReplicationSource = Nodes.selectNode(chunk, TransferType.DOWNLOAD);
-				if (optReplicationSource.isEmpty()) {
-					LOGGER.warn("Cannot replicate chunk, no source node available.");
+		final Optional<Chunk> optChunk = Chunk.byId(chunkId);
+		if (optChunk.isEmpty()) {
+			LOGGER.warn("Skipping chunk " + chunkId + ", it has been deleted.");
+			return;
+		}
+		final Chunk chunk = optChunk.get();
+		final Optional<ChunkStripe> optStripe = chunk.getStripe();
+		if (optStripe.isPresent() || (chunk.getFile().isErasureCoded() && !chunk.hasReplicatedDependents())) {
+			startErasureCoding(chunk, optStripe);
+			return;
+		}
+
+		final List<Node> nodes = new ArrayList<>(chunk.getNodes());
+		// Replicas on nodes that are only briefly offline still count, replicas on draining nodes don't
+		nodes.removeIf(node -> OnlineNode.isFailed(node.getId()) || node.isDraining());
+		final Set<String> existingLabels = nodes.stream().map(Node::getLocation).distinct().collect(Collectors.toSet());
+		final int replication = existingLabels.size();
+		final String chunkStr = chunk.getFile().getId() + "." + chunk.getIndex();
+		final int goal = chunk.getReplicationGoal();
+		if (replication > goal) {
+			LOGGER.info("Chunk " + chunkStr + " is overgoal, extra copies are removed by overgoal trimming");
+			return;
+		} else if (replication == goal) {
+			LOGGER.warn("Chunk " + chunkStr + " is replicated correctly");
+			return;
+		}
+
+		LOGGER.info("Chunk " + chunkStr + " is undergoal (" + replication + "/" + goal + ")");
+		// Chunks that have been moved to archive nodes stay there
+		final NodeTier tier = !nodes.isEmpty() && nodes.stream().allMatch(n -> n.getTier() == NodeTier.ARCHIVE) ? NodeTier.ARCHIVE : NodeTier.HOT;
+		final List<OnlineNode> candidates = Nodes.selectNodes(OnlineNode.getOnlineNodes().size(), chunk, TransferType.UPLOAD, FilterStrategy.MUST_NOT, existingLabels, tier);
+		if (candidates.isEmpty()) {
+			LOGGER.warn("Cannot replicate chunk, no target node available. Current labels: " + String.join(", ", existingLabels));
+			return;
+		}
+		// Only consider targets in the most distant failure domain available, for example another
+		// rack if there is no other site. Link costs decide between those.
+		final int spread = Topology.getDistance(candidates.get(0).getLocation(), existingLabels);
+		final List<OnlineNode> targets = candidates.stream()
+				.filter(n -> Topology.getDistance(n.getLocation(), existingLabels) == spread)
+				.collect(Collectors.toList());
+
+		final List<OnlineNode> sources = chunk.getOnlineNodes();
+		if (sources.isEmpty()) {
+			LOGGER.warn("Cannot replicate chunk, no source node available.");
+			return;
+		}
+
+		// A chunk with only one live copy is at risk, replicate it regardless of replication windows. A
+		// copy on a draining node is not at more risk than usual, draining follows replication windows.
+		final boolean critical = sources.size() <= 1 && sources.stream().noneMatch(Node::isDraining);
+
+		// Choose the source and target with the lowest estimated transfer time. Only consider links that
+		// are currently inside a replication window. Targets are shuffled, so nodes in the same location
+		// are chosen randomly.
+		final long chunkSize = chunk.getFile().getChunkSize();
+		OnlineNode replicationSource = null;
+		OnlineNode replicationTarget = null;
+		double bestTime = Double.POSITIVE_INFINITY;
+		for (final OnlineNode source : sources) {
+			for (final OnlineNode target : targets) {
+				if (!critical && !ReplicationWindows.isOpen(source.getLocation(), target.getLocation())) {
 					continue;
 				}
+				final double time = LinkCosts.estimateTransferTime(source.getLocation(), target.getLocation(), chunkSize);
+				if (time < bestTime) {
+					bestTime = time;
+					replicationSource = source;
+					replicationTarget = target;
+				}
+			}
+		}
+
+		if (replicationSource == null) {
+			LOGGER.info("Chunk " + chunkStr + " deferred, outside of replication window");
+			return;
+		}
 
-				final OnlineNode replicationSource = optReplicationSource.get();
-				if (replicationTarget.requestReplicate(chunk, replicationSource, LOGGER)) {
-					LOGGER.info("Successfully replicated chunk.");
+		final OnlineNode source = replicationSource;
+		final OnlineNode target = replicationTarget;
+		final Batch batch = batches.computeIfAbsent(Batch.key(source, target), k -> new Batch(source, target));
+		batch.chunks.add(chunk);
+		batch.critical |= critical;
+	}
+
+	private static void startTransfer(final Batch batch) {
+		batch.chunks.forEach(c -> IN_PROGRESS.add(c.getId()));
+		MetaServer.getExecutorService().execute(() -> {
+			try {
+				final long start = System.currentTimeMillis();
+				final List<Long> replicated = batch.target.requestReplicate(batch.chunks, batch.source, LOGGER);
+				final long bytes = batch.chunks.stream().filter(c -> replicated.contains(c.getId())).mapToLong(c -> c.getFile().getChunkSize()).sum();
+				LinkCosts.recordTransfer(batch.source.getLocation(), batch.target.getLocation(), bytes, System.currentTimeMillis() - start);
+				Chunk.addNode(batch.target, batch.chunks.stream().map(Chunk::getId).collect(Collectors.toList()), replicated);
+				LOGGER.info("Replicated " + replicated.size() + "/" + batch.chunks.size() + " chunks from " + batch.source.getName() + " to " + batch.target.getName());
+			} catch (final SQLException e) {
+				LOGGER.warn("Failed to register replicated chunks", e);
+			} finally {
+				batch.chunks.forEach(c -> IN_PROGRESS.remove(c.getId()));
+				ReplicationWindows.finish(batch.source.getLocation(), batch.target.getLocation());
+			}
+		});
+	}
+
+	private static void startErasureCoding(final Chunk chunk, final Optional<ChunkStripe> optStripe) {
+		IN_PROGRESS.add(chunk.getId());
+		MetaServer.getExecutorService().execute(() -> {
+			try {
+				if (optStripe.isPresent()) {
+					ErasureCoding.reconstruct(chunk, optStripe.get());
+				} else {
+					ErasureCoding.encode(chunk);
 				}
-				chunk.addNode(replicationTarget);
-			} catch (final Exception e) {
-				e.printStackTrace();
+			} catch (final SQLException | IOException e) {
+				LOGGER.warn("Erasure coding failed for chunk " + chunk.getId(), e);
+			} finally {
+				IN_PROGRESS.remove(chunk.getId());
 			}
+		});
+	}
+
+	private static class Batch {
+
+		private final OnlineNode source;
+		private final OnlineNode target;
+		private final List<Chunk> chunks = new ArrayList<>();
+		private boolean critical = false;
+
+		private Batch(final OnlineNode source, final OnlineNode target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		private static String key(final OnlineNode source, final OnlineNode target) {
+			return source.getId() + "->" + target.getId();
 		}
+
 	}
 
 //	public static void addRandomChunksToQueue(final int amount) throws SQLException {
@@ -136,22 +295,61 @@ public class Replication {
 //		}
 //	}
 
+	// Chunks are scanned in order of id, continuing where the previous scan left off. Chunks
+	// that could not be replicated yet (outside replication window) are picked up again in the
+	// next pass, without starving chunks with higher ids.
+	private static long scanCursor = 0;
+
 	public static void addUndergoalChunks(final Deque<Long> queue, final int limit) throws SQLException {
+		final List<Long> failedNodes = Node.listFailedNodeIds();
+		final List<Long> drainingNodes = Node.listDrainingNodeIds();
+		final List<Long> excludedNodes = new ArrayList<>(failedNodes);
+		excludedNodes.addAll(drainingNodes);
+		final List<long[]> found = new ArrayList<>();
 		try (Connection conn = Database.getConnection();
 //				PreparedStatement query = conn.prepareStatement("SELECT id FROM chunk JOIN chunk_node ON id=chunk GROUP BY chunk.id HAVING COUNT(node) < ? LIMIT ?")) {
-				PreparedStatement query = conn.prepareStatement("SELECT chunk.id \n"
+				// Copies on failed and draining nodes are not counted, but a chunk with only such copies
+				// must still be found, so they are filtered in the count instead of the join. Deduplicated
+				// and inline chunks have no copies of their own.
+				PreparedStatement query = conn.prepareStatement("SELECT chunk.id, COUNT(DISTINCT node.location) FILTER (WHERE NOT node.id = ANY(?)) \n"
 						+ "FROM chunk \n"
-						+ "	JOIN chunk_node ON chunk=chunk.id \n"
-						+ "	JOIN node ON node=node.id \n"
-						+ "GROUP BY chunk.id \n"
-						+ "HAVING COUNT(DISTINCT node.location) < ? LIMIT ?")) {
-				query.setInt(1, Tunables.REPLICATION_GOAL);
-			query.setInt(2, limit);
+						+ "	LEFT JOIN chunk_node ON chunk=chunk.id \n"
+						+ "	LEFT JOIN node ON node=node.id \n"
+						+ "	JOIN inode ON chunk.file=inode.id \n"
+						+ "WHERE chunk.id > ? AND chunk.data IS NULL AND chunk.inline_data IS NULL \n"
+						+ "	AND (inode.erasure_data = 0 OR (" + Chunk.REPLICATED_DEPENDENTS_SQL + " AND NOT EXISTS (SELECT 1 FROM chunk_stripe WHERE chunk_stripe.chunk=chunk.id))) \n"
+						+ "GROUP BY chunk.id, inode.replication_goal \n"
+						+ "HAVING COUNT(DISTINCT node.location) FILTER (WHERE NOT node.id = ANY(?)) < " + Chunk.REPLICATION_GOAL_SQL + " \n"
+						+ "ORDER BY chunk.id LIMIT ?")) {
+			final Array excluded = conn.createArrayOf("bigint", excludedNodes.toArray());
+			query.setArray(1, excluded);
+			query.setLong(2, scanCursor);
+			query.setArray(3, excluded);
+			query.setInt(4, limit);
 			final ResultSet result = query.executeQuery();
 			while (result.next()) {
-				queue.add(result.getLong(1));
+				scanCursor = result.getLong(1);
+				found.add(new long[] {result.getLong(1), result.getLong(2)});
 			}
 		}
+
+		if (found.size() < limit) {
+			scanCursor = 0;
+		}
+
+		if (!failedNodes.isEmpty()) {
+			LOGGER.info("Not counting replicas on failed nodes: " + failedNodes);
+		}
+
+		if (!drainingNodes.isEmpty()) {
+			LOGGER.info("Not counting replicas on draining nodes: " + drainingNodes);
+		}
+
+		// Chunks with the fewest remaining replicas first
+		found.sort(Comparator.comparingLong(c -> c[1]));
+		for (final long[] chunk : found) {
+			queue.add(chunk[0]);
+		}
 	}
 
 }
@@ -0,0 +1,182 @@
+package eclipfs.metaserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feedback controller for replication speed. Foreground request rate and latency,
+ * database pool wait time and node RPC latency are measured and compared to their
+ * targets. When everything is below target replication speeds up, when any of them
+ * exceeds its target replication backs off proportionally.
+ */
+public class ReplicationThrottle {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Replication throttle");
+
+	// How much of a new sample is taken into the moving average
+	private static final double SMOOTHING = 0.3;
+	// How strongly the delay reacts to the load, per update
+	private static final double GAIN = 0.5;
+
+	private static final Signal REQUEST_LATENCY = new Signal();
+	private static final Signal POOL_WAIT = new Signal();
+	private static final Signal NODE_LATENCY = new Signal();
+
+	private static final LongAdder REQUEST_COUNT = new LongAdder();
+	private static double requestRate = 0;
+
+	private static long targetRequestRate = Tunables.THROTTLE_TARGET_REQUEST_RATE;
+	private static long targetRequestLatency = Tunables.THROTTLE_TARGET_REQUEST_LATENCY;
+	private static long targetPoolWait = Tunables.THROTTLE_TARGET_POOL_WAIT;
+	private static long targetNodeLatency = Tunables.THROTTLE_TARGET_NODE_LATENCY;
+	private static long minDelay = Tunables.REPLICATION_MIN_DELAY;
+	private static long maxDelay = Tunables.REPLICATION_MAX_DELAY;
+	private static long idleWait = Tunables.REPLICATION_IDLE_WAIT;
+
+	private static double load = 0;
+	private static double delay = Tunables.REPLICATION_DELAY;
+	private static long lastUpdate = System.currentTimeMillis();
+
+	// Recording is not synchronized, it is called for every request and database connection
+	public static void recordForegroundRequest(final long nanos) {
+		REQUEST_COUNT.increment();
+		REQUEST_LATENCY.add(nanos);
+	}
+
+	public static void recordPoolWait(final long nanos) {
+		POOL_WAIT.add(nanos);
+	}
+
+	public static void recordNodeLatency(final long nanos) {
+		NODE_LATENCY.add(nanos);
+	}
+
+	/**
+	 * Recalculate load and replication delay from the measurements since the last update.
+	 * Called by the replication thread, does nothing if called more often than
+	 * {@link Tunables#THROTTLE_UPDATE_INTERVAL}.
+	 */
+	static synchronized void update() {
+		final long now = System.currentTimeMillis();
+		final long elapsed = now - lastUpdate;
+		if (elapsed < Tunables.THROTTLE_UPDATE_INTERVAL) {
+			return;
+		}
+		lastUpdate = now;
+
+		requestRate = smooth(requestRate, REQUEST_COUNT.sumThenReset() * 1000.0 / elapsed);
+		REQUEST_LATENCY.update();
+		POOL_WAIT.update();
+		NODE_LATENCY.update();
+
+		load = Math.max(
+				Math.max(requestRate / targetRequestRate, REQUEST_LATENCY.average / targetRequestLatency),
+				Math.max(POOL_WAIT.average / targetPoolWait, NODE_LATENCY.average / targetNodeLatency));
+
+		// Back off at most 2x and speed up at most 2x per update, so changes are gradual
+		final double factor = Math.max(0.5, Math.min(2, 1 + GAIN * (load - 1)));
+		final double previousDelay = delay;
+		// A delay of zero would never grow again, back off from at least 1ms
+		delay = Math.max(minDelay, Math.min(maxDelay, Math.max(delay, 1) * factor));
+
+		if (Math.abs(delay - previousDelay) > previousDelay / 4) {
+			LOGGER.info("Load {}, replication delay changed from {}ms to {}ms", String.format("%.2f", load), (long) previousDelay, (long) delay);
+		}
+	}
+
+	private static double smooth(final double average, final double sample) {
+		return SMOOTHING * sample + (1 - SMOOTHING) * average;
+	}
+
+	public static synchronized long getDelay() {
+		return (long) delay;
+	}
+
+	public static synchronized long getIdleWait() {
+		return idleWait;
+	}
+
+	public static synchronized double getLoad() {
+		return load;
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("load", String.format("%.2f", load));
+		state.put("delay", (long) delay + " ms");
+		state.put("request rate", String.format("%.1f/s", requestRate));
+		state.put("request latency", String.format("%.1f ms", REQUEST_LATENCY.average));
+		state.put("pool wait", String.format("%.1f ms", POOL_WAIT.average));
+		state.put("node latency", String.format("%.1f ms", NODE_LATENCY.average));
+		return state;
+	}
+
+	public static synchronized Map<String, Long> getTargets() {
+		final Map<String, Long> targets = new LinkedHashMap<>();
+		targets.put("request_rate", targetRequestRate);
+		targets.put("request_latency", targetRequestLatency);
+		targets.put("pool_wait", targetPoolWait);
+		targets.put("node_latency", targetNodeLatency);
+		targets.put("min_delay", minDelay);
+		targets.put("max_delay", maxDelay);
+		targets.put("idle_wait", idleWait);
+		return targets;
+	}
+
+	public static synchronized void setTarget(final String name, final long value) {
+		Validate.notNull(name, "Name is null");
+		Validate.isTrue(value >= 0, "Value must be >= 0");
+		switch (name) {
+			case "request_rate" -> targetRequestRate = nonZero(value);
+			case "request_latency" -> targetRequestLatency = nonZero(value);
+			case "pool_wait" -> targetPoolWait = nonZero(value);
+			case "node_latency" -> targetNodeLatency = nonZero(value);
+			case "min_delay" -> {
+				Validate.isTrue(value <= maxDelay, "min_delay must be <= max_delay");
+				minDelay = value;
+			}
+			case "max_delay" -> {
+				Validate.isTrue(value >= minDelay, "max_delay must be >= min_delay");
+				maxDelay = value;
+			}
+			case "idle_wait" -> idleWait = value;
+			default -> throw new IllegalArgumentException("Unknown target '" + name + "'");
+		}
+		delay = Math.max(minDelay, Math.min(maxDelay, delay));
+		LOGGER.info("Throttle target {} set to {}", name, value);
+	}
+
+	private static long nonZero(final long value) {
+		Validate.isTrue(value > 0, "Target must be > 0");
+		return value;
+	}
+
+	private static class Signal {
+
+		private final LongAdder sum = new LongAdder();
+		private final LongAdder count = new LongAdder();
+		private double average = 0;
+
+		private void add(final long nanos) {
+			this.sum.add(nanos);
+			this.count.increment();
+		}
+
+		private void update() {
+			// A sample recorded in between may be counted in the next update instead, that is fine for an average
+			final long count = this.count.sumThenReset();
+			final long sum = this.sum.sumThenReset();
+			// No samples means no load, let the average decay towards zero
+			final double sample = count == 0 ? 0 : sum / 1_000_000.0 / count;
+			this.average = smooth(this.average, sample);
+		}
+
+	}
+
+}
@@ -0,0 +1,150 @@
+package eclipfs.metaserver;
+
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import eclipfs.metaserver.model.ReplicationWindow;
+
+/**
+ * Decides when chunks may be replicated between a pair of locations. Location pairs
+ * without any configured window can replicate at any time. Pairs with windows only
+ * replicate while one of their windows is active, limited by the concurrency and
+ * bandwidth of that window. A window for a failure domain applies to all locations
+ * inside it, limits are counted per pair of node locations.
+ */
+public class ReplicationWindows {
+
+	private static List<ReplicationWindow> windows = null;
+	private static final Map<String, Pair> PAIRS = new HashMap<>();
+
+	public static synchronized void reload() throws SQLException {
+		windows = ReplicationWindow.list();
+	}
+
+	private static List<ReplicationWindow> getWindows() throws SQLException {
+		if (windows == null) {
+			reload();
+		}
+		return windows;
+	}
+
+	private static Pair getPair(final String sourceLocation, final String targetLocation) {
+		return PAIRS.computeIfAbsent(sourceLocation + " -> " + targetLocation, k -> new Pair());
+	}
+
+	private static boolean isRestricted(final String sourceLocation, final String targetLocation) throws SQLException {
+		return getWindows().stream().anyMatch(w -> w.matches(sourceLocation, targetLocation));
+	}
+
+	/**
+	 * @return Window that currently applies to this location pair, preferring the window
+	 * with the most specific locations, see {@link ReplicationWindow#getSpecificity()}.
+	 */
+	private static Optional<ReplicationWindow> getActiveWindow(final String sourceLocation, final String targetLocation) throws SQLException {
+		final int hour = LocalTime.now().getHour();
+		ReplicationWindow active = null;
+		for (final ReplicationWindow window : getWindows()) {
+			if (!window.matches(sourceLocation, targetLocation) || !window.isActive(hour)) {
+				continue;
+			}
+			if (active == null || window.getSpecificity() > active.getSpecificity()) {
+				active = window;
+			}
+		}
+		return Optional.ofNullable(active);
+	}
+
+	/**
+	 * @return Whether replication between these locations is currently allowed, not taking limits into account
+	 */
+	public static synchronized boolean isOpen(final String sourceLocation, final String targetLocation) throws SQLException {
+		return getActiveWindow(sourceLocation, targetLocation).isPresent() || !isRestricted(sourceLocation, targetLocation);
+	}
+
+	/**
+	 * @return Bandwidth limit in bytes per second of the currently active window, 0 if unlimited
+	 */
+	public static synchronized long getBandwidthLimit(final String sourceLocation, final String targetLocation) throws SQLException {
+		return getActiveWindow(sourceLocation, targetLocation).map(ReplicationWindow::getBandwidth).orElse(0L);
+	}
+
+	public static synchronized int getInFlight(final String sourceLocation, final String targetLocation) {
+		return getPair(sourceLocation, targetLocation).inFlight;
+	}
+
+	/**
+	 * Try to start a transfer of one or more chunks between two locations. If {@link Decision#ALLOW} is returned,
+	 * {@link #finish(String, String)} must be called when the transfer is done.
+	 * @param bytes Approximate size of the transfer, counted towards the bandwidth limit
+	 * @param critical Whether the chunk is at risk of being lost. Critical chunks ignore windows
+	 * and bandwidth limits, but still count towards them. They are limited by
+	 * {@link Tunables#REPLICATION_CRITICAL_CONCURRENCY} instead.
+	 */
+	public static synchronized Decision tryStart(final String sourceLocation, final String targetLocation, final long bytes, final boolean critical) throws SQLException {
+		final Pair pair = getPair(sourceLocation, targetLocation);
+		final Optional<ReplicationWindow> optWindow = getActiveWindow(sourceLocation, targetLocation);
+
+		if (critical) {
+			if (pair.inFlight >= Tunables.REPLICATION_CRITICAL_CONCURRENCY) {
+				return Decision.POSTPONE;
+			}
+		} else {
+			if (optWindow.isPresent()) {
+				final ReplicationWindow window = optWindow.get();
+				if (pair.inFlight >= window.getConcurrency()) {
+					return Decision.POSTPONE;
+				}
+				if (window.getBandwidth() > 0 && pair.availableBytes(window.getBandwidth()) < 0) {
+					return Decision.POSTPONE;
+				}
+			} else if (isRestricted(sourceLocation, targetLocation)) {
+				return Decision.DEFER;
+			} else if (pair.inFlight >= Tunables.REPLICATION_DEFAULT_CONCURRENCY) {
+				return Decision.POSTPONE;
+			}
+		}
+
+		pair.inFlight++;
+		if (optWindow.isPresent() && optWindow.get().getBandwidth() > 0) {
+			pair.availableBytes(optWindow.get().getBandwidth());
+			pair.bytes -= bytes;
+		}
+		return Decision.ALLOW;
+	}
+
+	public static synchronized void finish(final String sourceLocation, final String targetLocation) {
+		getPair(sourceLocation, targetLocation).inFlight--;
+	}
+
+	public enum Decision {
+
+		/** Transfer may start now */
+		ALLOW,
+		/** Window is open but its limits are reached, try again soon */
+		POSTPONE,
+		/** Outside of replication windows for this pair, try again in a later scan */
+		DEFER;
+
+	}
+
+	private static class Pair {
+
+		private int inFlight = 0;
+		// Token bucket, may go negative if a chunk is larger than the budget for one second
+		private long bytes = 0;
+		private long lastRefill = System.currentTimeMillis();
+
+		private long availableBytes(final long bandwidth) {
+			final long now = System.currentTimeMillis();
+			this.bytes = Math.min(bandwidth, this.bytes + (now - this.lastRefill) * bandwidth / 1000);
+			this.lastRefill = now;
+			return this.bytes;
+		}
+
+	}
+
+}
@@ -0,0 +1,224 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.codec.Hex;
+
+import eclipfs.metaserver.model.ChunkReport;
+import eclipfs.metaserver.model.OnlineNode;
+import eclipfs.metaserver.model.OnlineNode.Verification;
+import xyz.derkades.derkutils.StringFormatUtils;
+
+/**
+ * Has nodes read their chunks and shards from disk and compare them to the stored checksums, so
+ * corrupt data is found before a client or replication needs it. Each node is scrubbed in passes
+ * over its chunk ids, in order, and a pass is spread over {@link Tunables#SCRUB_PERIOD}: a node
+ * only gets a batch when it is behind schedule. Batches are limited to
+ * {@link Tunables#SCRUB_MAX_BYTES_PER_SECOND} and {@link Tunables#SCRUB_MAX_CHUNKS_PER_SECOND} per
+ * node, and scrubbing pauses while replication is paused for foreground transfers. Progress is
+ * stored in the node table, so a restart of the metaserver does not restart passes. Corrupt or
+ * missing copies are unregistered and added to the replication repair queue.
+ */
+public class Scrubber {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Scrubber");
+
+	private static final Set<Long> IN_PROGRESS = ConcurrentHashMap.newKeySet();
+	private static final Map<Long, Long> PASS_TOTAL = new ConcurrentHashMap<>(); // node -> chunks in current pass
+	private static final Map<Long, Long> LAST_BATCH = new ConcurrentHashMap<>(); // node -> time
+
+	private static long verifiedChunks = 0;
+	private static long verifiedBytes = 0;
+	private static long corrupt = 0;
+	private static long missing = 0;
+	private static final Set<Long> BEHIND = ConcurrentHashMap.newKeySet();
+
+	static void run() {
+		while(true) {
+			try {
+				Thread.sleep(Tunables.SCRUB_INTERVAL);
+
+				if (Replication.isBusy()) {
+					continue;
+				}
+
+				for (final OnlineNode node : OnlineNode.getOnlineNodes()) {
+					if (node.isDraining() || !IN_PROGRESS.add(node.getId())) {
+						continue;
+					}
+					MetaServer.getExecutorService().execute(() -> {
+						try {
+							scrub(node);
+						} catch (final Exception e) {
+							LOGGER.warn("Failed to scrub {}", node.getName(), e);
+						} finally {
+							IN_PROGRESS.remove(node.getId());
+						}
+					});
+				}
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static void scrub(final OnlineNode node) throws SQLException {
+		final long now = System.currentTimeMillis();
+		long cursor;
+		long start;
+		long verified;
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT scrub_cursor, scrub_start, scrub_verified FROM node WHERE id=?")) {
+			query.setLong(1, node.getId());
+			final ResultSet result = query.executeQuery();
+			if (!result.next()) {
+				return;
+			}
+			cursor = result.getLong(1);
+			start = result.getLong(2);
+			verified = result.getLong(3);
+		}
+
+		if (start == 0) {
+			start = now;
+			cursor = 0;
+			verified = 0;
+			PASS_TOTAL.remove(node.getId());
+		}
+
+		if (!PASS_TOTAL.containsKey(node.getId())) {
+			PASS_TOTAL.put(node.getId(), countStored(node));
+		}
+
+		final long total = PASS_TOTAL.get(node.getId());
+		final long elapsed = now - start;
+		if (elapsed > Tunables.SCRUB_PERIOD) {
+			if (BEHIND.add(node.getId())) {
+				LOGGER.warn("Scrubbing of {} is behind schedule, {} of {} chunks verified", node.getName(), verified, total);
+			}
+		} else if (total > 0 && verified >= total * elapsed / Tunables.SCRUB_PERIOD) {
+			// Ahead of schedule. Nodes that were empty at the start of the pass check for new chunks every time.
+			return;
+		}
+
+		final long lastBatch = LAST_BATCH.getOrDefault(node.getId(), now - Tunables.SCRUB_INTERVAL);
+		final long seconds = Math.max(1, Math.min(now - lastBatch, 2 * Tunables.SCRUB_INTERVAL) / 1000);
+		final long maxBytes = Tunables.SCRUB_MAX_BYTES_PER_SECOND * seconds;
+		final int maxChunks = (int) (Tunables.SCRUB_MAX_CHUNKS_PER_SECOND * seconds);
+		LAST_BATCH.put(node.getId(), now);
+
+		final Map<Long, String> checksums = new LinkedHashMap<>();
+		final Map<Long, Long> chunkIds = new HashMap<>(); // chunk or shard id -> chunk id
+		long bytes = 0;
+		boolean passDone = true;
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT id, chunk, checksum, size FROM ( \n"
+						+ "	SELECT chunk.id AS id, chunk.id AS chunk, chunk.checksum AS checksum, \n"
+						+ "		LEAST(inode.chunk_size, GREATEST(0, inode.size - chunk.index::bigint * inode.chunk_size)) AS size \n"
+						+ "	FROM chunk_node JOIN chunk ON chunk_node.chunk=chunk.id JOIN inode ON chunk.file=inode.id \n"
+						+ "	WHERE chunk_node.node=? AND chunk.id > ? \n"
+						+ "	UNION ALL \n"
+						+ "	SELECT chunk_shard.id, chunk_shard.chunk, chunk_shard.checksum, chunk_stripe.size / chunk_stripe.data_shards \n"
+						+ "	FROM chunk_shard JOIN chunk_stripe ON chunk_shard.chunk=chunk_stripe.chunk \n"
+						+ "	WHERE chunk_shard.node=? AND chunk_shard.id > ? \n"
+						+ ") stored ORDER BY id LIMIT ?")) {
+			query.setLong(1, node.getId());
+			query.setLong(2, cursor);
+			query.setLong(3, node.getId());
+			query.setLong(4, cursor);
+			query.setInt(5, maxChunks);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				if (!checksums.isEmpty() && bytes + result.getLong(4) > maxBytes) {
+					passDone = false;
+					break;
+				}
+				checksums.put(result.getLong(1), new String(Hex.encode(result.getBytes(3))));
+				chunkIds.put(result.getLong(1), result.getLong(2));
+				bytes += result.getLong(4);
+				cursor = result.getLong(1);
+			}
+			if (checksums.size() == maxChunks) {
+				passDone = false;
+			}
+		}
+
+		if (!checksums.isEmpty()) {
+			final Optional<Verification> optVerification = node.verifyChunks(checksums, LOGGER);
+			if (optVerification.isEmpty()) {
+				return;
+			}
+			final Verification verification = optVerification.get();
+			final List<Long> failed = new ArrayList<>(verification.getCorrupt());
+			failed.addAll(verification.getMissing());
+			if (!failed.isEmpty()) {
+				ChunkReport.removeMissing(node, failed.stream().mapToLong(Long::longValue).toArray());
+				failed.forEach(id -> Replication.addRepair(chunkIds.get(id)));
+				LOGGER.warn("Node {} has {} corrupt and {} missing chunks, they will be replaced", node.getName(), verification.getCorrupt().size(), verification.getMissing().size());
+			}
+			verified += checksums.size();
+
+			synchronized(Scrubber.class) {
+				verifiedChunks += checksums.size();
+				verifiedBytes += bytes;
+				corrupt += verification.getCorrupt().size();
+				missing += verification.getMissing().size();
+			}
+		}
+
+		if (passDone) {
+			LOGGER.info("Scrubbing of {} done, verified {} chunks in {} hours", node.getName(), verified, (now - start) / 3_600_000);
+			BEHIND.remove(node.getId());
+			PASS_TOTAL.remove(node.getId());
+			cursor = 0;
+			start = 0;
+			verified = 0;
+		}
+
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE node SET scrub_cursor=?, scrub_start=?, scrub_verified=? WHERE id=?")) {
+			query.setLong(1, cursor);
+			query.setLong(2, start);
+			query.setLong(3, verified);
+			query.setLong(4, node.getId());
+			query.execute();
+		}
+	}
+
+	private static long countStored(final OnlineNode node) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT (SELECT COUNT(*) FROM chunk_node WHERE node=?) + (SELECT COUNT(*) FROM chunk_shard WHERE node=?)")) {
+			query.setLong(1, node.getId());
+			query.setLong(2, node.getId());
+			final ResultSet result = query.executeQuery();
+			result.next();
+			return result.getLong(1);
+		}
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("scrub in progress", String.valueOf(IN_PROGRESS.size()));
+		state.put("chunks scrubbed", String.valueOf(verifiedChunks));
+		state.put("bytes scrubbed", StringFormatUtils.formatByteCount(verifiedBytes));
+		state.put("corrupt chunks", String.valueOf(corrupt));
+		state.put("missing chunks", String.valueOf(missing));
+		state.put("nodes behind schedule", String.valueOf(BEHIND.size()));
+		return state;
+	}
+
+}
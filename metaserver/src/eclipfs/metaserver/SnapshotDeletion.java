@@ -0,0 +1,106 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the inodes of deleted snapshots in batches, so deleting a large snapshot doesn't hold
+ * locks on the inode and chunk tables for a long time. Files are removed first, their chunks are
+ * removed by the database and data that is no longer used by any chunk is removed from the nodes
+ * through the deletion journal. Directories are removed once no files are left, and finally the
+ * snapshot itself.
+ */
+public class SnapshotDeletion {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Snapshot deletion");
+
+	private static long deletedInodes = 0;
+	private static long deletedSnapshots = 0;
+
+	static void run() {
+		while(true) {
+			try {
+				Thread.sleep(Tunables.SNAPSHOT_DELETION_INTERVAL);
+
+				for (final long snapshot : listDeleted()) {
+					while (deleteFiles(snapshot) == Tunables.SNAPSHOT_DELETION_BATCH_SIZE) {
+						Thread.sleep(ReplicationThrottle.getDelay());
+					}
+					deleteDirectories(snapshot);
+				}
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static List<Long> listDeleted() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT id FROM \"snapshot\" WHERE deleted")) {
+			final ResultSet result = query.executeQuery();
+			final List<Long> ids = new ArrayList<>();
+			while (result.next()) {
+				ids.add(result.getLong(1));
+			}
+			return ids;
+		}
+	}
+
+	/**
+	 * @return Number of deleted files
+	 */
+	private static int deleteFiles(final long snapshot) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("DELETE FROM inode WHERE id IN \n"
+						+ "	(SELECT id FROM inode WHERE snapshot=? AND is_file='True' LIMIT ?)")) {
+			query.setLong(1, snapshot);
+			query.setInt(2, Tunables.SNAPSHOT_DELETION_BATCH_SIZE);
+			final int deleted = query.executeUpdate();
+			synchronized(SnapshotDeletion.class) {
+				deletedInodes += deleted;
+			}
+			return deleted;
+		}
+	}
+
+	/**
+	 * Remove the directories of a snapshot without files. Directories refer to their parent, so they
+	 * are removed by a single query.
+	 */
+	private static void deleteDirectories(final long snapshot) throws SQLException {
+		try (Connection conn = Database.getConnection()) {
+			final int deleted;
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM inode WHERE snapshot=?")) {
+				query.setLong(1, snapshot);
+				deleted = query.executeUpdate();
+			}
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM \"snapshot\" WHERE id=?")) {
+				query.setLong(1, snapshot);
+				query.execute();
+			}
+			synchronized(SnapshotDeletion.class) {
+				deletedInodes += deleted;
+				deletedSnapshots++;
+			}
+			LOGGER.info("Deleted snapshot {}", snapshot);
+		}
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("deleted snapshots", String.valueOf(deletedSnapshots));
+		state.put("deleted snapshot inodes", String.valueOf(deletedInodes));
+		return state;
+	}
+
+}
@@ -0,0 +1,187 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.ReplicationWindows.Decision;
+import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.NodeTier;
+import eclipfs.metaserver.model.OnlineNode;
+
+/**
+ * Moves chunks of files that have not been modified or read for {@link Tunables#TIERING_COLD_AGE}
+ * from hot nodes to archive nodes. Chunks are copied by the archive node like in normal replication,
+ * then the copy on the hot node is unregistered, after which it is removed by garbage collection.
+ * Tiering only runs while replication is not busy, and uses the same replication windows, so it
+ * does not compete with replication of undergoal chunks.
+ */
+public class Tiering {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Tiering");
+
+	private static final Deque<long[]> QUEUE = new ArrayDeque<>(); // chunk, node
+	private static final Set<Long> IN_PROGRESS = ConcurrentHashMap.newKeySet();
+
+	private static long scanCursor = 0;
+	private static long moved = 0;
+	private static long noTarget = 0;
+
+	static void run() {
+		while(true) {
+			try {
+				Thread.sleep(ReplicationThrottle.getDelay());
+
+				if (Replication.isBusy()) {
+					continue;
+				}
+
+				if (QUEUE.isEmpty()) {
+					final boolean fullScan = scanCursor == 0;
+					addColdChunks();
+					if (QUEUE.isEmpty() && fullScan) {
+						Thread.sleep(Tunables.TIERING_EMPTY_SLEEP);
+					} else if (!QUEUE.isEmpty()) {
+						LOGGER.info("Found " + QUEUE.size() + " cold chunks on hot nodes");
+					}
+					continue;
+				}
+
+				// Group chunks by source and target node, so they can be transferred in a single request
+				final Map<String, Batch> batches = new HashMap<>();
+				for (int i = 0; i < Tunables.TIERING_BATCH_SIZE && !QUEUE.isEmpty(); i++) {
+					final long[] entry = QUEUE.pop();
+					planMove(entry[0], entry[1], batches);
+				}
+
+				for (final Batch batch : batches.values()) {
+					final long bytes = batch.chunks.stream().mapToLong(c -> c.getFile().getChunkSize()).sum();
+					final Decision decision = ReplicationWindows.tryStart(batch.source.getLocation(), batch.target.getLocation(), bytes, false);
+					if (decision == Decision.ALLOW) {
+						startTransfer(batch);
+					} else if (decision == Decision.POSTPONE) {
+						batch.chunks.forEach(c -> QUEUE.addLast(new long[] {c.getId(), batch.source.getId()}));
+					}
+					// Deferred chunks are found again in the next scan
+				}
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static void addColdChunks() throws SQLException {
+		final long coldBefore = System.currentTimeMillis() - Tunables.TIERING_COLD_AGE;
+		int found = 0;
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT chunk.id, node.id \n"
+						+ "FROM chunk_node \n"
+						+ "	JOIN node ON chunk_node.node=node.id \n"
+						+ "	JOIN chunk ON chunk_node.chunk=chunk.id \n"
+						+ "	JOIN inode ON chunk.file=inode.id \n"
+						+ "WHERE chunk.id > ? AND node.tier = ? AND chunk_node.temporary_since IS NULL \n"
+						+ "	AND inode.erasure_data = 0 AND GREATEST(inode.mtime, COALESCE(inode.atime, 0)) < ? \n"
+						+ "ORDER BY chunk.id LIMIT ?")) {
+			query.setLong(1, scanCursor);
+			query.setString(2, NodeTier.HOT.getName());
+			query.setLong(3, coldBefore);
+			query.setInt(4, Tunables.TIERING_SCAN_AMOUNT);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				scanCursor = result.getLong(1);
+				QUEUE.add(new long[] {result.getLong(1), result.getLong(2)});
+				found++;
+			}
+		}
+
+		// The limit may cut off the nodes of the last chunk, those are found in the next pass
+		if (found < Tunables.TIERING_SCAN_AMOUNT) {
+			scanCursor = 0;
+		}
+	}
+
+	private static void planMove(final long chunkId, final long nodeId, final Map<String, Batch> batches) throws SQLException {
+		if (IN_PROGRESS.contains(chunkId)) {
+			return;
+		}
+
+		final Optional<OnlineNode> optSource = OnlineNode.getOnlineNodeById(nodeId);
+		final Optional<Chunk> optChunk = Chunk.byId(chunkId);
+		if (optSource.isEmpty() || optChunk.isEmpty()) {
+			return;
+		}
+		final OnlineNode source = optSource.get();
+		final Chunk chunk = optChunk.get();
+
+		final Optional<OnlineNode> optTarget = Nodes.selectTierNode(chunk, source, NodeTier.ARCHIVE);
+		if (optTarget.isEmpty()) {
+			synchronized(Tiering.class) {
+				noTarget++;
+			}
+			return;
+		}
+		final OnlineNode target = optTarget.get();
+
+		batches.computeIfAbsent(source.getId() + "->" + target.getId(), k -> new Batch(source, target)).chunks.add(chunk);
+	}
+
+	private static void startTransfer(final Batch batch) {
+		batch.chunks.forEach(c -> IN_PROGRESS.add(c.getId()));
+		MetaServer.getExecutorService().execute(() -> {
+			try {
+				final long start = System.currentTimeMillis();
+				final List<Long> replicated = batch.target.requestReplicate(batch.chunks, batch.source, LOGGER);
+				final long bytes = batch.chunks.stream().filter(c -> replicated.contains(c.getId())).mapToLong(c -> c.getFile().getChunkSize()).sum();
+				LinkCosts.recordTransfer(batch.source.getLocation(), batch.target.getLocation(), bytes, System.currentTimeMillis() - start);
+				Chunk.moveNode(batch.source, batch.target, replicated);
+				synchronized(Tiering.class) {
+					moved += replicated.size();
+				}
+				LOGGER.info("Moved " + replicated.size() + "/" + batch.chunks.size() + " chunks from " + batch.source.getName() + " to " + batch.target.getName());
+			} catch (final SQLException e) {
+				LOGGER.warn("Failed to register moved chunks", e);
+			} finally {
+				batch.chunks.forEach(c -> IN_PROGRESS.remove(c.getId()));
+				ReplicationWindows.finish(batch.source.getLocation(), batch.target.getLocation());
+			}
+		});
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("tiering queue", String.valueOf(QUEUE.size()));
+		state.put("tiering in progress", String.valueOf(IN_PROGRESS.size()));
+		state.put("chunks archived", String.valueOf(moved));
+		state.put("no archive node", String.valueOf(noTarget));
+		return state;
+	}
+
+	private static class Batch {
+
+		private final OnlineNode source;
+		private final OnlineNode target;
+		private final List<Chunk> chunks = new ArrayList<>();
+
+		private Batch(final OnlineNode source, final OnlineNode target) {
+			this.source = source;
+			this.target = target;
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+package eclipfs.metaserver;
+
+import java.util.Collection;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Node locations form a hierarchy of failure domains, written from the largest to the smallest
+ * domain and separated by slashes, for example <code>eu/ams1/rack3/host12</code>. Locations without
+ * a slash are a single domain, so flat locations behave like before: equal or not.
+ */
+public class Topology {
+
+	public static final String SEPARATOR = "/";
+
+	private static String[] parse(final String location) {
+		Validate.notNull(location, "Location is null");
+		return location.split(SEPARATOR, -1);
+	}
+
+	/**
+	 * @return Number of failure domain levels the two locations share, starting from the top
+	 */
+	public static int getCommonDepth(final String a, final String b) {
+		final String[] domainsA = parse(a);
+		final String[] domainsB = parse(b);
+		int depth = 0;
+		while (depth < domainsA.length && depth < domainsB.length && domainsA[depth].equals(domainsB[depth])) {
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * @return Whether the location is the given failure domain or inside it, for example <code>eu/ams1</code>
+	 * contains <code>eu/ams1/rack3/host12</code>
+	 */
+	public static boolean contains(final String domain, final String location) {
+		return getCommonDepth(domain, location) == parse(domain).length;
+	}
+
+	/**
+	 * @return Number of failure domain levels in a location
+	 */
+	public static int getDepth(final String location) {
+		return parse(location).length;
+	}
+
+	/**
+	 * @return Distance between two locations: 0 for the same location, otherwise the number of levels
+	 * between the deepest of the two locations and their closest common failure domain. For example,
+	 * two hosts in the same rack have distance 1 and two hosts in different regions have distance 4.
+	 */
+	public static int getDistance(final String a, final String b) {
+		final int depth = Math.max(parse(a).length, parse(b).length);
+		return depth - getCommonDepth(a, b);
+	}
+
+	/**
+	 * @return Distance to the nearest of the given locations, or {@link Integer#MAX_VALUE} if there are none
+	 */
+	public static int getDistance(final String location, final Collection<String> others) {
+		int min = Integer.MAX_VALUE;
+		for (final String other : others) {
+			min = Math.min(min, getDistance(location, other));
+		}
+		return min;
+	}
+
+}
@@ -2,19 +2,93 @@ package eclipfs.metaserver;
 
 public class Tunables {
 
+	// Default for the root directory, other inodes inherit the goal of their parent directory
 	public static final int REPLICATION_GOAL = 2;
+	public static final int REPLICATION_GOAL_MAX = 8;
 
 	public static final int MINIMUM_FREE_SPACE_FOR_UPLOAD = 50_000_000; // 50 MB
 
 	public static final int NODE_OFFLINE_TIMEOUT = 15_000;
+	public static final long NODE_ANNOUNCE_INTERVAL = 11_500; // expected, chunkservers announce every 10-13 seconds
+	// A node is only considered failed, and its chunks replicated elsewhere, if its failure detector
+	// phi value exceeds the threshold and it has not announced for at least the grace period.
+	public static final double NODE_FAILURE_PHI_THRESHOLD = 8;
+	public static final long NODE_FAILURE_GRACE_PERIOD = 15 * 60_000;
 
 	public static final long REPLICATION_IDLE_WAIT = 5_000;
 	public static final long REPLICATION_DELAY = 200;
 	public static final int REPLICATION_ADD_AMOUNT = 5000;
 	public static final int REPLICATION_EMPTY_SLEEP = 120_000;
+	public static final int REPLICATION_BATCH_SIZE = 32; // max chunks per replication request
+	public static final int REPLICATION_DEFAULT_CONCURRENCY = 1; // for location pairs without replication windows
+	public static final int REPLICATION_CRITICAL_CONCURRENCY = 8; // per location pair for chunks at risk of being lost, regardless of windows
+
+	// Defaults for the adaptive replication throttle, can be changed at runtime using the throttle command
+	public static final long REPLICATION_MIN_DELAY = 20;
+	public static final long REPLICATION_MAX_DELAY = 10_000;
+	public static final long THROTTLE_UPDATE_INTERVAL = 1_000;
+	public static final long THROTTLE_TARGET_REQUEST_RATE = 20; // foreground requests per second
+	public static final long THROTTLE_TARGET_REQUEST_LATENCY = 250; // ms
+	public static final long THROTTLE_TARGET_POOL_WAIT = 20; // ms
+	public static final long THROTTLE_TARGET_NODE_LATENCY = 500; // ms
+
+	// Assumed link throughput between locations until it has been measured, in bytes per second
+	public static final long LINK_DEFAULT_LOCAL_THROUGHPUT = 50_000_000;
+	public static final long LINK_DEFAULT_REMOTE_THROUGHPUT = 5_000_000;
+
+	// Chunks read often from one location get an extra temporary copy in that location. Read counts
+	// are halved every decay interval, so the threshold is roughly reads per decay interval.
+	public static final int HOT_CHUNK_SKETCH_WIDTH = 4096;
+	public static final double HOT_CHUNK_THRESHOLD = 50;
+	public static final double HOT_CHUNK_COOL_THRESHOLD = 5;
+	public static final long HOT_CHUNK_DECAY_INTERVAL = 60_000;
+	public static final long HOT_CHUNK_RECHECK_INTERVAL = 5 * 60_000; // don't try to place a copy for the same chunk and location more often
+	public static final long HOT_CHUNK_MIN_LIFETIME = 30 * 60_000; // temporary copies are kept at least this long
+	public static final long HOT_CHUNK_TRIM_INTERVAL = 60_000;
+
+	// Copies of chunks above the replication goal are removed
+	public static final int TRIM_SCAN_AMOUNT = 1000;
+	public static final long TRIM_EMPTY_SLEEP = 10 * 60_000;
+
+	// Nodes in the same location are only rebalanced if their free space differs by more than this
+	public static final long REBALANCE_MIN_FREE_DIFFERENCE = 10_000_000_000L; // 10 GB
+
+	// Chunks of files not modified or read for this long are moved from hot to archive nodes
+	public static final long TIERING_COLD_AGE = 365L * 24 * 60 * 60 * 1000;
+	public static final long TIERING_ATIME_RESOLUTION = 24 * 60 * 60 * 1000; // access time is only updated if older than this
+	public static final int TIERING_SCAN_AMOUNT = 1000;
+	public static final int TIERING_BATCH_SIZE = 100;
+	public static final long TIERING_EMPTY_SLEEP = 10 * 60_000;
+
+	public static final long SCRUB_PERIOD = 30L * 24 * 60 * 60 * 1000; // every chunk is verified once in this period
+	public static final long SCRUB_INTERVAL = 10_000;
+	public static final long SCRUB_MAX_BYTES_PER_SECOND = 10_000_000; // per node
+	public static final long SCRUB_MAX_CHUNKS_PER_SECOND = 20; // per node
+
+	public static final long UPLOAD_EXPIRY_AGE = 60 * 60 * 1000; // unfinished uploads are removed after this time
+	public static final long UPLOAD_EXPIRY_INTERVAL = 10 * 60_000;
+	public static final int UPLOAD_EXPIRY_BATCH_SIZE = 1000;
+
+	public static final long SNAPSHOT_DELETION_INTERVAL = 60_000;
+	public static final int SNAPSHOT_DELETION_BATCH_SIZE = 1000; // inodes per query
+
+	public static final int DELETION_JOURNAL_BATCH_SIZE = 1000; // max journal entries per request from a node
+
+	// A full chunk report that would unregister more than this fraction of the copies and shards of a node is refused,
+	// the data directory of the node is probably empty or not mounted
+	public static final double REPORT_MAX_MISSING_FRACTION = 0.9;
+	public static final int REPORT_MIN_REFUSED_MISSING = 100; // smaller numbers of missing copies and shards are never refused
+
+	public static final int FSCK_THREADS = 4; // leave connections in the pool for normal requests
+	public static final int FSCK_PAGE_SIZE = 10_000;
+	public static final long FSCK_MIN_AGE = 24 * 60 * 60 * 1000;
 
 	public static final int NODE_TOKEN_LENGTH = 32;
 
-	public static final int CHUNK_WRITE_NODES = 2;
+	public static final int ERASURE_MAX_SHARDS = 32; // data + parity
+
+	public static final int CHUNK_WRITE_NODES = 2; // or fewer if the replication goal is lower
+
+	public static final int INLINE_MAX_SIZE = 4096; // first chunks up to this size are stored in the database
 
 }
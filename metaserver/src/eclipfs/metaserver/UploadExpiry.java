@@ -0,0 +1,113 @@
+package eclipfs.metaserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eclipfs.metaserver.model.OnlineNode;
+
+/**
+ * Removes chunk_writing rows of uploads that were started more than {@link Tunables#UPLOAD_EXPIRY_AGE}
+ * ago but never finalized, for example because the client died, and asks the nodes the chunk was
+ * uploaded to to delete their temporary files. Nodes that are offline are not asked again, their
+ * temporary files use a new name after a restart.
+ */
+public class UploadExpiry {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("Upload expiry");
+
+	private static long expired = 0;
+	private static long discarded = 0;
+	private static long discardFailed = 0;
+
+	static void run() {
+		while(true) {
+			try {
+				Thread.sleep(Tunables.UPLOAD_EXPIRY_INTERVAL);
+
+				while (expireBatch() == Tunables.UPLOAD_EXPIRY_BATCH_SIZE) {
+					Thread.sleep(ReplicationThrottle.getDelay());
+				}
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of expired uploads
+	 */
+	private static int expireBatch() throws SQLException {
+		final long expireBefore = (System.currentTimeMillis() - Tunables.UPLOAD_EXPIRY_AGE) / 1000; // seconds
+		final Set<Long> ids = new HashSet<>();
+		final Map<Long, List<Long>> byNode = new HashMap<>();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("WITH expired AS (DELETE FROM chunk_writing WHERE id IN \n"
+						+ "	(SELECT id FROM chunk_writing WHERE time < ? ORDER BY time LIMIT ?) RETURNING id, nodes) \n"
+						+ "SELECT id, node FROM expired LEFT JOIN LATERAL unnest(nodes) AS node ON true")) {
+			query.setLong(1, expireBefore);
+			query.setInt(2, Tunables.UPLOAD_EXPIRY_BATCH_SIZE);
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				ids.add(result.getLong(1));
+				final long nodeId = result.getLong(2);
+				if (!result.wasNull()) {
+					byNode.computeIfAbsent(nodeId, k -> new ArrayList<>()).add(result.getLong(1));
+				}
+			}
+		}
+
+		if (ids.isEmpty()) {
+			return 0;
+		}
+
+		int discardedBatch = 0;
+		int failedBatch = 0;
+		for (final Map.Entry<Long, List<Long>> entry : byNode.entrySet()) {
+			final Optional<OnlineNode> node = OnlineNode.getOnlineNodeById(entry.getKey());
+			boolean success = false;
+			if (node.isPresent()) {
+				try {
+					success = node.get().discardUploads(entry.getValue(), LOGGER);
+				} catch (final Exception e) {
+					LOGGER.warn("Failed to discard uploads on {}", node.get().getName(), e);
+				}
+			}
+			if (success) {
+				discardedBatch += entry.getValue().size();
+			} else {
+				failedBatch += entry.getValue().size();
+			}
+		}
+
+		synchronized(UploadExpiry.class) {
+			expired += ids.size();
+			discarded += discardedBatch;
+			discardFailed += failedBatch;
+		}
+		LOGGER.info("Expired {} unfinished uploads, discarded {} temporary files, {} could not be discarded", ids.size(), discardedBatch, failedBatch);
+		return ids.size();
+	}
+
+	// for dashboard
+	public static synchronized Map<String, String> getState() {
+		final Map<String, String> state = new LinkedHashMap<>();
+		state.put("expired uploads", String.valueOf(expired));
+		state.put("temporary files discarded", String.valueOf(discarded));
+		state.put("temporary files not discarded", String.valueOf(discardFailed));
+		return state;
+	}
+
+}
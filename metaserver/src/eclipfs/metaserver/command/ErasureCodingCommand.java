@@ -0,0 +1,37 @@
+package eclipfs.metaserver.command;
+
+import java.sql.SQLException;
+
+import eclipfs.metaserver.MetaServer;
+import eclipfs.metaserver.model.Inode;
+
+public class ErasureCodingCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws SQLException {
+		if (args.length != 1 && args.length != 3) {
+			System.out.println("erasure <name> | <id> [<data shards> <parity shards>]");
+			System.out.println("Use 0 data and parity shards to disable erasure coding");
+			return;
+		}
+
+		Inode inode;
+		try {
+			inode = Inode.byId(Long.parseLong(args[0])).orElseThrow(() -> new IllegalArgumentException("Invalid inode (file/directory id)"));
+		} catch (final NumberFormatException e) {
+			inode = MetaServer.WORKING_DIRECTORY.getChild(args[0]).orElseThrow(() -> new IllegalArgumentException("Invalid file/directory name"));
+		}
+
+		if (args.length == 3) {
+			final int changed = inode.setErasureCoding(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			System.out.println("Erasure coding changed for " + changed + " inode(s)");
+		}
+
+		if (inode.isErasureCoded()) {
+			System.out.println("Erasure coding: " + inode.getErasureDataShards() + "+" + inode.getErasureParityShards());
+		} else {
+			System.out.println("Erasure coding: disabled (" + inode.getReplicationGoal() + " copies)");
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package eclipfs.metaserver.command;
+
+import eclipfs.metaserver.Fsck;
+import eclipfs.metaserver.Fsck.Problem;
+import eclipfs.metaserver.Fsck.Result;
+
+public class FsckCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length > 1 || (args.length == 1 && !args[0].equals("repair"))) {
+			System.out.println("fsck [repair]");
+			System.out.println("Checks chunks and unfinished uploads. With 'repair', orphan chunks, chunks beyond the end of");
+			System.out.println("their file and stale uploads are removed. Chunks without copies are only reported.");
+			return;
+		}
+
+		final boolean repair = args.length == 1;
+		final Result result = Fsck.run(repair, finding -> {
+			final String line = finding.getProblem().getName() + ": id " + finding.getId() + ", file " + finding.getFile() + (finding.isRepaired() ? " (repaired)" : "");
+			synchronized(FsckCommand.class) {
+				System.out.println(line);
+			}
+		});
+
+		System.out.println("Checked " + result.getCheckedChunks() + " chunks and " + result.getCheckedWritingChunks() + " unfinished uploads in " + result.getTime() / 1000 + " seconds");
+		for (final Problem problem : Problem.values()) {
+			System.out.println(problem.getName() + ": " + result.getCount(problem));
+		}
+		if (repair) {
+			System.out.println("Repaired: " + result.getRepaired());
+		}
+	}
+
+}
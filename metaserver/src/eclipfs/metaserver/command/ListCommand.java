@@ -28,7 +28,7 @@ public class ListCommand extends Command {
 	}
 
 	private void printInodes(final List<Inode> inodes) throws SQLException {
-		final String[] columns = {"id", "type", "name", "size"};
+		final String[] columns = {"id", "type", "name", "size", "goal"};
 		final Object[][] data = new Object[inodes.size()][columns.length];
 
 		for (int i = 0; i < inodes.size(); i++) {
@@ -37,6 +37,7 @@ public class ListCommand extends Command {
 			data[i][1] = inode.isFile() ? "f" : "d";
 			data[i][2] = inode.isFile() ? inode.getName() : inode.getName() + "/";
 			data[i][3] = inode.isFile() ? StringFormatUtils.formatByteCount(inode.getSize()) : "";
+			data[i][4] = inode.getReplicationGoal();
 		}
 
 		new TextTable(columns, data).printTable();
@@ -1,19 +1,21 @@
 package eclipfs.metaserver.command;
 
 import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.NodeTier;
 
 public class NodeCreateCommand extends Command {
 
 	@Override
 	public void run(final String[] args) throws Exception {
-		if (args.length != 2) {
-			System.out.println("Usage: nodecreate <name> <location>");
+		if (args.length != 2 && args.length != 3) {
+			System.out.println("Usage: nodecreate <name> <location> [hot|archive]");
 			return;
 		}
 
 		final String name = args[0];
 		final String location = args[1];
-		final Node node = Node.createNode(name, location);
+		final NodeTier tier = args.length == 3 ? NodeTier.fromName(args[2]) : NodeTier.HOT;
+		final Node node = Node.createNode(name, location, tier);
 
 		System.out.println("Created new node '" + node.getToken() + "'");
 	}
@@ -0,0 +1,30 @@
+package eclipfs.metaserver.command;
+
+import java.util.Optional;
+
+import eclipfs.metaserver.Nodes;
+import eclipfs.metaserver.model.Node;
+
+public class NodeDrainCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length != 2 || !(args[1].equals("start") || args[1].equals("stop"))) {
+			System.out.println("Usage: nodedrain <token> <start|stop>");
+			return;
+		}
+
+		final Optional<Node> node = Node.byToken(args[0]);
+		if (node.isEmpty()) {
+			System.out.println("Node not found");
+		} else if (args[1].equals("start")) {
+			node.get().startDrain();
+			System.out.println("Draining node, " + node.get().getDrainChunkCount() + " chunks to copy. Progress is shown in nodelist.");
+		} else {
+			final String status = Nodes.getDrainStatus(node.get());
+			node.get().stopDrain();
+			System.out.println("Stopped draining node (was: " + status + ")");
+		}
+	}
+
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import dnl.utils.text.table.TextTable;
+import eclipfs.metaserver.Nodes;
 import eclipfs.metaserver.model.Node;
 import eclipfs.metaserver.model.OnlineNode;
 import xyz.derkades.derkutils.StringFormatUtils;
@@ -23,7 +24,7 @@ public class NodeListCommand extends Command {
 				System.out.println("No online nodes");
 			} else {
 				System.out.println("Online nodes:");
-				final String[] columns = {"id", "location", "name", "address", "free space", "token"};
+				final String[] columns = {"id", "location", "name", "tier", "address", "free space", "drain", "token"};
 				final Object[][] data = new Object[onlineNodes.size()][columns.length];
 
 				for (int i = 0; i < onlineNodes.size(); i++) {
@@ -31,9 +32,11 @@ public class NodeListCommand extends Command {
 					data[i][0] = node.getId();
 					data[i][1] = node.getLocation();
 					data[i][2] = node.getName();
-					data[i][3] = node.getAddress();
-					data[i][4] = StringFormatUtils.formatByteCount(node.getFreeSpace());
-					data[i][5] = node.getToken();
+					data[i][3] = node.getTier().getName();
+					data[i][4] = node.getAddress();
+					data[i][5] = StringFormatUtils.formatByteCount(node.getFreeSpace());
+					data[i][6] = Nodes.getDrainStatus(node);
+					data[i][7] = node.getToken();
 				}
 
 				new TextTable(columns, data).printTable();
@@ -43,7 +46,7 @@ public class NodeListCommand extends Command {
 
 			if (!nodes.isEmpty()) {
 				System.out.println("Offline nodes:");
-				final String[] columns = {"id", "location", "name", "token"};
+				final String[] columns = {"id", "location", "name", "tier", "token", "failed", "drain"};
 				final Object[][] data = new Object[nodes.size()][columns.length];
 
 				for (int i = 0; i < nodes.size(); i++) {
@@ -51,7 +54,10 @@ public class NodeListCommand extends Command {
 					data[i][0] = node.getId();
 					data[i][1] = node.getLocation();
 					data[i][2] = node.getName();
-					data[i][3] = node.getToken();
+					data[i][3] = node.getTier().getName();
+					data[i][4] = node.getToken();
+					data[i][5] = OnlineNode.isFailed(node.getId()) ? "yes" : "no (grace period)";
+					data[i][6] = Nodes.getDrainStatus(node);
 				}
 
 				new TextTable(columns, data).printTable();
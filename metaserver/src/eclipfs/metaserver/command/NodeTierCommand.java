@@ -0,0 +1,26 @@
+package eclipfs.metaserver.command;
+
+import java.util.Optional;
+
+import eclipfs.metaserver.model.Node;
+import eclipfs.metaserver.model.NodeTier;
+
+public class NodeTierCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Usage: nodetier <token> <hot|archive>");
+			return;
+		}
+
+		final Optional<Node> node = Node.byToken(args[0]);
+		if (node.isEmpty()) {
+			System.out.println("Node not found");
+		} else {
+			node.get().setTier(NodeTier.fromName(args[1]));
+			System.out.println("Node tier set to " + node.get().getTier().getName());
+		}
+	}
+
+}
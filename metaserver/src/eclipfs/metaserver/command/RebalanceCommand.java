@@ -0,0 +1,43 @@
+package eclipfs.metaserver.command;
+
+import java.util.Map;
+
+import dnl.utils.text.table.TextTable;
+import eclipfs.metaserver.Rebalancer;
+
+public class RebalanceCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length == 2 && args[0].equals("start")) {
+			final long budget;
+			try {
+				budget = Long.parseLong(args[1]);
+			} catch (final NumberFormatException e) {
+				System.out.println("Budget must be a number");
+				return;
+			}
+			if (budget <= 0) {
+				System.out.println("Budget must be positive");
+				return;
+			}
+			Rebalancer.start(budget);
+			System.out.println("Rebalancing up to " + budget + " bytes between nodes in the same location");
+			return;
+		} else if (args.length == 1 && args[0].equals("stop")) {
+			Rebalancer.stop();
+			System.out.println("Rebalancing stopped");
+			return;
+		} else if (args.length != 0) {
+			System.out.println("Usage: rebalance [start <budget in bytes>|stop]");
+			return;
+		}
+
+		final Map<String, String> state = Rebalancer.getState();
+		final String[] columns = state.keySet().toArray(String[]::new);
+		final Object[][] data = new Object[1][];
+		data[0] = state.values().toArray();
+		new TextTable(columns, data).printTable();
+	}
+
+}
@@ -0,0 +1,33 @@
+package eclipfs.metaserver.command;
+
+import java.sql.SQLException;
+
+import eclipfs.metaserver.MetaServer;
+import eclipfs.metaserver.model.Inode;
+
+public class ReplicationGoalCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws SQLException {
+		if (args.length != 1 && args.length != 2) {
+			System.out.println("goal <name> | <id> [<goal>]");
+			return;
+		}
+
+		Inode inode;
+		try {
+			inode = Inode.byId(Long.parseLong(args[0])).orElseThrow(() -> new IllegalArgumentException("Invalid inode (file/directory id)"));
+		} catch (final NumberFormatException e) {
+			inode = MetaServer.WORKING_DIRECTORY.getChild(args[0]).orElseThrow(() -> new IllegalArgumentException("Invalid file/directory name"));
+		}
+
+		if (args.length == 1) {
+			System.out.println("Replication goal: " + inode.getReplicationGoal());
+			return;
+		}
+
+		final int changed = inode.setReplicationGoal(Integer.parseInt(args[1]));
+		System.out.println("Replication goal set to " + inode.getReplicationGoal() + " for " + changed + " inode(s)");
+	}
+
+}
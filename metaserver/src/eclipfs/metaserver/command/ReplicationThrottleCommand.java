@@ -0,0 +1,41 @@
+package eclipfs.metaserver.command;
+
+import java.util.Map;
+
+import dnl.utils.text.table.TextTable;
+import eclipfs.metaserver.ReplicationThrottle;
+
+public class ReplicationThrottleCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length == 2) {
+			final long value;
+			try {
+				value = Long.parseLong(args[1]);
+			} catch (final NumberFormatException e) {
+				System.out.println("Value must be a number");
+				return;
+			}
+			ReplicationThrottle.setTarget(args[0], value);
+			System.out.println("Set " + args[0] + " to " + value);
+			return;
+		} else if (args.length != 0) {
+			System.out.println("Usage: throttle [<target> <value>]");
+			return;
+		}
+
+		System.out.println("State:");
+		printMap(ReplicationThrottle.getState());
+		System.out.println("Targets (request rate per second, others in ms):");
+		printMap(ReplicationThrottle.getTargets());
+	}
+
+	private void printMap(final Map<String, ?> map) {
+		final String[] columns = map.keySet().toArray(String[]::new);
+		final Object[][] data = new Object[1][];
+		data[0] = map.values().toArray();
+		new TextTable(columns, data).printTable();
+	}
+
+}
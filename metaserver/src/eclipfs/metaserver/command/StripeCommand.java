@@ -0,0 +1,33 @@
+package eclipfs.metaserver.command;
+
+import java.sql.SQLException;
+
+import eclipfs.metaserver.MetaServer;
+import eclipfs.metaserver.model.Inode;
+
+public class StripeCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws SQLException {
+		if ((args.length != 1 && args.length != 2) || (args.length == 2 && !args[1].equals("on") && !args[1].equals("off"))) {
+			System.out.println("stripe <name> | <id> [on|off]");
+			System.out.println("Striped files have consecutive chunks written to and read from different nodes");
+			return;
+		}
+
+		Inode inode;
+		try {
+			inode = Inode.byId(Long.parseLong(args[0])).orElseThrow(() -> new IllegalArgumentException("Invalid inode (file/directory id)"));
+		} catch (final NumberFormatException e) {
+			inode = MetaServer.WORKING_DIRECTORY.getChild(args[0]).orElseThrow(() -> new IllegalArgumentException("Invalid file/directory name"));
+		}
+
+		if (args.length == 2) {
+			final int changed = inode.setStriped(args[1].equals("on"));
+			System.out.println("Striping changed for " + changed + " inode(s)");
+		}
+
+		System.out.println("Striping: " + (inode.isStriped() ? "on" : "off"));
+	}
+
+}
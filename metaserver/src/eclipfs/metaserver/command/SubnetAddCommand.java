@@ -0,0 +1,27 @@
+package eclipfs.metaserver.command;
+
+import eclipfs.metaserver.ClientLocations;
+import eclipfs.metaserver.model.ClientLocation;
+
+public class SubnetAddCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Usage: subnetadd <cidr> <location>");
+			System.out.println("Clients in this range that don't send a location are assumed to be in this location");
+			return;
+		}
+
+		if (!ClientLocations.isValidCidr(args[0])) {
+			System.out.println("Invalid range, expected for example 10.1.0.0/16 or 2001:db8::/32");
+			return;
+		}
+
+		final ClientLocation location = ClientLocation.create(args[0], args[1]);
+		ClientLocations.reload();
+
+		System.out.println("Created subnet " + location.getId());
+	}
+
+}
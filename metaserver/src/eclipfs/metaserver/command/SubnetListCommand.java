@@ -0,0 +1,32 @@
+package eclipfs.metaserver.command;
+
+import java.util.List;
+
+import dnl.utils.text.table.TextTable;
+import eclipfs.metaserver.model.ClientLocation;
+
+public class SubnetListCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		final List<ClientLocation> locations = ClientLocation.list();
+
+		if (locations.isEmpty()) {
+			System.out.println("No subnets, clients without a location are not assigned one");
+			return;
+		}
+
+		final String[] columns = {"id", "cidr", "location"};
+		final Object[][] data = new Object[locations.size()][columns.length];
+
+		for (int i = 0; i < locations.size(); i++) {
+			final ClientLocation location = locations.get(i);
+			data[i][0] = location.getId();
+			data[i][1] = location.getCidr();
+			data[i][2] = location.getLocation();
+		}
+
+		new TextTable(columns, data).printTable();
+	}
+
+}
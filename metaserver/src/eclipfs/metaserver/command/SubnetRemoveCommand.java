@@ -0,0 +1,23 @@
+package eclipfs.metaserver.command;
+
+import eclipfs.metaserver.ClientLocations;
+import eclipfs.metaserver.model.ClientLocation;
+
+public class SubnetRemoveCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length != 1) {
+			System.out.println("Usage: subnetremove <id>");
+			return;
+		}
+
+		if (ClientLocation.delete(Long.parseLong(args[0]))) {
+			ClientLocations.reload();
+			System.out.println("Subnet deleted");
+		} else {
+			System.out.println("Subnet not found");
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package eclipfs.metaserver.command;
+
+import eclipfs.metaserver.ReplicationWindows;
+import eclipfs.metaserver.model.ReplicationWindow;
+
+public class WindowAddCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length != 6) {
+			System.out.println("Usage: windowadd <source location> <target location> <start hour> <end hour> <concurrency> <bandwidth kB/s, 0 for unlimited>");
+			System.out.println("Use * to match any location, a location also matches all locations inside it (eu/ams1 matches eu/ams1/rack3)");
+			return;
+		}
+
+		final ReplicationWindow window = ReplicationWindow.create(args[0], args[1],
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Integer.parseInt(args[4]), Long.parseLong(args[5]) * 1000);
+		ReplicationWindows.reload();
+
+		System.out.println("Created replication window " + window.getId());
+	}
+
+}
@@ -0,0 +1,39 @@
+package eclipfs.metaserver.command;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import dnl.utils.text.table.TextTable;
+import eclipfs.metaserver.model.ReplicationWindow;
+import xyz.derkades.derkutils.StringFormatUtils;
+
+public class WindowListCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		final List<ReplicationWindow> windows = ReplicationWindow.list();
+
+		if (windows.isEmpty()) {
+			System.out.println("No replication windows, replication between all locations is allowed at any time");
+			return;
+		}
+
+		final int hour = LocalTime.now().getHour();
+		final String[] columns = {"id", "source", "target", "hours", "concurrency", "bandwidth", "active"};
+		final Object[][] data = new Object[windows.size()][columns.length];
+
+		for (int i = 0; i < windows.size(); i++) {
+			final ReplicationWindow window = windows.get(i);
+			data[i][0] = window.getId();
+			data[i][1] = window.getSourceLocation();
+			data[i][2] = window.getTargetLocation();
+			data[i][3] = window.getStartHour() + ":00 - " + window.getEndHour() + ":00";
+			data[i][4] = window.getConcurrency();
+			data[i][5] = window.getBandwidth() == 0 ? "unlimited" : StringFormatUtils.formatByteCount(window.getBandwidth()) + "/s";
+			data[i][6] = window.isActive(hour) ? "yes" : "no";
+		}
+
+		new TextTable(columns, data).printTable();
+	}
+
+}
@@ -0,0 +1,23 @@
+package eclipfs.metaserver.command;
+
+import eclipfs.metaserver.ReplicationWindows;
+import eclipfs.metaserver.model.ReplicationWindow;
+
+public class WindowRemoveCommand extends Command {
+
+	@Override
+	public void run(final String[] args) throws Exception {
+		if (args.length != 1) {
+			System.out.println("Usage: windowremove <id>");
+			return;
+		}
+
+		if (ReplicationWindow.delete(Long.parseLong(args[0]))) {
+			ReplicationWindows.reload();
+			System.out.println("Replication window deleted");
+		} else {
+			System.out.println("Replication window not found");
+		}
+	}
+
+}
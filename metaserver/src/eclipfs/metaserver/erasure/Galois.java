@@ -0,0 +1,141 @@
+package eclipfs.metaserver.erasure;
+
+/**
+ * Arithmetic in GF(2^8) using the polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11d) and generator 2,
+ * plus the small amount of matrix algebra needed by {@link ReedSolomon}.
+ */
+final class Galois {
+
+	private static final int POLYNOMIAL = 0x11d;
+
+	private static final byte[] EXP = new byte[510];
+	private static final int[] LOG = new int[256];
+
+	// Full multiplication table, so the coding loops only need one lookup per byte
+	static final byte[][] MUL = new byte[256][256];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = (byte) x;
+			EXP[i + 255] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= POLYNOMIAL;
+			}
+		}
+
+		for (int a = 0; a < 256; a++) {
+			for (int b = 0; b < 256; b++) {
+				MUL[a][b] = multiply((byte) a, (byte) b);
+			}
+		}
+	}
+
+	private Galois() {}
+
+	static byte multiply(final byte a, final byte b) {
+		if (a == 0 || b == 0) {
+			return 0;
+		}
+		return EXP[LOG[a & 0xff] + LOG[b & 0xff]];
+	}
+
+	static byte divide(final byte a, final byte b) {
+		if (b == 0) {
+			throw new ArithmeticException("Division by zero");
+		}
+		if (a == 0) {
+			return 0;
+		}
+		return EXP[LOG[a & 0xff] - LOG[b & 0xff] + 255];
+	}
+
+	static byte power(final byte a, final int n) {
+		if (n == 0) {
+			return 1;
+		}
+		if (a == 0) {
+			return 0;
+		}
+		return EXP[LOG[a & 0xff] * n % 255];
+	}
+
+	/**
+	 * @return Matrix where row r is [1, r, r^2, ...]. Any square selection of its rows is invertible.
+	 */
+	static byte[][] vandermonde(final int rows, final int columns) {
+		final byte[][] matrix = new byte[rows][columns];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				matrix[r][c] = power((byte) r, c);
+			}
+		}
+		return matrix;
+	}
+
+	static byte[][] multiply(final byte[][] a, final byte[][] b) {
+		final byte[][] result = new byte[a.length][b[0].length];
+		for (int r = 0; r < a.length; r++) {
+			for (int c = 0; c < b[0].length; c++) {
+				byte value = 0;
+				for (int i = 0; i < b.length; i++) {
+					value ^= multiply(a[r][i], b[i][c]);
+				}
+				result[r][c] = value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Invert a square matrix using Gauss-Jordan elimination
+	 * @throws IllegalArgumentException If the matrix is singular
+	 */
+	static byte[][] invert(final byte[][] matrix) {
+		final int size = matrix.length;
+		// Work on [matrix | identity], which becomes [identity | inverse]
+		final byte[][] work = new byte[size][size * 2];
+		for (int r = 0; r < size; r++) {
+			System.arraycopy(matrix[r], 0, work[r], 0, size);
+			work[r][size + r] = 1;
+		}
+
+		for (int c = 0; c < size; c++) {
+			if (work[c][c] == 0) {
+				int swap = c + 1;
+				while (swap < size && work[swap][c] == 0) {
+					swap++;
+				}
+				if (swap == size) {
+					throw new IllegalArgumentException("Matrix is singular");
+				}
+				final byte[] row = work[c];
+				work[c] = work[swap];
+				work[swap] = row;
+			}
+
+			final byte scale = divide((byte) 1, work[c][c]);
+			for (int i = 0; i < size * 2; i++) {
+				work[c][i] = multiply(work[c][i], scale);
+			}
+
+			for (int r = 0; r < size; r++) {
+				if (r != c && work[r][c] != 0) {
+					final byte factor = work[r][c];
+					for (int i = 0; i < size * 2; i++) {
+						work[r][i] ^= multiply(factor, work[c][i]);
+					}
+				}
+			}
+		}
+
+		final byte[][] inverse = new byte[size][size];
+		for (int r = 0; r < size; r++) {
+			System.arraycopy(work[r], size, inverse[r], 0, size);
+		}
+		return inverse;
+	}
+
+}
@@ -0,0 +1,203 @@
+package eclipfs.metaserver.erasure;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Systematic Reed-Solomon codec over GF(2^8). Data is split into data shards, which are
+ * stored unchanged, and parity shards. Any combination of data shards and parity shards,
+ * as many as there are data shards, is enough to reconstruct all other shards.
+ *
+ * Instances are immutable and can be used from multiple threads.
+ */
+public class ReedSolomon {
+
+	public static final int MAX_TOTAL_SHARDS = 256;
+
+	private final int dataShards;
+	private final int parityShards;
+	// Rows of the encoding matrix, the top dataShards rows form the identity matrix
+	private final byte[][] matrix;
+
+	public ReedSolomon(final int dataShards, final int parityShards) {
+		Validate.isTrue(dataShards > 0, "Data shard count must be > 0");
+		Validate.isTrue(parityShards > 0, "Parity shard count must be > 0");
+		Validate.isTrue(dataShards + parityShards <= MAX_TOTAL_SHARDS, "Total shard count must be <= " + MAX_TOTAL_SHARDS);
+		this.dataShards = dataShards;
+		this.parityShards = parityShards;
+
+		final int totalShards = dataShards + parityShards;
+		final byte[][] vandermonde = Galois.vandermonde(totalShards, dataShards);
+		final byte[][] top = Arrays.copyOf(vandermonde, dataShards);
+		this.matrix = Galois.multiply(vandermonde, Galois.invert(top));
+	}
+
+	public int getDataShards() {
+		return this.dataShards;
+	}
+
+	public int getParityShards() {
+		return this.parityShards;
+	}
+
+	public int getTotalShards() {
+		return this.dataShards + this.parityShards;
+	}
+
+	/**
+	 * @return Size of each shard when splitting data of the given length
+	 */
+	public int getShardSize(final int length) {
+		return Math.max(1, (length + this.dataShards - 1) / this.dataShards);
+	}
+
+	/**
+	 * Split data into data shards, padded with zeroes, and calculate parity shards
+	 * @return All shards, data shards first
+	 */
+	public byte[][] encode(final byte[] data) {
+		Validate.notNull(data, "Data is null");
+		final int shardSize = getShardSize(data.length);
+		final byte[][] shards = new byte[getTotalShards()][shardSize];
+		for (int i = 0; i < this.dataShards; i++) {
+			final int start = i * shardSize;
+			if (start < data.length) {
+				System.arraycopy(data, start, shards[i], 0, Math.min(shardSize, data.length - start));
+			}
+		}
+		encodeParity(shards, 0, shardSize);
+		return shards;
+	}
+
+	/**
+	 * Calculate parity shards from data shards
+	 * @param shards All shards, parity shards are overwritten
+	 */
+	public void encodeParity(final byte[][] shards, final int offset, final int length) {
+		checkShards(shards, offset, length);
+		final byte[][] inputs = Arrays.copyOf(shards, this.dataShards);
+		final byte[][] outputs = Arrays.copyOfRange(shards, this.dataShards, getTotalShards());
+		final byte[][] rows = Arrays.copyOfRange(this.matrix, this.dataShards, getTotalShards());
+		codeSomeShards(rows, inputs, outputs, offset, length);
+	}
+
+	/**
+	 * Reconstruct missing shards in place.
+	 * @param shards All shards, missing shards must be allocated but their contents are ignored
+	 * @param present Which shards contain valid data
+	 * @throws IllegalArgumentException If fewer than {@link #getDataShards()} shards are present
+	 */
+	public void decodeMissing(final byte[][] shards, final boolean[] present, final int offset, final int length) {
+		checkShards(shards, offset, length);
+		Validate.isTrue(present.length == getTotalShards(), "Present array length must equal shard count");
+
+		int presentCount = 0;
+		for (final boolean p : present) {
+			if (p) {
+				presentCount++;
+			}
+		}
+		Validate.isTrue(presentCount >= this.dataShards, "Not enough shards present to reconstruct data");
+		if (presentCount == getTotalShards()) {
+			return;
+		}
+
+		// Take the encoding matrix rows of the first dataShards present shards. Inverting it gives
+		// the matrix to calculate the original data shards from those shards.
+		final byte[][] subMatrix = new byte[this.dataShards][];
+		final byte[][] subShards = new byte[this.dataShards][];
+		for (int i = 0, row = 0; row < this.dataShards; i++) {
+			if (present[i]) {
+				subMatrix[row] = this.matrix[i];
+				subShards[row] = shards[i];
+				row++;
+			}
+		}
+		final byte[][] decodeMatrix = Galois.invert(subMatrix);
+
+		int missingData = 0;
+		for (int i = 0; i < this.dataShards; i++) {
+			if (!present[i]) {
+				missingData++;
+			}
+		}
+		final byte[][] dataRows = new byte[missingData][];
+		final byte[][] dataOutputs = new byte[missingData][];
+		for (int i = 0, j = 0; i < this.dataShards; i++) {
+			if (!present[i]) {
+				dataRows[j] = decodeMatrix[i];
+				dataOutputs[j] = shards[i];
+				j++;
+			}
+		}
+		codeSomeShards(dataRows, subShards, dataOutputs, offset, length);
+
+		// All data shards are now available, recalculate missing parity from them
+		final int missingParity = getTotalShards() - presentCount - missingData;
+		final byte[][] parityRows = new byte[missingParity][];
+		final byte[][] parityOutputs = new byte[missingParity][];
+		for (int i = this.dataShards, j = 0; i < getTotalShards(); i++) {
+			if (!present[i]) {
+				parityRows[j] = this.matrix[i];
+				parityOutputs[j] = shards[i];
+				j++;
+			}
+		}
+		codeSomeShards(parityRows, Arrays.copyOf(shards, this.dataShards), parityOutputs, offset, length);
+	}
+
+	/**
+	 * Join data shards and remove padding
+	 */
+	public byte[] join(final byte[][] shards, final int length) {
+		Validate.isTrue(shards.length >= this.dataShards, "Not enough shards");
+		final byte[] data = new byte[length];
+		final int shardSize = getShardSize(length);
+		for (int i = 0; i < this.dataShards; i++) {
+			final int start = i * shardSize;
+			if (start < length) {
+				System.arraycopy(shards[i], 0, data, start, Math.min(shardSize, length - start));
+			}
+		}
+		return data;
+	}
+
+	private void checkShards(final byte[][] shards, final int offset, final int length) {
+		Validate.notNull(shards, "Shards is null");
+		Validate.isTrue(shards.length == getTotalShards(), "Shard array length must equal shard count");
+		Validate.isTrue(offset >= 0 && length >= 0, "Offset and length must be >= 0");
+		for (final byte[] shard : shards) {
+			Validate.notNull(shard, "Shard is null");
+			Validate.isTrue(shard.length >= offset + length, "Shard is too small");
+		}
+	}
+
+	/**
+	 * Multiply the input shards by the matrix rows, writing the result to the output shards.
+	 * Loops over inputs in the outer loop, so every input byte is read only once per output.
+	 */
+	private static void codeSomeShards(final byte[][] rows, final byte[][] inputs, final byte[][] outputs,
+			final int offset, final int length) {
+		final int end = offset + length;
+		for (int o = 0; o < outputs.length; o++) {
+			final byte[] output = outputs[o];
+			final byte[] multiplyTable = Galois.MUL[rows[o][0] & 0xff];
+			final byte[] firstInput = inputs[0];
+			for (int i = offset; i < end; i++) {
+				output[i] = multiplyTable[firstInput[i] & 0xff];
+			}
+		}
+		for (int c = 1; c < inputs.length; c++) {
+			final byte[] input = inputs[c];
+			for (int o = 0; o < outputs.length; o++) {
+				final byte[] output = outputs[o];
+				final byte[] multiplyTable = Galois.MUL[rows[o][c] & 0xff];
+				for (int i = offset; i < end; i++) {
+					output[i] ^= multiplyTable[input[i] & 0xff];
+				}
+			}
+		}
+	}
+
+}
@@ -36,6 +36,10 @@ public enum ApiError {
 	NOT_ENOUGH_NODES_SPECIFIED(26),
 	WRITING_CHUNK_NOT_EXISTS(27),
 	UPLOAD_FINALIZE_FAILED(28),
+	INVALID_REPLICATION_GOAL(29),
+	INVALID_ERASURE_CODING(30),
+	READ_ONLY_SNAPSHOT(31),
+	SNAPSHOT_NOT_EXISTS(32),
 
 	;
 
@@ -17,6 +17,7 @@ import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
+import eclipfs.metaserver.ClientLocations;
 import eclipfs.metaserver.model.Directory;
 import eclipfs.metaserver.model.File;
 import eclipfs.metaserver.model.Inode;
@@ -171,6 +172,19 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * @return Location sent by the client, or otherwise the location of its IP address range
+	 */
+	public static Optional<String> getClientLocation(final JsonObject json, final HttpServletRequest request) throws SQLException {
+		Validate.notNull(json);
+		Validate.notNull(request);
+		if (json.has("location")) {
+			return Optional.of(json.get("location").getAsString());
+		} else {
+			return ClientLocations.getLocation(request);
+		}
+	}
+
 	public static String getJsonString(final JsonObject json, final HttpServletResponse response, final String memberName) throws IOException {
 		Validate.notNull(json);
 		Validate.notNull(memberName);
@@ -199,6 +213,20 @@ public class HttpUtil {
 		}
 	}
 
+	public static Boolean getJsonBoolean(final JsonObject json, final HttpServletResponse response, final String memberName) throws IOException {
+		Validate.notNull(json);
+		Validate.notNull(memberName);
+		Validate.notNull(response);
+		if (!json.has(memberName) ||
+				!json.get(memberName).isJsonPrimitive() ||
+				!json.get(memberName).getAsJsonPrimitive().isBoolean()) {
+			sendBadRequest(response, "Missing or invalid json member '" + memberName + "'");
+			return null;
+		} else {
+			return json.get(memberName).getAsBoolean();
+		}
+	}
+
 	public static long[] getJsonLongArray(final JsonObject json, final HttpServletResponse response, final String memberName) throws IOException {
 		Validate.notNull(json);
 		Validate.notNull(memberName);
@@ -217,6 +245,25 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * Read an array of ascending numbers, sent as the first number followed by the differences
+	 * between consecutive numbers
+	 */
+	public static long[] getJsonDeltaLongArray(final JsonObject json, final HttpServletResponse response, final String memberName) throws IOException {
+		final long[] array = getJsonLongArray(json, response, memberName);
+		if (array == null) {
+			return null;
+		}
+		for (int i = 1; i < array.length; i++) {
+			if (array[i] < 0) {
+				sendBadRequest(response, "Json member '" + memberName + "' is not in ascending order");
+				return null;
+			}
+			array[i] += array[i - 1];
+		}
+		return array;
+	}
+
 	public static Inode getJsonInode(final JsonObject json, final HttpServletResponse response) throws SQLException, IOException {
 		if (json.has("inode")) {
 			return longToInode(response, getJsonLong(json, response, "inode"));
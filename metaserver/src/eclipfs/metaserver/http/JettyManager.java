@@ -27,19 +27,27 @@ import eclipfs.metaserver.http.endpoints.client.ChunkInfo;
 import eclipfs.metaserver.http.endpoints.client.ChunkUploadFinalize;
 import eclipfs.metaserver.http.endpoints.client.ChunkUploadInit;
 import eclipfs.metaserver.http.endpoints.client.DirectoryCreate;
+import eclipfs.metaserver.http.endpoints.client.FileClone;
 import eclipfs.metaserver.http.endpoints.client.FileCreate;
 import eclipfs.metaserver.http.endpoints.client.GetEncryptionKey;
 import eclipfs.metaserver.http.endpoints.client.InodeDelete;
 import eclipfs.metaserver.http.endpoints.client.InodeInfo;
 import eclipfs.metaserver.http.endpoints.client.InodeMove;
 import eclipfs.metaserver.http.endpoints.client.InodeUpdate;
+import eclipfs.metaserver.http.endpoints.client.SnapshotCreate;
+import eclipfs.metaserver.http.endpoints.client.SnapshotDelete;
+import eclipfs.metaserver.http.endpoints.client.SnapshotList;
 import eclipfs.metaserver.http.endpoints.client.StatFilesystem;
 import eclipfs.metaserver.http.endpoints.dashboard.DashboardFilesystem;
+import eclipfs.metaserver.http.endpoints.dashboard.DashboardFsck;
 import eclipfs.metaserver.http.endpoints.dashboard.DashboardNodes;
 import eclipfs.metaserver.http.endpoints.dashboard.DashboardReplication;
 import eclipfs.metaserver.http.endpoints.dashboard.DashboardUsers;
 import eclipfs.metaserver.http.endpoints.node.Announce;
 import eclipfs.metaserver.http.endpoints.node.CheckGarbage;
+import eclipfs.metaserver.http.endpoints.node.ReadDeletedChunks;
+import eclipfs.metaserver.http.endpoints.node.ReportChunks;
+import eclipfs.metaserver.http.endpoints.node.ReportMissingChunks;
 
 public class JettyManager {
 
@@ -54,17 +62,24 @@ public class JettyManager {
 		clientEndpoints.registerEndpoint(new ChunkUploadFinalize());
 		clientEndpoints.registerEndpoint(new ChunkUploadInit());
 		clientEndpoints.registerEndpoint(new DirectoryCreate());
+		clientEndpoints.registerEndpoint(new FileClone());
 		clientEndpoints.registerEndpoint(new FileCreate());
 		clientEndpoints.registerEndpoint(new GetEncryptionKey());
 		clientEndpoints.registerEndpoint(new InodeDelete());
 		clientEndpoints.registerEndpoint(new InodeInfo());
 		clientEndpoints.registerEndpoint(new InodeMove());
 		clientEndpoints.registerEndpoint(new InodeUpdate());
+		clientEndpoints.registerEndpoint(new SnapshotCreate());
+		clientEndpoints.registerEndpoint(new SnapshotDelete());
+		clientEndpoints.registerEndpoint(new SnapshotList());
 		clientEndpoints.registerEndpoint(new StatFilesystem());
 
 		final EndpointHandler<NodeApiEndpoint> nodeEndpoints = new EndpointHandler<>("/node");
 		nodeEndpoints.registerEndpoint(new Announce());
 		nodeEndpoints.registerEndpoint(new CheckGarbage());
+		nodeEndpoints.registerEndpoint(new ReadDeletedChunks());
+		nodeEndpoints.registerEndpoint(new ReportChunks());
+		nodeEndpoints.registerEndpoint(new ReportMissingChunks());
 
 		final ServletContextHandler dashboardContext = new ServletContextHandler();
 		dashboardContext.setContextPath("/dashboard");
@@ -77,6 +92,7 @@ public class JettyManager {
 		final Resource baseResource = Resource.newResource(new URL(StringUtils.removeEnd(randomFileUrl.toString(), someFile)));
 		dashboardContext.setBaseResource(baseResource);
 		dashboardContext.addServlet(DashboardFilesystem.class, "/filesystem");
+		dashboardContext.addServlet(DashboardFsck.class, "/fsck");
 		dashboardContext.addServlet(DashboardNodes.class, "/nodes");
 		dashboardContext.addServlet(DashboardReplication.class, "/replication");
 		dashboardContext.addServlet(DashboardUsers.class, "/users");
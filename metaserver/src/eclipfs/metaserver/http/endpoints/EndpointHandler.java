@@ -9,6 +9,7 @@ import org.apache.commons.lang.Validate;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.ContextHandler;
 
+import eclipfs.metaserver.ReplicationThrottle;
 import eclipfs.metaserver.http.HttpUtil;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -58,10 +59,15 @@ public class EndpointHandler<Endpoint extends ApiEndpoint> extends ContextHandle
 			return;
 		}
 
+		final long start = System.nanoTime();
 		try {
 			endpoint.handle(request, response);
 		} catch (final SQLException e) {
 			HttpUtil.handleSqlException(response, e);
+		} finally {
+			if (endpoint instanceof ClientApiEndpoint) {
+				ReplicationThrottle.recordForegroundRequest(System.nanoTime() - start);
+			}
 		}
 	}
 
@@ -2,6 +2,7 @@ package eclipfs.metaserver.http.endpoints.client;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 
@@ -10,6 +11,9 @@ import org.apache.commons.lang3.Validate;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
 
+import eclipfs.metaserver.ErasureCoding;
+import eclipfs.metaserver.ErasureCoding.ShardSource;
+import eclipfs.metaserver.HotChunks;
 import eclipfs.metaserver.Nodes;
 import eclipfs.metaserver.Nodes.FilterStrategy;
 import eclipfs.metaserver.Replication;
@@ -19,6 +23,7 @@ import eclipfs.metaserver.http.ApiError;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
 import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.ChunkStripe;
 import eclipfs.metaserver.model.File;
 import eclipfs.metaserver.model.OnlineNode;
 import eclipfs.metaserver.model.User;
@@ -51,24 +56,50 @@ public class ChunkDownload extends ClientApiEndpoint {
 
 
 		if (optChunk.isPresent()) {
-			chunk = optChunk.get();
+			// Deduplicated chunks are downloaded from the chunk that stores their data
+			chunk = optChunk.get().getDataChunk();
 		} else {
 			ApiError.CHUNK_NOT_EXISTS.send(response);
 			return;
 		}
 
+		file.touchAccessTime();
+
+		if (chunk.isInline()) {
+			try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+				writer.beginObject();
+				writer.name("data").value(Base64.getEncoder().encodeToString(chunk.getInlineData()));
+				writer.name("checksum").value(chunk.getChecksumHex());
+				writeEncryptionPosition(writer, file, chunkIndex.intValue(), chunk);
+				writer.endObject();
+			}
+			return;
+		}
+
+		final Optional<String> location = HttpUtil.getClientLocation(json, request);
 		List<OnlineNode> nodes;
-		if (json.has("location")) {
-			nodes = Nodes.selectNodes(1, chunk, TransferType.DOWNLOAD, FilterStrategy.SHOULD, json.get("location").getAsString());
+		if (chunk.getFile().isStriped()) {
+			nodes = Nodes.selectStripedReplica(chunk, location).map(List::of).orElse(List.of());
+		} else if (location.isPresent()) {
+			nodes = Nodes.selectNodes(1, chunk, TransferType.DOWNLOAD, FilterStrategy.SHOULD, location.get());
 		} else {
 			nodes = Nodes.selectNodes(1, chunk, TransferType.DOWNLOAD);
 		}
 
 		if (nodes.isEmpty()) {
-			ApiError.FILE_DOWNLOAD_NODES_UNAVAILABLE.send(response);
+			final Optional<ChunkStripe> optStripe = chunk.getStripe();
+			if (optStripe.isPresent()) {
+				writeStripeResponse(response, file, chunkIndex.intValue(), chunk, optStripe.get(), location.orElse(null));
+			} else {
+				ApiError.FILE_DOWNLOAD_NODES_UNAVAILABLE.send(response);
+			}
 			return;
 		}
 
+		if (location.isPresent()) {
+			HotChunks.recordRead(chunk, location.get());
+		}
+
 		Validate.isTrue(nodes.size() == 1);
 		final OnlineNode node = nodes.get(0);
 
@@ -86,10 +117,64 @@ public class ChunkDownload extends ClientApiEndpoint {
 			writer.beginObject();
 			writer.name("url").value(address);
 			writer.name("checksum").value(chunk.getChecksumHex());
+			writeEncryptionPosition(writer, file, chunkIndex.intValue(), chunk);
 			writer.endObject();
 		}
 
 		Replication.signalBusy();
 	}
 
+	/**
+	 * Erasure coded chunks are downloaded as shards. The response lists exactly as many shards as are
+	 * needed to reconstruct the chunk, data shards first. If all data shards are listed, the client can
+	 * join them without decoding. Otherwise the client reconstructs the data using the same Reed-Solomon
+	 * code as {@link eclipfs.metaserver.erasure.ReedSolomon}.
+	 */
+	private void writeStripeResponse(final HttpServletResponse response, final File file, final int index, final Chunk chunk,
+			final ChunkStripe stripe, final String location) throws IOException {
+		final List<ShardSource> sources = ErasureCoding.planRead(stripe, location);
+		if (sources.size() < stripe.getDataShards()) {
+			ApiError.FILE_DOWNLOAD_NODES_UNAVAILABLE.send(response);
+			return;
+		}
+
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject();
+			writer.name("checksum").value(chunk.getChecksumHex());
+			writeEncryptionPosition(writer, file, index, chunk);
+			writer.name("stripe").beginObject();
+			writer.name("size").value(stripe.getSize());
+			writer.name("data_shards").value(stripe.getDataShards());
+			writer.name("parity_shards").value(stripe.getParityShards());
+			writer.name("shards").beginArray();
+			for (final ShardSource source : sources.subList(0, stripe.getDataShards())) {
+				final String address = source.getNode().getAddress() +
+						"/download" +
+						"?node_token=" + source.getNode().getToken(TransferType.DOWNLOAD) +
+						"&chunk=" + source.getShard().getId();
+				Validation.validateUrl(address);
+				writer.beginObject();
+				writer.name("index").value(source.getShard().getIndex());
+				writer.name("url").value(address);
+				writer.name("checksum").value(source.getShard().getChecksumHex());
+				writer.endObject();
+			}
+			writer.endArray().endObject();
+			writer.endObject();
+		}
+
+		Replication.signalBusy();
+	}
+
+	/**
+	 * Data is encrypted for the position of the chunk that was uploaded. If the data is stored by
+	 * another chunk, the client needs that position to decrypt it.
+	 */
+	static void writeEncryptionPosition(final JsonWriter writer, final File file, final int index, final Chunk dataChunk) throws IOException {
+		if (dataChunk.getEncryptionInode() != file.getId() || dataChunk.getEncryptionIndex() != index) {
+			writer.name("iv_inode").value(dataChunk.getEncryptionInode());
+			writer.name("iv_index").value(dataChunk.getEncryptionIndex());
+		}
+	}
+
 }
@@ -38,11 +38,12 @@ public class ChunkInfo extends ClientApiEndpoint {
 			ApiError.CHUNK_NOT_EXISTS.send(response);
 			return;
 		}
-		final Chunk chunk = optChunk.get();
+		final Chunk chunk = optChunk.get().getDataChunk();
 
 		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
 			writer.beginObject();
 			writer.name("checksum").value(new String(Hex.encode(chunk.getChecksum())));
+			ChunkDownload.writeEncryptionPosition(writer, file, chunkIndex.intValue(), chunk);
 			writer.endObject();
 		}
 	}
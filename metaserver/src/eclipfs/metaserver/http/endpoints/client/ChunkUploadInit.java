@@ -1,14 +1,19 @@
 package eclipfs.metaserver.http.endpoints.client;
 
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.Base64;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.security.crypto.codec.Hex;
 
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
 
+import eclipfs.metaserver.MetaServer;
 import eclipfs.metaserver.Nodes;
 import eclipfs.metaserver.Nodes.FilterStrategy;
 import eclipfs.metaserver.Replication;
@@ -18,6 +23,7 @@ import eclipfs.metaserver.Validation;
 import eclipfs.metaserver.http.ApiError;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
+import eclipfs.metaserver.model.Chunk;
 import eclipfs.metaserver.model.File;
 import eclipfs.metaserver.model.OnlineNode;
 import eclipfs.metaserver.model.User;
@@ -43,6 +49,9 @@ public class ChunkUploadInit extends ClientApiEndpoint {
 		final Long chunkIndex = HttpUtil.getJsonLong(json, response, "chunk");
 		final String checksum = HttpUtil.getJsonString(json, response, "checksum");
 		final Long size = HttpUtil.getJsonLong(json, response, "size");
+		// Optional, older clients don't send them
+		final String contentHash = json.has("content_hash") ? json.get("content_hash").getAsString() : null;
+		final String inlineData = json.has("inline_data") ? json.get("inline_data").getAsString() : null;
 
 		if (file == null || chunkIndex == null || checksum == null || size == null) {
 			return;
@@ -53,22 +62,59 @@ public class ChunkUploadInit extends ClientApiEndpoint {
 			return;
 		}
 
+		if (file.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
+		// Small first chunks are stored in the database, larger data is uploaded to nodes as usual
+		if (inlineData != null && chunkIndex == 0 && size <= Tunables.INLINE_MAX_SIZE) {
+			final byte[] data;
+			try {
+				data = Base64.getDecoder().decode(inlineData);
+			} catch (final IllegalArgumentException e) {
+				HttpUtil.sendBadRequest(response, "Inline data is not valid base64");
+				return;
+			}
+			if (data.length != size || !MessageDigest.isEqual(md5(data), Hex.decode(checksum))) {
+				HttpUtil.sendBadRequest(response, "Inline data does not match size or checksum");
+				return;
+			}
+			file.createInlineChunk(0, Hex.decode(checksum), data);
+			writeStoredResponse(response);
+			return;
+		}
+
 		Replication.signalBusy();
 
-		final WritingChunk writing = file.createChunk(chunkIndex.intValue(), Hex.decode(checksum), size);
+		if (contentHash != null && MetaServer.isDeduplicationEnabled() && tryDeduplicate(file, chunkIndex.intValue(), Hex.decode(contentHash))) {
+			writeStoredResponse(response);
+			return;
+		}
+
+		final WritingChunk writing = file.createChunk(chunkIndex.intValue(), Hex.decode(checksum),
+				contentHash != null ? Hex.decode(contentHash) : null, size);
+
+		// Remaining replicas are created by replication
+		final int writeNodes = Math.min(Tunables.CHUNK_WRITE_NODES, file.getReplicationGoal());
 
+		final Optional<String> location = HttpUtil.getClientLocation(json, request);
 		List<OnlineNode> nodes;
-		if (json.has("location")) {
-			nodes = Nodes.selectNodes(Tunables.CHUNK_WRITE_NODES, null, TransferType.UPLOAD, FilterStrategy.SHOULD, json.get("location").getAsString());
+		if (file.isStriped()) {
+			nodes = Nodes.selectStripedNodes(writeNodes, file, chunkIndex.intValue(), location);
+		} else if (location.isPresent()) {
+			nodes = Nodes.selectNodes(writeNodes, null, TransferType.UPLOAD, FilterStrategy.SHOULD, location.get());
 		} else {
-			nodes = Nodes.selectNodes(Tunables.CHUNK_WRITE_NODES, null, TransferType.UPLOAD);
+			nodes = Nodes.selectNodes(writeNodes, null, TransferType.UPLOAD);
 		}
 
-		if (nodes.size() < Tunables.CHUNK_WRITE_NODES) {
+		if (nodes.size() < writeNodes) {
 			ApiError.TEMPORARY_NODE_SHORTAGE.send(response);
 			return;
 		}
 
+		writing.addNodes(nodes);
+
 		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
 			writer.beginObject();
 			writer.name("id").value(writing.getId());
@@ -89,4 +135,41 @@ public class ChunkUploadInit extends ClientApiEndpoint {
 
 		Replication.signalBusy();
 	}
+
+	/**
+	 * Tell the client the chunk has been stored, it doesn't need to upload or finalize it
+	 */
+	private static void writeStoredResponse(final HttpServletResponse response) throws IOException {
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject();
+			writer.name("stored").value(true);
+			writer.endObject();
+		}
+	}
+
+	private static byte[] md5(final byte[] data) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(data);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The content hash is a keyed hash of the unencrypted chunk, computed by the client. Data is
+	 * encrypted per file and chunk index, so two chunks with the same content have a different checksum.
+	 * @return Whether an existing chunk has the same content, in which case the chunk doesn't need to be uploaded
+	 */
+	private boolean tryDeduplicate(final File file, final int index, final byte[] contentHash) throws SQLException {
+		final Optional<Chunk> optDataChunk = Chunk.byContentHash(contentHash, file);
+		if (optDataChunk.isEmpty()) {
+			return false;
+		}
+		final Chunk dataChunk = optDataChunk.get();
+		if (dataChunk.getFile().getId() == file.getId() && dataChunk.getIndex() == index) {
+			// Same content written again
+			return true;
+		}
+		return file.createDeduplicatedChunk(index, dataChunk).isPresent();
+	}
 }
@@ -42,6 +42,11 @@ public class DirectoryCreate extends ClientApiEndpoint {
 			return;
 		}
 
+		if (parent.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
 		Directory directory;
 		try {
 			directory = parent.createDirectory(name);
@@ -0,0 +1,69 @@
+package eclipfs.metaserver.http.endpoints.client;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import eclipfs.metaserver.exception.AlreadyExistsException;
+import eclipfs.metaserver.http.ApiError;
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
+import eclipfs.metaserver.model.Directory;
+import eclipfs.metaserver.model.File;
+import eclipfs.metaserver.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Copy a file without transferring data, see {@link Directory#cloneFile(File, String)}. Only
+ * finalized chunks are copied, clients should finish writing the source file first.
+ */
+public class FileClone extends ClientApiEndpoint {
+
+	public FileClone() {
+		super("fileClone", RequestMethod.POST);
+	}
+
+	@Override
+	protected void handle(final User user, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		if (!user.hasWriteAccess()) {
+			ApiError.MISSING_WRITE_ACCESS.send(response);
+			return;
+		}
+
+		final JsonObject json = HttpUtil.readJsonFromRequestBody(request, response);
+		if (json == null) {
+			return;
+		}
+
+		final File source = HttpUtil.getJsonFile(json, response);
+		final Directory directory = HttpUtil.getJsonDirectory(json, response);
+		final String name = HttpUtil.getJsonString(json, response, "name");
+		if (source == null || directory == null || name == null) {
+			return;
+		}
+
+		if (directory.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
+		File file;
+		try {
+			file = directory.cloneFile(source, name);
+		} catch (final AlreadyExistsException e) {
+			ApiError.NAME_ALREADY_EXISTS.send(response);
+			return;
+		}
+
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject().name("file").beginObject();
+			InodeInfo.writeInodeInfoJson(file, writer);
+			writer.endObject().endObject();
+		}
+	}
+
+}
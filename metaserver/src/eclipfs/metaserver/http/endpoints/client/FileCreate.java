@@ -41,6 +41,11 @@ public class FileCreate extends ClientApiEndpoint {
 			return;
 		}
 
+		if (directory.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
 		if (directory.contains(name)) {
 			ApiError.NAME_ALREADY_EXISTS.send(response);
 			return;
@@ -39,6 +39,11 @@ public class InodeDelete extends ClientApiEndpoint {
 			return;
 		}
 
+		if (inode.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
 		if (inode instanceof Directory && !((Directory) inode).isEmpty()) {
 			ApiError.DIRECTORY_NOT_EMPTY.send(response);
 			return;
@@ -2,11 +2,15 @@ package eclipfs.metaserver.http.endpoints.client;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Optional;
 
 import com.google.gson.stream.JsonWriter;
 
+import eclipfs.metaserver.Tunables;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
+import eclipfs.metaserver.model.Chunk;
 import eclipfs.metaserver.model.Directory;
 import eclipfs.metaserver.model.File;
 import eclipfs.metaserver.model.Inode;
@@ -33,6 +37,9 @@ public class InodeInfo extends ClientApiEndpoint {
 			writer.beginObject();
 
 			writeInodeInfoJson(inode, writer);
+			if (inode.isFile() && inode.getSize() <= Tunables.INLINE_MAX_SIZE) {
+				writeInlineData((File) inode, writer);
+			}
 			if (!inode.isFile()) {
 				final Directory directory = (Directory) inode;
 				writer.name("children");
@@ -43,6 +50,26 @@ public class InodeInfo extends ClientApiEndpoint {
 		}
 	}
 
+	/**
+	 * Small files are often stored in a single inline chunk. Sending its data with the inode info saves
+	 * the client a chunk download.
+	 */
+	private static void writeInlineData(final File file, final JsonWriter writer) throws IOException, SQLException {
+		final Optional<Chunk> optChunk = file.getChunk(0);
+		if (optChunk.isEmpty()) {
+			return;
+		}
+		final Chunk chunk = optChunk.get().getDataChunk();
+		if (!chunk.isInline()) {
+			return;
+		}
+		writer.name("inline").beginObject();
+		writer.name("data").value(Base64.getEncoder().encodeToString(chunk.getInlineData()));
+		writer.name("checksum").value(chunk.getChecksumHex());
+		ChunkDownload.writeEncryptionPosition(writer, file, 0, chunk);
+		writer.endObject();
+	}
+
 	static void writeInodeInfoJson(final Inode inode, final JsonWriter writer) throws IOException, SQLException {
 		writer.name("inode").value(inode.getId());
 		writer.name("name").value(inode.getName());
@@ -55,6 +82,10 @@ public class InodeInfo extends ClientApiEndpoint {
 			writer.name("chunk_size").value(((File) inode).getChunkSize());
 		}
 		writer.name("parent").value(inode.getParentId());
+		writer.name("replication_goal").value(inode.getReplicationGoal());
+		writer.name("erasure_data").value(inode.getErasureDataShards());
+		writer.name("erasure_parity").value(inode.getErasureParityShards());
+		writer.name("striped").value(inode.isStriped());
 	}
 
 }
@@ -43,6 +43,11 @@ public class InodeMove extends ClientApiEndpoint {
 			return;
 		}
 
+		if (inode.isSnapshot() || newParent.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
 		try {
 			inode.move(newParent, newName);
 		} catch (final AlreadyExistsException e) {
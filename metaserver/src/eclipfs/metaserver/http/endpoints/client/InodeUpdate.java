@@ -5,6 +5,8 @@ import java.sql.SQLException;
 
 import com.google.gson.JsonObject;
 
+import eclipfs.metaserver.Tunables;
+import eclipfs.metaserver.http.ApiError;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
 import eclipfs.metaserver.model.Inode;
@@ -31,6 +33,11 @@ public class InodeUpdate extends ClientApiEndpoint {
 			return;
 		}
 
+		if (inode.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
 		if (json.has("mtime")) {
 			final Long modificationTime = HttpUtil.getJsonLong(json, response, "mtime");
 			if (modificationTime == null) {
@@ -47,6 +54,52 @@ public class InodeUpdate extends ClientApiEndpoint {
 			inode.setSize(size);
 		}
 
+		if (json.has("replication_goal")) {
+			final Long replicationGoal = HttpUtil.getJsonLong(json, response, "replication_goal");
+			if (replicationGoal == null) {
+				return;
+			}
+			if (!user.hasWriteAccess()) {
+				ApiError.MISSING_WRITE_ACCESS.send(response);
+				return;
+			}
+			if (replicationGoal < 1 || replicationGoal > Tunables.REPLICATION_GOAL_MAX) {
+				ApiError.INVALID_REPLICATION_GOAL.send(response);
+				return;
+			}
+			inode.setReplicationGoal(replicationGoal.intValue());
+		}
+
+		if (json.has("erasure_data") || json.has("erasure_parity")) {
+			final Long dataShards = HttpUtil.getJsonLong(json, response, "erasure_data");
+			final Long parityShards = HttpUtil.getJsonLong(json, response, "erasure_parity");
+			if (dataShards == null || parityShards == null) {
+				return;
+			}
+			if (!user.hasWriteAccess()) {
+				ApiError.MISSING_WRITE_ACCESS.send(response);
+				return;
+			}
+			final boolean disable = dataShards == 0 && parityShards == 0;
+			if (!disable && (dataShards < 1 || parityShards < 1 || dataShards + parityShards > Tunables.ERASURE_MAX_SHARDS)) {
+				ApiError.INVALID_ERASURE_CODING.send(response);
+				return;
+			}
+			inode.setErasureCoding(dataShards.intValue(), parityShards.intValue());
+		}
+
+		if (json.has("striped")) {
+			final Boolean striped = HttpUtil.getJsonBoolean(json, response, "striped");
+			if (striped == null) {
+				return;
+			}
+			if (!user.hasWriteAccess()) {
+				ApiError.MISSING_WRITE_ACCESS.send(response);
+				return;
+			}
+			inode.setStriped(striped);
+		}
+
 		HttpUtil.writeSuccessTrueJson(response);
 	}
 
@@ -0,0 +1,57 @@
+package eclipfs.metaserver.http.endpoints.client;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import eclipfs.metaserver.http.ApiError;
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
+import eclipfs.metaserver.model.Directory;
+import eclipfs.metaserver.model.Snapshot;
+import eclipfs.metaserver.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+public class SnapshotCreate extends ClientApiEndpoint {
+
+	public SnapshotCreate() {
+		super("snapshotCreate", RequestMethod.POST);
+	}
+
+	@Override
+	protected void handle(final User user, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		if (!user.hasWriteAccess()) {
+			ApiError.MISSING_WRITE_ACCESS.send(response);
+			return;
+		}
+
+		final JsonObject json = HttpUtil.readJsonFromRequestBody(request, response);
+		if (json == null) {
+			return;
+		}
+
+		final Directory directory = HttpUtil.getJsonDirectory(json, response);
+		final String name = HttpUtil.getJsonString(json, response, "name");
+		if (directory == null || name == null) {
+			return;
+		}
+
+		if (directory.isSnapshot()) {
+			ApiError.READ_ONLY_SNAPSHOT.send(response);
+			return;
+		}
+
+		final Snapshot snapshot = Snapshot.create(directory, name);
+
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject().name("snapshot").beginObject();
+			SnapshotList.writeSnapshotJson(snapshot, writer);
+			writer.endObject().endObject();
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package eclipfs.metaserver.http.endpoints.client;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import com.google.gson.JsonObject;
+
+import eclipfs.metaserver.http.ApiError;
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
+import eclipfs.metaserver.model.Snapshot;
+import eclipfs.metaserver.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+public class SnapshotDelete extends ClientApiEndpoint {
+
+	public SnapshotDelete() {
+		super("snapshotDelete", RequestMethod.POST);
+	}
+
+	@Override
+	protected void handle(final User user, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		if (!user.hasWriteAccess()) {
+			ApiError.MISSING_WRITE_ACCESS.send(response);
+			return;
+		}
+
+		final JsonObject json = HttpUtil.readJsonFromRequestBody(request, response);
+		if (json == null) {
+			return;
+		}
+
+		final Long id = HttpUtil.getJsonLong(json, response, "id");
+		if (id == null) {
+			return;
+		}
+
+		final Optional<Snapshot> snapshot = Snapshot.byId(id);
+		if (snapshot.isEmpty()) {
+			ApiError.SNAPSHOT_NOT_EXISTS.send(response);
+			return;
+		}
+
+		// Inodes are removed in the background
+		snapshot.get().delete();
+		HttpUtil.writeSuccessTrueJson(response);
+	}
+
+}
@@ -0,0 +1,46 @@
+package eclipfs.metaserver.http.endpoints.client;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.google.gson.stream.JsonWriter;
+
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
+import eclipfs.metaserver.model.Snapshot;
+import eclipfs.metaserver.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Lists snapshots. Their contents are browsed with inodeInfo, starting from the root inode.
+ */
+public class SnapshotList extends ClientApiEndpoint {
+
+	public SnapshotList() {
+		super("snapshotList", RequestMethod.GET);
+	}
+
+	@Override
+	protected void handle(final User user, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject().name("snapshots").beginArray();
+			for (final Snapshot snapshot : Snapshot.list()) {
+				writer.beginObject();
+				writeSnapshotJson(snapshot, writer);
+				writer.endObject();
+			}
+			writer.endArray().endObject();
+		}
+	}
+
+	static void writeSnapshotJson(final Snapshot snapshot, final JsonWriter writer) throws IOException {
+		writer.name("id").value(snapshot.getId());
+		writer.name("name").value(snapshot.getName());
+		writer.name("directory").value(snapshot.getDirectoryId());
+		writer.name("root").value(snapshot.getRootId());
+		writer.name("time").value(snapshot.getTime());
+	}
+
+}
@@ -6,10 +6,10 @@ import java.util.List;
 
 import com.google.gson.stream.JsonWriter;
 
-import eclipfs.metaserver.Tunables;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.ClientApiEndpoint;
 import eclipfs.metaserver.model.Chunk;
+import eclipfs.metaserver.model.Inode;
 import eclipfs.metaserver.model.OnlineNode;
 import eclipfs.metaserver.model.User;
 import jakarta.servlet.http.HttpServletRequest;
@@ -26,13 +26,15 @@ public class StatFilesystem extends ClientApiEndpoint {
 			throws IOException, SQLException {
 		// TODO Cache
 		final List<OnlineNode> onlineNodes = OnlineNode.getOnlineNodes();
+		// Assume new data is stored with the same replication goals and erasure coding as existing data
+		final double goal = Inode.getAverageStorageOverhead();
 		final long freeSpace;
-		if (onlineNodes.size() <= 1) {
+		if (onlineNodes.size() < Math.ceil(goal)) {
 			freeSpace = 0;
-		} else if (onlineNodes.size() == 2) {
+		} else if (onlineNodes.size() == 2 && goal > 1) {
 			freeSpace = Math.min(onlineNodes.get(0).getFreeSpace(), onlineNodes.get(1).getFreeSpace());
 		} else {
-			freeSpace = onlineNodes.stream().mapToLong(OnlineNode::getFreeSpace).sum() / Tunables.REPLICATION_GOAL;
+			freeSpace = (long) (onlineNodes.stream().mapToLong(OnlineNode::getFreeSpace).sum() / goal);
 		}
 		final long usedSpace = Chunk.getTotalSizeEstimate();
 
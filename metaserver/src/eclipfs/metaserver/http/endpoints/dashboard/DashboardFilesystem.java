@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 
 import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.model.Chunk;
 import eclipfs.metaserver.model.Inode;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -17,10 +18,11 @@ public class DashboardFilesystem extends HttpServlet {
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
 		response.setContentType("text/html");
 		try {
-			final String[] columns = { "files", "directories" };
+			final String[] columns = { "files", "directories", "deduplicated chunks" };
 			final Object[][] data = new Object[1][columns.length];
 			data[0][0] = Inode.fileCount();
 			data[0][1] = Inode.directoryCount();
+			data[0][2] = Chunk.countDeduplicated();
 			Dashboard.writeTable(response.getWriter(), columns, data);
 		} catch (final SQLException e) {
 			HttpUtil.handleSqlException(response, e);
@@ -0,0 +1,70 @@
+package eclipfs.metaserver.http.endpoints.dashboard;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.google.gson.stream.JsonWriter;
+
+import eclipfs.metaserver.Fsck;
+import eclipfs.metaserver.Fsck.Problem;
+import eclipfs.metaserver.Fsck.Result;
+import eclipfs.metaserver.http.HttpUtil;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Runs {@link Fsck}, streaming problems as json while they are found. GET only checks, POST also repairs.
+ */
+public class DashboardFsck extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		fsck(response, false);
+	}
+
+	@Override
+	protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		fsck(response, true);
+	}
+
+	private void fsck(final HttpServletResponse response, final boolean repair) throws IOException {
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject();
+			writer.name("findings").beginArray();
+			final Result result = Fsck.run(repair, finding -> {
+				synchronized(writer) {
+					try {
+						writer.beginObject();
+						writer.name("problem").value(finding.getProblem().name().toLowerCase());
+						writer.name("id").value(finding.getId());
+						writer.name("file").value(finding.getFile());
+						writer.name("repaired").value(finding.isRepaired());
+						writer.endObject();
+						writer.flush();
+					} catch (final IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			writer.endArray();
+			writer.name("checked_chunks").value(result.getCheckedChunks());
+			writer.name("checked_writing_chunks").value(result.getCheckedWritingChunks());
+			writer.name("problems").beginObject();
+			for (final Problem problem : Problem.values()) {
+				writer.name(problem.name().toLowerCase()).value(result.getCount(problem));
+			}
+			writer.endObject();
+			writer.name("repaired").value(result.getRepaired());
+			writer.name("time").value(result.getTime());
+			writer.endObject();
+		} catch (final SQLException e) {
+			HttpUtil.handleSqlException(response, e);
+		} catch (final InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
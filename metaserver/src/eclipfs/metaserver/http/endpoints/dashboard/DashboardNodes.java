@@ -5,6 +5,7 @@ import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
 
+import eclipfs.metaserver.Nodes;
 import eclipfs.metaserver.model.Node;
 import eclipfs.metaserver.model.OnlineNode;
 import jakarta.servlet.http.HttpServlet;
@@ -20,7 +21,7 @@ public class DashboardNodes extends HttpServlet {
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
 		try {
 			response.setContentType("text/html");
-			final String[] columns = {"id", "location", "name", "online", "address", "free space", "stored chunks"};
+			final String[] columns = {"id", "location", "name", "tier", "online", "address", "free space", "stored chunks", "phi", "drain"};
 			final List<Node> nodes = Node.listNodesDatabase();
 			final Object[][] data = new Object[nodes.size()][columns.length];
 			int row = 0;
@@ -28,19 +29,22 @@ public class DashboardNodes extends HttpServlet {
 				data[row][0] = node.getId();
 				data[row][1] = node.getLocation();
 				data[row][2] = node.getName();
+				data[row][3] = node.getTier().getName();
 				final Optional<OnlineNode> online = OnlineNode.getOnlineNodeById(node.getId());
 				long free = 0;
 				if (online.isPresent()) {
-					data[row][3] = "yes";
-					data[row][4] = online.get().getAddress();
+					data[row][4] = "yes";
+					data[row][5] = online.get().getAddress();
 					free = online.get().getFreeSpace();
-					data[row][5] = StringFormatUtils.formatByteCount(free);
+					data[row][6] = StringFormatUtils.formatByteCount(free);
 				} else {
-					data[row][3] = "no";
-					data[row][4] = "-";
+					data[row][4] = "no";
 					data[row][5] = "-";
+					data[row][6] = "-";
 				}
-				data[row][6] = node.getStoredChunkCount();
+				data[row][7] = node.getStoredChunkCount();
+				data[row][8] = String.format("%.1f", OnlineNode.getPhi(node.getId())) + (OnlineNode.isFailed(node.getId()) ? " (failed)" : "");
+				data[row][9] = Nodes.getDrainStatus(node);
 				row++;
 			}
 			Dashboard.writeTable(response.getWriter(), columns, data);
@@ -1,8 +1,18 @@
 package eclipfs.metaserver.http.endpoints.dashboard;
 
 import java.io.IOException;
+import java.util.Map;
 
+import eclipfs.metaserver.HotChunks;
+import eclipfs.metaserver.LinkCosts;
+import eclipfs.metaserver.OvergoalTrimming;
+import eclipfs.metaserver.Rebalancer;
 import eclipfs.metaserver.Replication;
+import eclipfs.metaserver.ReplicationThrottle;
+import eclipfs.metaserver.Scrubber;
+import eclipfs.metaserver.SnapshotDeletion;
+import eclipfs.metaserver.Tiering;
+import eclipfs.metaserver.UploadExpiry;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -19,6 +29,26 @@ public class DashboardReplication extends HttpServlet {
 		data[0][0] = Replication.getQueueSize();
 		data[0][1] = Replication.getStatus();
 		Dashboard.writeTable(response.getWriter(), columns, data);
+
+		writeMapTable(response, ReplicationThrottle.getState());
+		writeMapTable(response, ReplicationThrottle.getTargets());
+		writeMapTable(response, HotChunks.getState());
+		writeMapTable(response, Tiering.getState());
+		writeMapTable(response, OvergoalTrimming.getState());
+		writeMapTable(response, Rebalancer.getState());
+		writeMapTable(response, UploadExpiry.getState());
+		writeMapTable(response, Scrubber.getState());
+		writeMapTable(response, SnapshotDeletion.getState());
+
+		final String[] linkColumns = {"link", "throughput", "rtt", "samples"};
+		Dashboard.writeTable(response.getWriter(), linkColumns, LinkCosts.getLinks().toArray(Object[][]::new));
+	}
+
+	private static void writeMapTable(final HttpServletResponse response, final Map<String, ?> map) throws IOException {
+		final String[] columns = map.keySet().toArray(String[]::new);
+		final Object[][] data = new Object[1][];
+		data[0] = map.values().toArray();
+		Dashboard.writeTable(response.getWriter(), columns, data);
 	}
 
 }
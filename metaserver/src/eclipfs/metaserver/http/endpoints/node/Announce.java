@@ -8,6 +8,8 @@ import java.sql.SQLException;
 
 import com.google.gson.JsonObject;
 
+import eclipfs.metaserver.LinkCosts;
+import eclipfs.metaserver.ReplicationThrottle;
 import eclipfs.metaserver.http.ApiError;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.NodeApiEndpoint;
@@ -44,6 +46,7 @@ public class Announce extends NodeApiEndpoint {
 
 		// Try to make request back to node
 		try {
+			final long start = System.nanoTime();
 			final HttpURLConnection connection = (HttpURLConnection) new URL(address, "/ping?node_token=" + node.getToken()).openConnection();
 			connection.setConnectTimeout(500);
 			connection.setReadTimeout(500);
@@ -59,6 +62,10 @@ public class Announce extends NodeApiEndpoint {
 			if (!new String(content, StandardCharsets.UTF_8).equals("pong")) {
 				throw new IOException("Reponse != 'pong'");
 			}
+
+			final long latency = System.nanoTime() - start;
+			ReplicationThrottle.recordNodeLatency(latency);
+			LinkCosts.recordNodeRtt(node.getLocation(), latency);
 		} catch (final IOException e) {
 			ApiError.NODE_ADDRESS_UNREACHABLE.send(response, e.toString());
 			return;
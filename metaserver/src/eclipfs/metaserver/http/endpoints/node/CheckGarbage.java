@@ -1,15 +1,11 @@
 package eclipfs.metaserver.http.endpoints.node;
 
 import java.io.IOException;
-import java.sql.Connection;
 import java.sql.SQLException;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
 
-import eclipfs.metaserver.Database;
 import eclipfs.metaserver.http.HttpUtil;
 import eclipfs.metaserver.http.endpoints.NodeApiEndpoint;
 import eclipfs.metaserver.model.Node;
@@ -30,16 +26,15 @@ public class CheckGarbage extends NodeApiEndpoint {
 			return;
 		}
 
-		final JsonArray chunks = json.getAsJsonArray("chunks");
+		final long[] chunkIds = HttpUtil.getJsonLongArray(json, response, "chunks");
+		if (chunkIds == null) {
+			return;
+		}
 
-		try (JsonWriter writer = HttpUtil.getJsonWriter(response);
-				Connection conn = Database.getConnection()) {
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
 			writer.beginObject().name("garbage").beginArray();
-			for (final JsonElement e : chunks) {
-				final long chunkId = e.getAsLong();
-				if (!node.hasChunk(chunkId)) {
-					writer.value(chunkId);
-				}
+			for (final long chunkId : node.findGarbage(chunkIds)) {
+				writer.value(chunkId);
 			}
 			writer.endArray().endObject();
 		}
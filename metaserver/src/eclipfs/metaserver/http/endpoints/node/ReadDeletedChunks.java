@@ -0,0 +1,55 @@
+package eclipfs.metaserver.http.endpoints.node;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import eclipfs.metaserver.Tunables;
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.NodeApiEndpoint;
+import eclipfs.metaserver.model.DeletedChunks;
+import eclipfs.metaserver.model.Node;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+public class ReadDeletedChunks extends NodeApiEndpoint {
+
+	public ReadDeletedChunks() {
+		super("deletedChunks", RequestMethod.POST);
+	}
+
+	@Override
+	protected void handle(final Node node, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		final JsonObject json = HttpUtil.readJsonFromRequestBody(request, response);
+		if (json == null) {
+			return;
+		}
+
+		final Long cursor = HttpUtil.getJsonLong(json, response, "cursor");
+		if (cursor == null) {
+			return;
+		}
+
+		if (cursor < 0) {
+			HttpUtil.sendBadRequest(response, "Cursor must not be negative");
+			return;
+		}
+
+		final DeletedChunks deleted = DeletedChunks.read(node, cursor, Tunables.DELETION_JOURNAL_BATCH_SIZE);
+
+		try (JsonWriter writer = HttpUtil.getJsonWriter(response)) {
+			writer.beginObject();
+			writer.name("cursor").value(deleted.getCursor());
+			writer.name("chunks").beginArray();
+			for (final long chunkId : deleted.getChunkIds()) {
+				writer.value(chunkId);
+			}
+			writer.endArray();
+			writer.endObject();
+		}
+	}
+
+}
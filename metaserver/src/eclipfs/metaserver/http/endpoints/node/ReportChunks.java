@@ -0,0 +1,71 @@
+package eclipfs.metaserver.http.endpoints.node;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.NodeApiEndpoint;
+import eclipfs.metaserver.model.ChunkReport;
+import eclipfs.metaserver.model.Node;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * One batch of a full chunk report, see {@link ChunkReport}
+ */
+public class ReportChunks extends NodeApiEndpoint {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("http - report chunks");
+
+	public ReportChunks() {
+		super("reportChunks", RequestMethod.POST);
+	}
+
+	@Override
+	protected void handle(final Node node, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		final JsonObject json = HttpUtil.readJsonFromRequestBody(request, response);
+		if (json == null) {
+			return;
+		}
+
+		final Boolean first = HttpUtil.getJsonBoolean(json, response, "first");
+		final Boolean last = HttpUtil.getJsonBoolean(json, response, "last");
+		if (first == null || last == null) {
+			return;
+		}
+
+		final long[] chunkIds = HttpUtil.getJsonDeltaLongArray(json, response, "chunks");
+		if (chunkIds == null) {
+			return;
+		}
+
+		final long[] recentChunkIds = HttpUtil.getJsonDeltaLongArray(json, response, "recent");
+		if (recentChunkIds == null) {
+			return;
+		}
+
+		ChunkReport.addBatch(node, chunkIds, recentChunkIds, first);
+
+		if (last) {
+			final Optional<ChunkReport> optReport = ChunkReport.reconcile(node);
+			if (optReport.isEmpty()) {
+				LOGGER.warn("Refused full report from {}, nearly all registered copies and shards are missing", node.getName());
+				HttpUtil.sendServerError(response, "Report refused, nearly all registered chunks are missing. Is the data directory mounted?");
+				return;
+			}
+			final ChunkReport report = optReport.get();
+			LOGGER.info("Full report from {}: {} missing copies, {} missing shards, {} unregistered files",
+					node.getName(), report.getMissingCopies(), report.getMissingShards(), report.getUnregistered());
+		}
+
+		HttpUtil.writeSuccessTrueJson(response);
+	}
+
+}
@@ -0,0 +1,50 @@
+package eclipfs.metaserver.http.endpoints.node;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import eclipfs.metaserver.http.HttpUtil;
+import eclipfs.metaserver.http.endpoints.NodeApiEndpoint;
+import eclipfs.metaserver.model.ChunkReport;
+import eclipfs.metaserver.model.Node;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Incremental chunk report, for chunks a node found to be missing between full reports
+ */
+public class ReportMissingChunks extends NodeApiEndpoint {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("http - report missing chunks");
+
+	public ReportMissingChunks() {
+		super("reportMissingChunks", RequestMethod.POST);
+	}
+
+	@Override
+	protected void handle(final Node node, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, SQLException {
+		final JsonObject json = HttpUtil.readJsonFromRequestBody(request, response);
+		if (json == null) {
+			return;
+		}
+
+		final long[] chunkIds = HttpUtil.getJsonDeltaLongArray(json, response, "chunks");
+		if (chunkIds == null) {
+			return;
+		}
+
+		final int removed = ChunkReport.removeMissing(node, chunkIds);
+		if (removed > 0) {
+			LOGGER.warn("Node {} is missing {} registered copies or shards", node.getName(), removed);
+		}
+
+		HttpUtil.writeSuccessTrueJson(response);
+	}
+
+}
@@ -0,0 +1,55 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration10 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Creating chunk deletion journal table");
+		// No foreign key to node, rows are added by cascading deletes while a node is being deleted
+		try (PreparedStatement query = connection.prepareStatement("CREATE TABLE \"chunk_deleted\" (\n"
+				+ "  \"seq\" bigserial PRIMARY KEY,\n"
+				+ "  \"node\" bigint NOT NULL,\n"
+				+ "  \"chunk\" bigint NOT NULL\n"
+				+ ")")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE INDEX \"chunk_deleted_node_seq_idx\" ON \"chunk_deleted\" (\"node\", \"seq\")")) {
+			query.execute();
+		}
+
+		// Copies and shards can be removed by many queries and by cascading deletes of files and chunks,
+		// a trigger is the only place that sees all of them.
+		logger.info("Creating triggers to record deleted chunk copies and shards");
+		try (PreparedStatement query = connection.prepareStatement("CREATE FUNCTION \"journal_chunk_node_delete\"() RETURNS trigger AS $$\n"
+				+ "BEGIN\n"
+				+ "  INSERT INTO \"chunk_deleted\" (\"node\", \"chunk\") VALUES (OLD.\"node\", OLD.\"chunk\");\n"
+				+ "  RETURN NULL;\n"
+				+ "END;\n"
+				+ "$$ LANGUAGE plpgsql")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE TRIGGER \"chunk_node_delete\" AFTER DELETE ON \"chunk_node\" "
+				+ "FOR EACH ROW EXECUTE FUNCTION \"journal_chunk_node_delete\"()")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE FUNCTION \"journal_chunk_shard_delete\"() RETURNS trigger AS $$\n"
+				+ "BEGIN\n"
+				+ "  INSERT INTO \"chunk_deleted\" (\"node\", \"chunk\") VALUES (OLD.\"node\", OLD.\"id\");\n"
+				+ "  RETURN NULL;\n"
+				+ "END;\n"
+				+ "$$ LANGUAGE plpgsql")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE TRIGGER \"chunk_shard_delete\" AFTER DELETE ON \"chunk_shard\" "
+				+ "FOR EACH ROW EXECUTE FUNCTION \"journal_chunk_shard_delete\"()")) {
+			query.execute();
+		}
+	}
+
+}
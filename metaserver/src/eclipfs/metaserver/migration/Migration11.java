@@ -0,0 +1,24 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration11 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Creating chunk report table");
+		// Only holds full chunk reports while they are being received, it does not need to survive a crash
+		try (PreparedStatement query = connection.prepareStatement("CREATE UNLOGGED TABLE \"chunk_report\" (\n"
+				+ "  \"node\" bigint NOT NULL,\n"
+				+ "  \"chunk\" bigint NOT NULL,\n"
+				+ "  PRIMARY KEY(\"node\", \"chunk\")\n"
+				+ ")")) {
+			query.execute();
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration12 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding nodes column to chunk_writing");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk_writing\" ADD COLUMN \"nodes\" bigint[] NOT NULL DEFAULT '{}'")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE INDEX \"chunk_writing_time_idx\" ON \"chunk_writing\" (\"time\")")) {
+			query.execute();
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration13 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding scrub progress columns to node");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"node\" "
+				+ "ADD COLUMN \"scrub_cursor\" bigint NOT NULL DEFAULT 0, "
+				+ "ADD COLUMN \"scrub_start\" bigint NOT NULL DEFAULT 0, "
+				+ "ADD COLUMN \"scrub_verified\" bigint NOT NULL DEFAULT 0")) {
+			query.execute();
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration14 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding deduplication columns to chunk");
+		// No foreign key on data, deleting a chunk with dependents is handled by the trigger below
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk\" "
+				+ "ADD COLUMN \"content_hash\" bytea NULL, "
+				+ "ADD COLUMN \"data\" bigint NULL, "
+				+ "ADD COLUMN \"iv_inode\" bigint NULL, "
+				+ "ADD COLUMN \"iv_index\" int NULL")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk_writing\" ADD COLUMN \"content_hash\" bytea NULL")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE INDEX \"chunk_content_hash_idx\" ON \"chunk\" (\"content_hash\") "
+				+ "WHERE \"content_hash\" IS NOT NULL AND \"data\" IS NULL")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE INDEX \"chunk_data_idx\" ON \"chunk\" (\"data\") WHERE \"data\" IS NOT NULL")) {
+			query.execute();
+		}
+
+		// A chunk that stores data for other chunks is not deleted, it takes the place of one of the
+		// chunks that refer to it instead. The position it was encrypted for is kept, because it is
+		// needed to decrypt the data. Dependents in files that are being deleted are skipped, they are
+		// deleted by the same statement.
+		logger.info("Creating trigger to keep deduplicated data when its chunk is deleted");
+		try (PreparedStatement query = connection.prepareStatement("CREATE FUNCTION \"chunk_delete_rehome\"() RETURNS trigger AS $$\n"
+				+ "DECLARE\n"
+				+ "  heir \"chunk\"%ROWTYPE;\n"
+				+ "BEGIN\n"
+				+ "  SELECT * INTO heir FROM \"chunk\" WHERE \"data\" = OLD.\"id\" \n"
+				+ "    AND EXISTS (SELECT 1 FROM \"inode\" WHERE \"inode\".\"id\" = \"chunk\".\"file\") \n"
+				+ "    ORDER BY \"id\" LIMIT 1;\n"
+				+ "  IF NOT FOUND THEN\n"
+				+ "    RETURN OLD;\n"
+				+ "  END IF;\n"
+				+ "  DELETE FROM \"chunk\" WHERE \"id\" = heir.\"id\";\n"
+				+ "  UPDATE \"chunk\" SET \"file\" = heir.\"file\", \"index\" = heir.\"index\", \n"
+				+ "    \"iv_inode\" = COALESCE(OLD.\"iv_inode\", OLD.\"file\"), \"iv_index\" = COALESCE(OLD.\"iv_index\", OLD.\"index\") \n"
+				+ "    WHERE \"id\" = OLD.\"id\";\n"
+				+ "  RETURN NULL;\n"
+				+ "END;\n"
+				+ "$$ LANGUAGE plpgsql")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE TRIGGER \"chunk_delete\" BEFORE DELETE ON \"chunk\" "
+				+ "FOR EACH ROW WHEN (OLD.\"data\" IS NULL) EXECUTE FUNCTION \"chunk_delete_rehome\"()")) {
+			query.execute();
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration15 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Creating snapshot table");
+		// No foreign key to inode, the snapshotted directory may be deleted while the snapshot is kept
+		try (PreparedStatement query = connection.prepareStatement("CREATE TABLE \"snapshot\" (\n"
+				+ "  \"id\" bigserial PRIMARY KEY,\n"
+				+ "  \"directory\" bigint NOT NULL,\n"
+				+ "  \"name\" text NOT NULL,\n"
+				+ "  \"root\" bigint NULL,\n"
+				+ "  \"time\" bigint NOT NULL,\n"
+				+ "  \"deleted\" boolean NOT NULL DEFAULT false\n"
+				+ ")")) {
+			query.execute();
+		}
+
+		logger.info("Adding snapshot column to inode");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"inode\" ADD COLUMN \"snapshot\" bigint NULL")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE INDEX \"inode_snapshot_idx\" ON \"inode\" (\"snapshot\") WHERE \"snapshot\" IS NOT NULL")) {
+			query.execute();
+		}
+	}
+
+}
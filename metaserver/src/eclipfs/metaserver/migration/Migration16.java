@@ -0,0 +1,19 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration16 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding inline data column to chunk");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk\" ADD COLUMN \"inline_data\" bytea NULL")) {
+			query.execute();
+		}
+	}
+
+}
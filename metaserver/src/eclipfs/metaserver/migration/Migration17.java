@@ -0,0 +1,31 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration17 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding registration sequence for chunk reports");
+		try (PreparedStatement query = connection.prepareStatement("CREATE SEQUENCE \"chunk_registration_seq\"")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk_node\" "
+				+ "ADD COLUMN \"registered\" bigint NOT NULL DEFAULT nextval('chunk_registration_seq')")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk_shard\" "
+				+ "ADD COLUMN \"registered\" bigint NOT NULL DEFAULT nextval('chunk_registration_seq')")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"node\" "
+				+ "ADD COLUMN \"report_cutoff\" bigint NOT NULL DEFAULT 0")) {
+			query.execute();
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration18 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		// A shard rebuilt on another node is moved by updating its row, the copy on the old node must be deleted
+		logger.info("Creating trigger to record moved chunk shards");
+		try (PreparedStatement query = connection.prepareStatement("CREATE TRIGGER \"chunk_shard_move\" AFTER UPDATE OF \"node\" ON \"chunk_shard\" "
+				+ "FOR EACH ROW WHEN (OLD.\"node\" IS DISTINCT FROM NEW.\"node\") EXECUTE FUNCTION \"journal_chunk_shard_delete\"()")) {
+			query.execute();
+		}
+	}
+
+}
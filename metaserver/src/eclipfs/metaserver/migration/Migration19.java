@@ -0,0 +1,19 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration19 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding recent column to chunk report");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk_report\" ADD COLUMN \"recent\" boolean NOT NULL DEFAULT false")) {
+			query.execute();
+		}
+	}
+
+}
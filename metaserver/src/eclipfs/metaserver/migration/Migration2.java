@@ -0,0 +1,27 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration2 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Creating replication window table");
+		try (PreparedStatement query = connection.prepareStatement("CREATE TABLE \"replication_window\" (\n"
+				+ "  \"id\" serial PRIMARY KEY,\n"
+				+ "  \"source_location\" text NOT NULL,\n"
+				+ "  \"target_location\" text NOT NULL,\n"
+				+ "  \"start_hour\" int NOT NULL CHECK(\"start_hour\" BETWEEN 0 AND 23),\n"
+				+ "  \"end_hour\" int NOT NULL CHECK(\"end_hour\" BETWEEN 0 AND 23),\n"
+				+ "  \"concurrency\" int NOT NULL CHECK(\"concurrency\" > 0),\n"
+				+ "  \"bandwidth\" bigint NOT NULL CHECK(\"bandwidth\" >= 0)\n"
+				+ ")")) {
+			query.execute();
+		}
+	}
+
+}
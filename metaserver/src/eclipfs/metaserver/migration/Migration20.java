@@ -0,0 +1,36 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration20 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		// Same as Migration14, but the dependent in the file with the highest replication goal takes over the data
+		logger.info("Updating trigger to keep deduplicated data when its chunk is deleted");
+		try (PreparedStatement query = connection.prepareStatement("CREATE OR REPLACE FUNCTION \"chunk_delete_rehome\"() RETURNS trigger AS $$\n"
+				+ "DECLARE\n"
+				+ "  heir \"chunk\"%ROWTYPE;\n"
+				+ "BEGIN\n"
+				+ "  SELECT \"chunk\".* INTO heir FROM \"chunk\" JOIN \"inode\" ON \"inode\".\"id\" = \"chunk\".\"file\" \n"
+				+ "    WHERE \"chunk\".\"data\" = OLD.\"id\" \n"
+				+ "    ORDER BY \"inode\".\"replication_goal\" DESC, \"chunk\".\"id\" LIMIT 1;\n"
+				+ "  IF NOT FOUND THEN\n"
+				+ "    RETURN OLD;\n"
+				+ "  END IF;\n"
+				+ "  DELETE FROM \"chunk\" WHERE \"id\" = heir.\"id\";\n"
+				+ "  UPDATE \"chunk\" SET \"file\" = heir.\"file\", \"index\" = heir.\"index\", \n"
+				+ "    \"iv_inode\" = COALESCE(OLD.\"iv_inode\", OLD.\"file\"), \"iv_index\" = COALESCE(OLD.\"iv_index\", OLD.\"index\") \n"
+				+ "    WHERE \"id\" = OLD.\"id\";\n"
+				+ "  RETURN NULL;\n"
+				+ "END;\n"
+				+ "$$ LANGUAGE plpgsql")) {
+			query.execute();
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+import eclipfs.metaserver.Tunables;
+
+public class Migration3 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding replication goal column to inode");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"inode\" ADD COLUMN \"replication_goal\" int NOT NULL DEFAULT "
+				+ Tunables.REPLICATION_GOAL + " CHECK(\"replication_goal\" BETWEEN 1 AND " + Tunables.REPLICATION_GOAL_MAX + ")")) {
+			query.execute();
+		}
+	}
+
+}
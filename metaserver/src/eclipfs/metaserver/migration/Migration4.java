@@ -0,0 +1,45 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration4 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding erasure coding columns to inode");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"inode\" "
+				+ "ADD COLUMN \"erasure_data\" int NOT NULL DEFAULT 0 CHECK(\"erasure_data\" >= 0), "
+				+ "ADD COLUMN \"erasure_parity\" int NOT NULL DEFAULT 0 CHECK(\"erasure_parity\" >= 0)")) {
+			query.execute();
+		}
+		logger.info("Creating chunk stripe table");
+		try (PreparedStatement query = connection.prepareStatement("CREATE TABLE \"chunk_stripe\" (\n"
+				+ "  \"chunk\" bigint PRIMARY KEY REFERENCES \"chunk\"(\"id\") ON DELETE CASCADE,\n"
+				+ "  \"data_shards\" int NOT NULL CHECK(\"data_shards\" > 0),\n"
+				+ "  \"parity_shards\" int NOT NULL CHECK(\"parity_shards\" > 0),\n"
+				+ "  \"size\" bigint NOT NULL\n"
+				+ ")")) {
+			query.execute();
+		}
+		logger.info("Creating chunk shard table");
+		// Shards are stored on nodes like chunks, their ids come from the same sequence so they never collide
+		try (PreparedStatement query = connection.prepareStatement("CREATE TABLE \"chunk_shard\" (\n"
+				+ "  \"id\" bigint PRIMARY KEY DEFAULT nextval('chunk_id_seq'),\n"
+				+ "  \"chunk\" bigint NOT NULL REFERENCES \"chunk_stripe\"(\"chunk\") ON DELETE CASCADE,\n"
+				+ "  \"index\" int NOT NULL,\n"
+				+ "  \"node\" bigint NOT NULL REFERENCES \"node\"(\"id\") ON DELETE CASCADE,\n"
+				+ "  \"checksum\" bytea NOT NULL,\n"
+				+ "  UNIQUE(\"chunk\", \"index\")\n"
+				+ ")")) {
+			query.execute();
+		}
+		try (PreparedStatement query = connection.prepareStatement("CREATE INDEX \"chunk_shard_node_idx\" ON \"chunk_shard\" (\"node\")")) {
+			query.execute();
+		}
+	}
+
+}
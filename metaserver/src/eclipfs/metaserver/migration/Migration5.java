@@ -0,0 +1,20 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration5 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding temporary_since column to chunk_node");
+		// Set for extra copies of frequently read chunks, which are removed again when no longer needed
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"chunk_node\" ADD COLUMN \"temporary_since\" bigint")) {
+			query.execute();
+		}
+	}
+
+}
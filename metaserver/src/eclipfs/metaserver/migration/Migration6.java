@@ -0,0 +1,23 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration6 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding tier column to node");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"node\" ADD COLUMN \"tier\" text NOT NULL DEFAULT 'hot' CHECK(\"tier\" IN ('hot', 'archive'))")) {
+			query.execute();
+		}
+		logger.info("Adding atime column to inode");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"inode\" ADD COLUMN \"atime\" bigint")) {
+			query.execute();
+		}
+	}
+
+}
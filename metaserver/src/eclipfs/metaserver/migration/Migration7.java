@@ -0,0 +1,20 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration7 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding drain columns to node");
+		// Set while a node is being emptied before removal, drain_chunks is the amount of chunks to copy at the start
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"node\" ADD COLUMN \"drain_since\" bigint, ADD COLUMN \"drain_chunks\" bigint NOT NULL DEFAULT 0")) {
+			query.execute();
+		}
+	}
+
+}
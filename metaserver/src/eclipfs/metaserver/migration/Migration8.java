@@ -0,0 +1,23 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration8 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Creating client location table");
+		try (PreparedStatement query = connection.prepareStatement("CREATE TABLE \"client_location\" (\n"
+				+ "  \"id\" serial PRIMARY KEY,\n"
+				+ "  \"cidr\" cidr NOT NULL UNIQUE,\n"
+				+ "  \"location\" text NOT NULL\n"
+				+ ")")) {
+			query.execute();
+		}
+	}
+
+}
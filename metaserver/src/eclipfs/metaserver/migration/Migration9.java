@@ -0,0 +1,19 @@
+package eclipfs.metaserver.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+
+public class Migration9 extends Migration {
+
+	@Override
+	void runMigration(final Logger logger, final Connection connection) throws SQLException {
+		logger.info("Adding striped column to inode");
+		try (PreparedStatement query = connection.prepareStatement("ALTER TABLE \"inode\" ADD COLUMN \"striped\" boolean NOT NULL DEFAULT false")) {
+			query.execute();
+		}
+	}
+
+}
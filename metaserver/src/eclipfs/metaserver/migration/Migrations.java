@@ -14,6 +14,25 @@ public class Migrations {
 
 	private static final Migration[] MIGRATIONS = {
 			new Migration1(),
+			new Migration2(),
+			new Migration3(),
+			new Migration4(),
+			new Migration5(),
+			new Migration6(),
+			new Migration7(),
+			new Migration8(),
+			new Migration9(),
+			new Migration10(),
+			new Migration11(),
+			new Migration12(),
+			new Migration13(),
+			new Migration14(),
+			new Migration15(),
+			new Migration16(),
+			new Migration17(),
+			new Migration18(),
+			new Migration19(),
+			new Migration20(),
 	};
 
 	private static final Logger LOGGER = LoggerFactory.getLogger("Migrations");
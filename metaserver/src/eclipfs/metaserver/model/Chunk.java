@@ -17,9 +17,26 @@ import eclipfs.metaserver.Tunables;
 
 public class Chunk {
 
+	// Copies needed for the data of a chunk: the highest replication goal of its own file and of the files of its
+	// deduplicated copies, which only depend on it. Requires the chunk and its file to be available as chunk and inode.
+	public static final String REPLICATION_GOAL_SQL = "GREATEST(inode.replication_goal, "
+			+ "(SELECT MAX(dependent_inode.replication_goal) FROM chunk dependent JOIN inode dependent_inode ON dependent.file=dependent_inode.id "
+			+ "WHERE dependent.data=chunk.id))";
+	// Whether a chunk has deduplicated copies in files that are not erasure coded, for example clones made before the
+	// layout of the file was changed. Its data is then kept as full copies. Requires the chunk to be available as chunk.
+	public static final String REPLICATED_DEPENDENTS_SQL = "EXISTS (SELECT 1 FROM chunk dependent JOIN inode dependent_inode ON dependent.file=dependent_inode.id "
+			+ "WHERE dependent.data=chunk.id AND dependent_inode.erasure_data = 0)";
+
+	// Same as getSizeEstimate(). Requires the chunk and its file to be available as chunk and inode.
+	static final String SIZE_ESTIMATE_SQL = "GREATEST(0, LEAST(inode.chunk_size, inode.size - chunk.index::bigint * inode.chunk_size))";
+
 	private final long id;
 	private final int index;
 	private final byte[] checksum;
+	private final Long data;
+	private final Long ivInode;
+	private final Integer ivIndex;
+	private final byte[] inlineData;
 
 	private transient final File file;
 
@@ -30,6 +47,10 @@ public class Chunk {
 		this.index = result.getInt("index");
 		Validate.isTrue(result.getLong("file") == file.getId());
 		this.checksum = result.getBytes("checksum");
+		this.data = result.getObject("data", Long.class);
+		this.ivInode = result.getObject("iv_inode", Long.class);
+		this.ivIndex = result.getObject("iv_index", Integer.class);
+		this.inlineData = result.getBytes("inline_data");
 		this.file = file;
 	}
 
@@ -53,6 +74,93 @@ public class Chunk {
 		return new String(Hex.encode(this.getChecksum()));
 	}
 
+	/**
+	 * @return Whether this chunk is a deduplicated copy, its data is stored by another chunk
+	 */
+	public boolean isDeduplicated() {
+		return this.data != null;
+	}
+
+	/**
+	 * @return Whether the data of this chunk is stored in the database instead of on nodes
+	 */
+	public boolean isInline() {
+		return this.inlineData != null;
+	}
+
+	/**
+	 * @return Encrypted data of an inline chunk, or null
+	 * @see #isInline()
+	 */
+	public byte[] getInlineData() {
+		return this.inlineData;
+	}
+
+	/**
+	 * @return Chunk that stores the data of this chunk: the chunk itself, or the chunk it is a
+	 * deduplicated copy of
+	 */
+	public Chunk getDataChunk() throws SQLException {
+		if (this.data == null) {
+			return this;
+		}
+		return byId(this.data).orElseThrow(() -> new IllegalStateException("Chunk " + this.id + " refers to chunk " + this.data + " which does not exist"));
+	}
+
+	/**
+	 * @return Inode id the data of this chunk is encrypted for. This is the chunk's own file, unless
+	 * the chunk took over the data of a deleted chunk.
+	 */
+	public long getEncryptionInode() {
+		return this.ivInode != null ? this.ivInode : this.file.getId();
+	}
+
+	/**
+	 * @return Chunk index the data of this chunk is encrypted for
+	 * @see #getEncryptionInode()
+	 */
+	public int getEncryptionIndex() {
+		return this.ivIndex != null ? this.ivIndex : this.index;
+	}
+
+	/**
+	 * @return Size of this chunk, calculated from the file size. All chunks have the file's chunk size,
+	 * except the last chunk which may be smaller.
+	 */
+	public long getSizeEstimate() {
+		final long chunkSize = this.file.getChunkSize();
+		return Math.max(0, Math.min(chunkSize, this.file.getSize() - this.index * chunkSize));
+	}
+
+	/**
+	 * @return Number of copies needed for the data of this chunk, see {@link #REPLICATION_GOAL_SQL}
+	 */
+	public int getReplicationGoal() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT " + REPLICATION_GOAL_SQL + " FROM chunk JOIN inode ON chunk.file=inode.id WHERE chunk.id=?")) {
+			query.setLong(1, this.getId());
+			final ResultSet result = query.executeQuery();
+			if (!result.next()) {
+				// Deleted in the meantime
+				return this.file.getReplicationGoal();
+			}
+			return result.getInt(1);
+		}
+	}
+
+	/**
+	 * @return Whether the data of this chunk must be stored as full copies because of its deduplicated copies,
+	 * even though its own file is erasure coded, see {@link #REPLICATED_DEPENDENTS_SQL}
+	 */
+	public boolean hasReplicatedDependents() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT " + REPLICATED_DEPENDENTS_SQL + " FROM chunk WHERE chunk.id=?")) {
+			query.setLong(1, this.getId());
+			final ResultSet result = query.executeQuery();
+			return result.next() && result.getBoolean(1);
+		}
+	}
+
 	public List<Long> getNodeIds() throws SQLException {
 		try (Connection conn = Database.getConnection();
 				PreparedStatement query = conn.prepareStatement("SELECT node FROM \"chunk_node\" WHERE chunk=?")) {
@@ -90,6 +198,10 @@ public class Chunk {
 //		}
 //	}
 
+	public Optional<ChunkStripe> getStripe() throws SQLException {
+		return ChunkStripe.byChunk(this.getId());
+	}
+
 	public void addNode(final Node node) throws SQLException {
 		Validate.notNull(node, "Node is null");
 		try (Connection conn = Database.getConnection();
@@ -99,6 +211,123 @@ public class Chunk {
 			query.execute();
 		}
 	}
+
+	/**
+	 * Remove a normal copy of this chunk. The data is deleted by garbage collection on the node.
+	 * @return Whether the copy was removed
+	 */
+	public boolean removeNode(final Node node) throws SQLException {
+		Validate.notNull(node, "Node is null");
+		try (Connection conn = Database.getConnection();
+			PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_node WHERE chunk=? AND node=? AND temporary_since IS NULL")) {
+			query.setLong(1, this.getId());
+			query.setLong(2, node.getId());
+			return query.executeUpdate() > 0;
+		}
+	}
+
+	/**
+	 * Register an extra copy of this chunk, which may be removed again by {@link #removeTemporaryNode(Node)}
+	 */
+	public void addTemporaryNode(final Node node) throws SQLException {
+		Validate.notNull(node, "Node is null");
+		try (Connection conn = Database.getConnection();
+			PreparedStatement query = conn.prepareStatement("INSERT INTO chunk_node(chunk, node, temporary_since) VALUES (?, ?, ?) ON CONFLICT(chunk, node) DO NOTHING")) {
+			query.setLong(1, this.getId());
+			query.setLong(2, node.getId());
+			query.setLong(3, System.currentTimeMillis());
+			query.execute();
+		}
+	}
+
+	/**
+	 * Remove an extra copy of this chunk. Does nothing if the copy is not temporary.
+	 * @return Whether the copy was removed
+	 */
+	public boolean removeTemporaryNode(final Node node) throws SQLException {
+		Validate.notNull(node, "Node is null");
+		try (Connection conn = Database.getConnection();
+			PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_node WHERE chunk=? AND node=? AND temporary_since IS NOT NULL")) {
+			query.setLong(1, this.getId());
+			query.setLong(2, node.getId());
+			return query.executeUpdate() > 0;
+		}
+	}
+
+	/**
+	 * Turn an extra copy into a normal copy, for example because a normal copy has been lost
+	 */
+	public void makePermanent(final Node node) throws SQLException {
+		Validate.notNull(node, "Node is null");
+		try (Connection conn = Database.getConnection();
+			PreparedStatement query = conn.prepareStatement("UPDATE chunk_node SET temporary_since=NULL WHERE chunk=? AND node=?")) {
+			query.setLong(1, this.getId());
+			query.setLong(2, node.getId());
+			query.execute();
+		}
+	}
+
+	/**
+	 * @return Nodes with a normal (not temporary) copy of this chunk
+	 */
+	public List<Node> getPermanentNodes() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT node FROM \"chunk_node\" WHERE chunk=? AND temporary_since IS NULL")) {
+			query.setLong(1, this.getId());
+			final ResultSet result = query.executeQuery();
+			final List<Node> nodes = new ArrayList<>();
+			while (result.next()) {
+				final long id = result.getLong(1);
+				nodes.add(Node.byId(id).orElseThrow(() -> new IllegalStateException("Node id " + id + " not found")));
+			}
+			return nodes;
+		}
+	}
+
+	/**
+	 * Register copies of chunks on a node, after the node reported them as written. Only chunks that were
+	 * requested and still exist are registered, chunks deleted in the meantime are skipped.
+	 * @param requested Chunks the node was asked to store
+	 * @param written Chunks the node reported as written
+	 */
+	public static void addNode(final Node node, final List<Long> requested, final List<Long> written) throws SQLException {
+		Validate.notNull(node, "Node is null");
+		Validate.notNull(requested, "Requested chunk ids is null");
+		Validate.notNull(written, "Written chunk ids is null");
+		if (requested.isEmpty() || written.isEmpty()) {
+			return;
+		}
+		try (Connection conn = Database.getConnection();
+			PreparedStatement query = conn.prepareStatement("INSERT INTO chunk_node(chunk, node) "
+					+ "SELECT id, ? FROM chunk WHERE id = ANY(?) AND id = ANY(?) FOR KEY SHARE "
+					+ "ON CONFLICT(chunk, node) DO NOTHING")) {
+			query.setLong(1, node.getId());
+			query.setArray(2, conn.createArrayOf("bigint", requested.toArray()));
+			query.setArray(3, conn.createArrayOf("bigint", written.toArray()));
+			query.execute();
+		}
+	}
+
+	/**
+	 * Move chunks from one node to another, after they have been copied to the new node. Chunks that are
+	 * no longer on the old node (deleted or moved in the meantime) are not added to the new node.
+	 */
+	public static void moveNode(final Node from, final Node to, final List<Long> chunkIds) throws SQLException {
+		Validate.notNull(from, "From node is null");
+		Validate.notNull(to, "To node is null");
+		Validate.notNull(chunkIds, "Chunk ids is null");
+		if (chunkIds.isEmpty()) {
+			return;
+		}
+		try (Connection conn = Database.getConnection();
+			PreparedStatement query = conn.prepareStatement("WITH moved AS (DELETE FROM chunk_node WHERE node=? AND chunk = ANY(?) RETURNING chunk) "
+					+ "INSERT INTO chunk_node(chunk, node) SELECT chunk, ? FROM moved ON CONFLICT(chunk, node) DO NOTHING")) {
+			query.setLong(1, from.getId());
+			query.setArray(2, conn.createArrayOf("bigint", chunkIds.toArray()));
+			query.setLong(3, to.getId());
+			query.execute();
+		}
+	}
 //
 //	public void removeAllNodes() throws SQLException {
 //		try (Connection conn = Database.getConnection();
@@ -126,6 +355,50 @@ public class Chunk {
 		}
 	}
 
+	/**
+	 * Find a chunk with the same content that can store data for the given file: a chunk that stores
+	 * its own data, in a file with at least the same redundancy, that has at least one copy or stripe.
+	 * Striped files are not deduplicated, their data is placed by position.
+	 */
+	public static Optional<Chunk> byContentHash(final byte[] contentHash, final File file) throws SQLException {
+		Validate.notNull(contentHash, "Content hash is null");
+		Validate.notNull(file, "File is null");
+		if (file.isStriped()) {
+			return Optional.empty();
+		}
+		final long id;
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT chunk.id FROM chunk JOIN inode ON chunk.file=inode.id \n"
+						+ "WHERE chunk.content_hash=? AND chunk.data IS NULL \n"
+						+ "	AND inode.replication_goal >= ? AND inode.erasure_data=? AND inode.erasure_parity=? AND NOT inode.striped \n"
+						+ "	AND (EXISTS (SELECT 1 FROM chunk_node WHERE chunk_node.chunk=chunk.id AND chunk_node.temporary_since IS NULL) \n"
+						+ "		OR EXISTS (SELECT 1 FROM chunk_stripe WHERE chunk_stripe.chunk=chunk.id)) \n"
+						+ "LIMIT 1")) {
+			query.setBytes(1, contentHash);
+			query.setInt(2, file.getReplicationGoal());
+			query.setInt(3, file.getErasureDataShards());
+			query.setInt(4, file.getErasureParityShards());
+			final ResultSet result = query.executeQuery();
+			if (!result.next()) {
+				return Optional.empty();
+			}
+			id = result.getLong(1);
+		}
+		return byId(id);
+	}
+
+	/**
+	 * @return Number of chunks that are deduplicated copies of another chunk
+	 */
+	public static long countDeduplicated() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT COUNT(*) FROM chunk WHERE data IS NOT NULL")) {
+			final ResultSet result = query.executeQuery();
+			result.next();
+			return result.getLong(1);
+		}
+	}
+
 	public static boolean exists(final long id) throws SQLException {
 		try (Connection conn = Database.getConnection();
 				PreparedStatement query = conn.prepareStatement("SELECT * FROM \"chunk\" WHERE id=?")) {
@@ -134,12 +407,17 @@ public class Chunk {
 		}
 	}
 
+	/**
+	 * @return Estimated bytes stored on nodes, including copies and parity. Data shared by deduplicated copies,
+	 * clones and snapshots is counted once, by the chunk that stores it.
+	 */
 	public static long getTotalSizeEstimate() throws SQLException {
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT SUM(size) FROM inode WHERE is_file = 'true'")) {
+				PreparedStatement query = conn.prepareStatement("SELECT SUM(" + SIZE_ESTIMATE_SQL + " * " + Inode.STORAGE_OVERHEAD_SQL + ") \n"
+						+ "FROM chunk JOIN inode ON chunk.file=inode.id WHERE chunk.data IS NULL AND chunk.inline_data IS NULL")) {
 			final ResultSet result = query.executeQuery();
 			result.next();
-			return result.getLong(1) * Tunables.REPLICATION_GOAL;
+			return (long) result.getDouble(1);
 		}
 	}
 
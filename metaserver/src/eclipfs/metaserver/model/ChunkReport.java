@@ -0,0 +1,184 @@
+package eclipfs.metaserver.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.apache.commons.lang3.Validate;
+
+import eclipfs.metaserver.Database;
+import eclipfs.metaserver.Tunables;
+
+/**
+ * Inventory of the chunks and shards a node stores on disk, reported in batches and kept in the
+ * chunk_report table until the last batch arrives. The report is then compared to chunk_node and
+ * chunk_shard using set operations, so it is never loaded into memory. Registered copies that are
+ * not on disk are unregistered, after which replication or shard reconstruction replaces them.
+ * Files on disk that are not registered are added to the deletion journal of the node, unless the node
+ * marked them as recently written because their registration may still be in progress.
+ */
+public class ChunkReport {
+
+	private final int missingCopies;
+	private final int missingShards;
+	private final int unregistered;
+
+	private ChunkReport(final int missingCopies, final int missingShards, final int unregistered) {
+		this.missingCopies = missingCopies;
+		this.missingShards = missingShards;
+		this.unregistered = unregistered;
+	}
+
+	public int getMissingCopies() {
+		return this.missingCopies;
+	}
+
+	public int getMissingShards() {
+		return this.missingShards;
+	}
+
+	/**
+	 * @return Number of files on the node that are not registered, and were added to the deletion journal
+	 */
+	public int getUnregistered() {
+		return this.unregistered;
+	}
+
+	/**
+	 * Add a batch of chunk ids to the report of a node
+	 * @param first Whether this is the first batch, discarding any unfinished previous report and
+	 * recording the registration cutoff for this report
+	 * @param recentChunkIds Chunks written shortly before or during the report, which are never added to the deletion journal
+	 */
+	public static void addBatch(final Node node, final long[] chunkIds, final long[] recentChunkIds, final boolean first) throws SQLException {
+		Validate.notNull(node, "node is null");
+		Validate.notNull(chunkIds, "chunkIds is null");
+		Validate.notNull(recentChunkIds, "recentChunkIds is null");
+		try (Connection conn = Database.getConnection()) {
+			if (first) {
+				try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_report WHERE node=?")) {
+					query.setLong(1, node.getId());
+					query.execute();
+				}
+				try (PreparedStatement query = conn.prepareStatement("UPDATE node SET report_cutoff=nextval('chunk_registration_seq') WHERE id=?")) {
+					query.setLong(1, node.getId());
+					query.execute();
+				}
+			}
+			try (PreparedStatement query = conn.prepareStatement("INSERT INTO chunk_report (node, chunk) SELECT ?, unnest(?) ON CONFLICT DO NOTHING")) {
+				query.setLong(1, node.getId());
+				query.setArray(2, conn.createArrayOf("bigint", Arrays.stream(chunkIds).boxed().toArray()));
+				query.execute();
+			}
+			try (PreparedStatement query = conn.prepareStatement("INSERT INTO chunk_report (node, chunk, recent) SELECT ?, unnest(?), true "
+					+ "ON CONFLICT (node, chunk) DO UPDATE SET recent=true")) {
+				query.setLong(1, node.getId());
+				query.setArray(2, conn.createArrayOf("bigint", Arrays.stream(recentChunkIds).boxed().toArray()));
+				query.execute();
+			}
+		}
+	}
+
+	/**
+	 * Compare the completed report of a node to the registered copies and shards, then discard it.
+	 * Copies and shards registered after the report started may not be listed, so they are kept.
+	 * @return Empty if the report was refused because nearly all copies and shards of the node are missing,
+	 * see {@link Tunables#REPORT_MAX_MISSING_FRACTION}
+	 */
+	public static Optional<ChunkReport> reconcile(final Node node) throws SQLException {
+		Validate.notNull(node, "node is null");
+		try (Connection conn = Database.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				final int missingCopies;
+				try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_node WHERE node=? \n"
+						+ "AND registered < (SELECT report_cutoff FROM node WHERE id=chunk_node.node) \n"
+						+ "AND NOT EXISTS (SELECT 1 FROM chunk_report WHERE chunk_report.node=chunk_node.node AND chunk_report.chunk=chunk_node.chunk)")) {
+					query.setLong(1, node.getId());
+					missingCopies = query.executeUpdate();
+				}
+
+				final int missingShards;
+				try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_shard WHERE node=? \n"
+						+ "AND registered < (SELECT report_cutoff FROM node WHERE id=chunk_shard.node) \n"
+						+ "AND NOT EXISTS (SELECT 1 FROM chunk_report WHERE chunk_report.node=chunk_shard.node AND chunk_report.chunk=chunk_shard.id)")) {
+					query.setLong(1, node.getId());
+					missingShards = query.executeUpdate();
+				}
+
+				final int remaining;
+				try (PreparedStatement query = conn.prepareStatement("SELECT (SELECT COUNT(*) FROM chunk_node WHERE node=?) + (SELECT COUNT(*) FROM chunk_shard WHERE node=?)")) {
+					query.setLong(1, node.getId());
+					query.setLong(2, node.getId());
+					final ResultSet result = query.executeQuery();
+					result.next();
+					remaining = result.getInt(1);
+				}
+
+				final int missing = missingCopies + missingShards;
+				if (missing >= Tunables.REPORT_MIN_REFUSED_MISSING
+						&& missing > Tunables.REPORT_MAX_MISSING_FRACTION * (missing + remaining)) {
+					conn.rollback();
+					discard(conn, node);
+					conn.commit();
+					return Optional.empty();
+				}
+
+				final int unregistered;
+				try (PreparedStatement query = conn.prepareStatement("INSERT INTO chunk_deleted (node, chunk) \n"
+						+ "SELECT node, chunk FROM chunk_report \n"
+						+ "WHERE node=? AND NOT recent \n"
+						+ "	AND NOT EXISTS (SELECT 1 FROM chunk_node WHERE chunk_node.chunk=chunk_report.chunk AND chunk_node.node=chunk_report.node) \n"
+						+ "	AND NOT EXISTS (SELECT 1 FROM chunk_shard WHERE chunk_shard.id=chunk_report.chunk AND chunk_shard.node=chunk_report.node)")) {
+					query.setLong(1, node.getId());
+					unregistered = query.executeUpdate();
+				}
+
+				discard(conn, node);
+
+				conn.commit();
+				return Optional.of(new ChunkReport(missingCopies, missingShards, unregistered));
+			} catch (SQLException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+
+	private static void discard(final Connection conn, final Node node) throws SQLException {
+		try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_report WHERE node=?")) {
+			query.setLong(1, node.getId());
+			query.execute();
+		}
+	}
+
+	/**
+	 * Unregister copies and shards a node found to be missing, outside of a full report
+	 * @return Number of copies and shards unregistered
+	 */
+	public static int removeMissing(final Node node, final long[] chunkIds) throws SQLException {
+		Validate.notNull(node, "node is null");
+		Validate.notNull(chunkIds, "chunkIds is null");
+		int removed = 0;
+		try (Connection conn = Database.getConnection()) {
+			final Object[] array = Arrays.stream(chunkIds).boxed().toArray();
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_node WHERE node=? AND chunk = ANY(?)")) {
+				query.setLong(1, node.getId());
+				query.setArray(2, conn.createArrayOf("bigint", array));
+				removed += query.executeUpdate();
+			}
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_shard WHERE node=? AND id = ANY(?)")) {
+				query.setLong(1, node.getId());
+				query.setArray(2, conn.createArrayOf("bigint", array));
+				removed += query.executeUpdate();
+			}
+		}
+		return removed;
+	}
+
+}
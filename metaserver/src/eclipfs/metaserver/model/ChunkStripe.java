@@ -0,0 +1,201 @@
+package eclipfs.metaserver.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.crypto.codec.Hex;
+
+import eclipfs.metaserver.Database;
+
+/**
+ * Erasure coded layout of a chunk. Instead of full copies on chunk_node, the chunk is stored
+ * as data and parity shards, each on a different node.
+ */
+public class ChunkStripe {
+
+	private final long chunkId;
+	private final int dataShards;
+	private final int parityShards;
+	private final long size;
+	private final List<Shard> shards;
+
+	private ChunkStripe(final ResultSet result, final List<Shard> shards) throws SQLException {
+		this.chunkId = result.getLong("chunk");
+		this.dataShards = result.getInt("data_shards");
+		this.parityShards = result.getInt("parity_shards");
+		this.size = result.getLong("size");
+		this.shards = shards;
+	}
+
+	public long getChunkId() {
+		return this.chunkId;
+	}
+
+	public int getDataShards() {
+		return this.dataShards;
+	}
+
+	public int getParityShards() {
+		return this.parityShards;
+	}
+
+	/**
+	 * @return Size of the original chunk data, without padding
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * @return Shards ordered by index. Shards that have been lost entirely are not included.
+	 */
+	public List<Shard> getShards() {
+		return this.shards;
+	}
+
+	public static Optional<ChunkStripe> byChunk(final long chunkId) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement stripeQuery = conn.prepareStatement("SELECT * FROM \"chunk_stripe\" WHERE chunk=?");
+				PreparedStatement shardQuery = conn.prepareStatement("SELECT * FROM \"chunk_shard\" WHERE chunk=? ORDER BY index")) {
+			stripeQuery.setLong(1, chunkId);
+			final ResultSet result = stripeQuery.executeQuery();
+			if (!result.next()) {
+				return Optional.empty();
+			}
+
+			shardQuery.setLong(1, chunkId);
+			final ResultSet shardResult = shardQuery.executeQuery();
+			final List<Shard> shards = new ArrayList<>();
+			while (shardResult.next()) {
+				shards.add(new Shard(shardResult));
+			}
+			return Optional.of(new ChunkStripe(result, Collections.unmodifiableList(shards)));
+		}
+	}
+
+	public static long allocateShardId() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT nextval('chunk_id_seq')")) {
+			final ResultSet result = query.executeQuery();
+			result.next();
+			return result.getLong(1);
+		}
+	}
+
+	/**
+	 * Register an erasure coded chunk. Full copies of the chunk are removed from chunk_node, so nodes
+	 * delete them during garbage collection.
+	 * @param shardIds Shard ids, see {@link #allocateShardId()}, in order of shard index
+	 * @param nodes Nodes shards have been written to, in order of shard index
+	 */
+	public static void create(final Chunk chunk, final int dataShards, final int parityShards, final long size,
+			final long[] shardIds, final List<? extends Node> nodes, final byte[][] checksums) throws SQLException {
+		Validate.notNull(chunk, "Chunk is null");
+		Validate.isTrue(shardIds.length == dataShards + parityShards, "Shard id count must equal shard count");
+		Validate.isTrue(nodes.size() == shardIds.length && checksums.length == shardIds.length, "Node and checksum count must equal shard count");
+
+		try (Connection conn = Database.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement stripe = conn.prepareStatement("INSERT INTO \"chunk_stripe\" (chunk, data_shards, parity_shards, size) VALUES (?,?,?,?)");
+					PreparedStatement shard = conn.prepareStatement("INSERT INTO \"chunk_shard\" (id, chunk, index, node, checksum) VALUES (?,?,?,?,?)");
+					PreparedStatement removeCopies = conn.prepareStatement("DELETE FROM \"chunk_node\" WHERE chunk=?")) {
+				stripe.setLong(1, chunk.getId());
+				stripe.setInt(2, dataShards);
+				stripe.setInt(3, parityShards);
+				stripe.setLong(4, size);
+				stripe.execute();
+
+				for (int i = 0; i < shardIds.length; i++) {
+					shard.setLong(1, shardIds[i]);
+					shard.setLong(2, chunk.getId());
+					shard.setInt(3, i);
+					shard.setLong(4, nodes.get(i).getId());
+					shard.setBytes(5, checksums[i]);
+					shard.addBatch();
+				}
+				shard.executeBatch();
+
+				removeCopies.setLong(1, chunk.getId());
+				removeCopies.execute();
+				conn.commit();
+			} catch (final SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * Register a shard that was lost entirely, after it has been rebuilt on a node
+	 */
+	public static void addShard(final long chunkId, final long shardId, final int index, final Node node, final byte[] checksum) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("INSERT INTO \"chunk_shard\" (id, chunk, index, node, checksum) VALUES (?,?,?,?,?)")) {
+			query.setLong(1, shardId);
+			query.setLong(2, chunkId);
+			query.setInt(3, index);
+			query.setLong(4, node.getId());
+			query.setBytes(5, checksum);
+			query.execute();
+		}
+	}
+
+	public static class Shard {
+
+		private final long id;
+		private final int index;
+		private final long nodeId;
+		private final byte[] checksum;
+
+		private Shard(final ResultSet result) throws SQLException {
+			this.id = result.getLong("id");
+			this.index = result.getInt("index");
+			this.nodeId = result.getLong("node");
+			this.checksum = result.getBytes("checksum");
+		}
+
+		public long getId() {
+			return this.id;
+		}
+
+		public int getIndex() {
+			return this.index;
+		}
+
+		public long getNodeId() {
+			return this.nodeId;
+		}
+
+		public byte[] getChecksum() {
+			return this.checksum;
+		}
+
+		public String getChecksumHex() {
+			return new String(Hex.encode(this.getChecksum()));
+		}
+
+		/**
+		 * Record that this shard has been rebuilt on a different node. The copy on the old node,
+		 * if it still exists, is added to the deletion journal of that node.
+		 */
+		public void moveTo(final Node node) throws SQLException {
+			try (Connection conn = Database.getConnection();
+					PreparedStatement query = conn.prepareStatement("UPDATE \"chunk_shard\" SET node=?, registered=DEFAULT WHERE id=?")) {
+				query.setLong(1, node.getId());
+				query.setLong(2, this.getId());
+				query.execute();
+			}
+		}
+
+	}
+
+}
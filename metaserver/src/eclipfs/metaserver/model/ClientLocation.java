@@ -0,0 +1,80 @@
+package eclipfs.metaserver.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import eclipfs.metaserver.Database;
+
+/**
+ * Location of clients in an IP range, used when a client does not send its location
+ */
+public class ClientLocation {
+
+	private final long id;
+	private final String cidr;
+	private final String location;
+
+	private ClientLocation(final ResultSet result) throws SQLException {
+		Validate.notNull(result, "result is null");
+		this.id = result.getLong("id");
+		this.cidr = result.getString("cidr");
+		this.location = result.getString("location");
+	}
+
+	public long getId() {
+		return this.id;
+	}
+
+	public String getCidr() {
+		return this.cidr;
+	}
+
+	public String getLocation() {
+		return this.location;
+	}
+
+	public static List<ClientLocation> list() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM \"client_location\" ORDER BY cidr")) {
+			final ResultSet result = query.executeQuery();
+			final List<ClientLocation> locations = new ArrayList<>();
+			while (result.next()) {
+				locations.add(new ClientLocation(result));
+			}
+			return Collections.unmodifiableList(locations);
+		}
+	}
+
+	/**
+	 * @param cidr IPv4 or IPv6 range in CIDR notation, for example 10.1.0.0/16
+	 */
+	public static ClientLocation create(final String cidr, final String location) throws SQLException {
+		Validate.notNull(cidr, "CIDR is null");
+		Validate.notNull(location, "Location is null");
+
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("INSERT INTO \"client_location\" (cidr, location) VALUES (?::cidr, ?) RETURNING *")) {
+			query.setString(1, cidr);
+			query.setString(2, location);
+			final ResultSet result = query.executeQuery();
+			result.next();
+			return new ClientLocation(result);
+		}
+	}
+
+	public static boolean delete(final long id) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("DELETE FROM \"client_location\" WHERE id=?")) {
+			query.setLong(1, id);
+			return query.executeUpdate() > 0;
+		}
+	}
+
+}
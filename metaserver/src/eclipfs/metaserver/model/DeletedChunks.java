@@ -0,0 +1,80 @@
+package eclipfs.metaserver.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import eclipfs.metaserver.Database;
+
+/**
+ * Batch from the deletion journal of a node: copies and shards removed from the node, which it can
+ * delete from disk. Rows are added by database triggers on chunk_node and chunk_shard. A node reads
+ * the journal with the cursor of the previous batch, which also removes the rows it has processed.
+ */
+public class DeletedChunks {
+
+	private final long cursor;
+	private final List<Long> chunkIds;
+
+	private DeletedChunks(final long cursor, final List<Long> chunkIds) {
+		this.cursor = cursor;
+		this.chunkIds = chunkIds;
+	}
+
+	/**
+	 * @return Cursor to send with the next request, after deleting {@link #getChunkIds()}
+	 */
+	public long getCursor() {
+		return this.cursor;
+	}
+
+	public List<Long> getChunkIds() {
+		return Collections.unmodifiableList(this.chunkIds);
+	}
+
+	/**
+	 * @param cursor Sequence number of the last journal entry the node has processed, or 0
+	 * @param limit Maximum number of journal entries to return
+	 */
+	public static DeletedChunks read(final Node node, final long cursor, final int limit) throws SQLException {
+		Validate.notNull(node, "node is null");
+		Validate.isTrue(cursor >= 0, "cursor must not be negative");
+		Validate.isTrue(limit > 0, "limit must be positive");
+		try (Connection conn = Database.getConnection()) {
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_deleted WHERE node=? AND seq <= ?")) {
+				query.setLong(1, node.getId());
+				query.setLong(2, cursor);
+				query.execute();
+			}
+
+			// A copy may have been added to the node again after it was removed, it must not be deleted
+			try (PreparedStatement query = conn.prepareStatement("SELECT seq, chunk, \n"
+					+ "	EXISTS (SELECT 1 FROM chunk_node WHERE chunk_node.chunk=chunk_deleted.chunk AND chunk_node.node=chunk_deleted.node) \n"
+					+ "	OR EXISTS (SELECT 1 FROM chunk_shard WHERE chunk_shard.id=chunk_deleted.chunk AND chunk_shard.node=chunk_deleted.node) \n"
+					+ "FROM chunk_deleted \n"
+					+ "WHERE node=? AND seq > ? \n"
+					+ "ORDER BY seq LIMIT ?")) {
+				query.setLong(1, node.getId());
+				query.setLong(2, cursor);
+				query.setInt(3, limit);
+				final ResultSet result = query.executeQuery();
+				long newCursor = cursor;
+				final List<Long> chunkIds = new ArrayList<>();
+				while (result.next()) {
+					newCursor = result.getLong(1);
+					if (!result.getBoolean(3)) {
+						chunkIds.add(result.getLong(2));
+					}
+				}
+				return new DeletedChunks(newCursor, chunkIds);
+			}
+		}
+	}
+
+}
@@ -9,6 +9,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import org.apache.commons.lang3.Validate;
+
 import com.google.gson.stream.JsonWriter;
 
 import eclipfs.metaserver.Database;
@@ -51,7 +53,7 @@ public class Directory extends Inode {
 	public boolean contains(final String name) throws SQLException {
 		Validation.validateFileDirectoryName(name);
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT id FROM inode WHERE parent=? AND name=?")) {
+				PreparedStatement query = conn.prepareStatement("SELECT id FROM inode WHERE parent=? AND name=? AND id <> parent")) {
 			query.setLong(1, this.getId());
 			query.setString(2, name);
 			return query.executeQuery().next();
@@ -61,7 +63,7 @@ public class Directory extends Inode {
 	public Optional<Inode> getChild(final String name) throws SQLException{
 		Validation.validateFileDirectoryName(name);
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT * FROM inode WHERE parent=? AND name=?")) {
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM inode WHERE parent=? AND name=? AND id <> parent")) {
 			query.setLong(1, this.getId());
 			query.setString(2, name);
 			return optInodeFromResult(query.executeQuery());
@@ -70,9 +72,8 @@ public class Directory extends Inode {
 
 	public List<Directory> listDirectories() throws SQLException {
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT * FROM inode WHERE parent=? AND is_file='False' AND id <> ?")) {
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM inode WHERE parent=? AND is_file='False' AND id <> parent")) {
 			query.setLong(1, this.getId());
-			query.setLong(2, Inode.ROOT_INODE);
 			final List<Directory> directories = new ArrayList<>();
 			final ResultSet result = query.executeQuery();
 			while (result.next()) {
@@ -89,11 +90,15 @@ public class Directory extends Inode {
 		}
 
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("INSERT INTO inode (name,parent,is_file,ctime,mtime,size) VALUES (?,?,'False',?,?,0) RETURNING *")) {
+				PreparedStatement query = conn.prepareStatement("INSERT INTO inode (name,parent,is_file,ctime,mtime,size,replication_goal,erasure_data,erasure_parity,striped) VALUES (?,?,'False',?,?,0,?,?,?,?) RETURNING *")) {
 			query.setString(1, name);
 			query.setLong(2, this.getId());
 			query.setLong(3, System.currentTimeMillis());
 			query.setLong(4, System.currentTimeMillis());
+			query.setInt(5, this.getReplicationGoal());
+			query.setInt(6, this.getErasureDataShards());
+			query.setInt(7, this.getErasureParityShards());
+			query.setBoolean(8, this.isStriped());
 			final ResultSet result = query.executeQuery();
 			result.next();
 			return new Directory(result);
@@ -120,23 +125,80 @@ public class Directory extends Inode {
 		}
 
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("INSERT INTO inode (name,parent,is_file,ctime,mtime,chunk_size,size) VALUES (?,?,'True',?,?,?,0) RETURNING *")) {
+				PreparedStatement query = conn.prepareStatement("INSERT INTO inode (name,parent,is_file,ctime,mtime,chunk_size,size,replication_goal,erasure_data,erasure_parity,striped) VALUES (?,?,'True',?,?,?,0,?,?,?,?) RETURNING *")) {
 			query.setString(1, name);
 			query.setLong(2, this.getId());
 			query.setLong(3, System.currentTimeMillis());
 			query.setLong(4, System.currentTimeMillis());
 			query.setInt(5, MetaServer.getDefaultChunkSize());
+			query.setInt(6, this.getReplicationGoal());
+			query.setInt(7, this.getErasureDataShards());
+			query.setInt(8, this.getErasureParityShards());
+			query.setBoolean(9, this.isStriped());
 			final ResultSet result = query.executeQuery();
 			result.next();
 			return new File(result);
 		}
 	}
 
+	/**
+	 * Create a copy of a file without copying data. The copy has the same size, chunk size and storage
+	 * settings as the source. Its chunks are deduplicated copies of the source chunks, a write to either
+	 * file replaces a chunk for that file only. Data stays stored until no file refers to it anymore, with
+	 * the highest replication goal of the files that refer to it.
+	 */
+	public File cloneFile(final File source, final String name) throws AlreadyExistsException, SQLException {
+		Validate.notNull(source, "Source is null");
+		Validation.validateFileDirectoryName(name);
+		if (this.contains(name)) {
+			throw new AlreadyExistsException("A file or directory with the name " + name + " already exists.");
+		}
+
+		try (Connection conn = Database.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement createFile = conn.prepareStatement("INSERT INTO inode (name,parent,is_file,ctime,mtime,chunk_size,size,replication_goal,erasure_data,erasure_parity,striped) "
+							+ "SELECT ?,?,'True',?,?,chunk_size,size,replication_goal,erasure_data,erasure_parity,striped FROM inode WHERE id=? RETURNING *");
+					// The source chunks and the chunks storing their data must not be replaced or deleted while they are being copied
+					PreparedStatement lockChunks = conn.prepareStatement("SELECT 1 FROM \"chunk\" WHERE id IN ( \n"
+							+ "	SELECT id FROM chunk WHERE file=? \n"
+							+ "	UNION \n"
+							+ "	SELECT data FROM chunk WHERE file=? \n"
+							+ ") FOR SHARE");
+					PreparedStatement cloneChunks = conn.prepareStatement("INSERT INTO \"chunk\" (file, index, checksum, content_hash, data) "
+							+ "SELECT ?, index, checksum, content_hash, COALESCE(data, id) FROM \"chunk\" WHERE file=?")) {
+				createFile.setString(1, name);
+				createFile.setLong(2, this.getId());
+				createFile.setLong(3, System.currentTimeMillis());
+				createFile.setLong(4, System.currentTimeMillis());
+				createFile.setLong(5, source.getId());
+				final ResultSet result = createFile.executeQuery();
+				if (!result.next()) {
+					throw new IllegalStateException("Source file " + source.getId() + " was deleted");
+				}
+				final File file = new File(result);
+
+				lockChunks.setLong(1, source.getId());
+				lockChunks.setLong(2, source.getId());
+				lockChunks.execute();
+
+				cloneChunks.setLong(1, file.getId());
+				cloneChunks.setLong(2, source.getId());
+				cloneChunks.execute();
+				conn.commit();
+				return file;
+			} catch (final SQLException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+
 	public List<Inode> list() throws SQLException {
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT * FROM inode WHERE parent=? AND id <> ?")) {
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM inode WHERE parent=? AND id <> parent")) {
 			query.setLong(1, this.getId());
-			query.setLong(2, Inode.ROOT_INODE);
 			final ResultSet result = query.executeQuery();
 			final List<Inode> children = new ArrayList<>();
 			while (result.next()) {
@@ -154,9 +216,8 @@ public class Directory extends Inode {
 	public void writeEntriesAsJsonDictionary(final JsonWriter writer) throws SQLException, IOException {
 		writer.beginObject();
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT id,name FROM inode WHERE parent=? AND id <> ?")) {
+				PreparedStatement query = conn.prepareStatement("SELECT id,name FROM inode WHERE parent=? AND id <> parent")) {
 			query.setLong(1, this.getId());
-			query.setLong(2, Inode.ROOT_INODE);
 			final ResultSet result = query.executeQuery();
 			while (result.next()) {
 				writer.name(result.getString("name")).value(result.getInt("id"));
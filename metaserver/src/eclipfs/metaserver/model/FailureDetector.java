@@ -0,0 +1,72 @@
+package eclipfs.metaserver.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import eclipfs.metaserver.Tunables;
+
+/**
+ * Phi accrual failure detector, based on the intervals between node announcements.
+ * Phi is the -log10 of the probability that the next announcement is still going
+ * to arrive, given how long it has been since the last one.
+ */
+class FailureDetector {
+
+	private static final int SAMPLE_SIZE = 100;
+	private static final double MIN_STD_DEV = 500;
+
+	private final Deque<Long> intervals = new ArrayDeque<>(SAMPLE_SIZE);
+	private long intervalSum = 0;
+	private long intervalSquaredSum = 0;
+	private long lastHeartbeat;
+
+	FailureDetector(final long lastHeartbeat) {
+		this.lastHeartbeat = lastHeartbeat;
+	}
+
+	synchronized void heartbeat(final long time) {
+		final long interval = time - this.lastHeartbeat;
+		this.lastHeartbeat = time;
+		if (interval > Tunables.NODE_OFFLINE_TIMEOUT) {
+			// Node was offline, this is not a normal interval between announcements
+			return;
+		}
+		if (this.intervals.size() >= SAMPLE_SIZE) {
+			final long removed = this.intervals.removeFirst();
+			this.intervalSum -= removed;
+			this.intervalSquaredSum -= removed * removed;
+		}
+		this.intervals.addLast(interval);
+		this.intervalSum += interval;
+		this.intervalSquaredSum += interval * interval;
+	}
+
+	synchronized long getLastHeartbeat() {
+		return this.lastHeartbeat;
+	}
+
+	synchronized double phi(final long now) {
+		final double mean;
+		final double stdDev;
+		if (this.intervals.isEmpty()) {
+			// No history yet, assume the node announces as expected
+			mean = Tunables.NODE_ANNOUNCE_INTERVAL;
+			stdDev = mean / 4;
+		} else {
+			final int n = this.intervals.size();
+			mean = (double) this.intervalSum / n;
+			final double variance = (double) this.intervalSquaredSum / n - mean * mean;
+			stdDev = Math.max(MIN_STD_DEV, Math.sqrt(Math.max(0, variance)));
+		}
+
+		// Logistic approximation of the normal cumulative distribution function
+		final double y = (now - this.lastHeartbeat - mean) / stdDev;
+		final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (now - this.lastHeartbeat > mean) {
+			return -Math.log10(e / (1 + e));
+		} else {
+			return -Math.log10(1 - 1 / (1 + e));
+		}
+	}
+
+}
@@ -11,6 +11,7 @@ import java.util.Optional;
 import org.apache.commons.lang3.Validate;
 
 import eclipfs.metaserver.Database;
+import eclipfs.metaserver.Tunables;
 
 public class File extends Inode {
 
@@ -36,7 +37,10 @@ public class File extends Inode {
 		}
 	}
 
-	public WritingChunk createChunk(final int index, final byte[] checksum, final long size) throws SQLException {
+	/**
+	 * @param contentHash Hash of the chunk content, used for deduplication, or null
+	 */
+	public WritingChunk createChunk(final int index, final byte[] checksum, final byte[] contentHash, final long size) throws SQLException {
 		Validate.isTrue(index >= 0, "Chunk index must be positive");
 		Validate.notNull(checksum);
 
@@ -46,14 +50,16 @@ public class File extends Inode {
 			try (Connection conn = Database.getConnection();
 					PreparedStatement query = conn.prepareStatement(
 							"INSERT INTO \"chunk_writing\""
-							+ "(file, index, checksum, time) VALUES (?,?,?,?) "
-							+ "ON CONFLICT(file, index) DO UPDATE SET time=? "
+							+ "(file, index, checksum, content_hash, time) VALUES (?,?,?,?,?) "
+							+ "ON CONFLICT(file, index) DO UPDATE SET time=?, content_hash=? "
 							+ "RETURNING *")) {
 				query.setLong(1, this.getId());
 				query.setInt(2, index);
 				query.setBytes(3, checksum);
-				query.setLong(4, System.currentTimeMillis() / 1000);
+				query.setBytes(4, contentHash);
 				query.setLong(5, System.currentTimeMillis() / 1000);
+				query.setLong(6, System.currentTimeMillis() / 1000);
+				query.setBytes(7, contentHash);
 //				query.setString(5, RandomStringUtils.randomAlphanumeric(128));
 				final ResultSet result = query.executeQuery();
 				result.next();
@@ -62,6 +68,74 @@ public class File extends Inode {
 		}
 	}
 
+	/**
+	 * Replace the chunk at the given index by a deduplicated copy of another chunk, which stores the data
+	 * @return Created chunk, or empty if the data chunk has been deleted in the meantime
+	 */
+	public Optional<Chunk> createDeduplicatedChunk(final int index, final Chunk dataChunk) throws SQLException {
+		Validate.isTrue(index >= 0, "Chunk index must be positive");
+		Validate.notNull(dataChunk, "Data chunk is null");
+		Validate.isTrue(!dataChunk.isDeduplicated(), "Data chunk must store its own data");
+
+		// The data chunk is locked until commit, a concurrent delete then waits and its trigger sees the new copy
+		return replaceChunk(index, "INSERT INTO \"chunk\" (file, index, checksum, content_hash, data) "
+				+ "SELECT ?, ?, checksum, content_hash, id FROM \"chunk\" WHERE id=? FOR KEY SHARE RETURNING *", dataChunk.getId());
+	}
+
+	/**
+	 * Delete the chunk at the given index and insert its replacement in a single transaction. If the insert
+	 * returns no row, the transaction is rolled back so the existing chunk is kept.
+	 * @param insertSql Insert statement returning the new chunk, with the file id and index as its first two parameters
+	 * @param parameters Remaining parameters of the insert statement
+	 */
+	private Optional<Chunk> replaceChunk(final int index, final String insertSql, final Object... parameters) throws SQLException {
+		synchronized(Chunk.class) {
+			try (Connection conn = Database.getConnection()) {
+				conn.setAutoCommit(false);
+				try {
+					try (PreparedStatement query = conn.prepareStatement("DELETE FROM \"chunk\" WHERE file=? AND index=?")) {
+						query.setLong(1, this.getId());
+						query.setInt(2, index);
+						query.execute();
+					}
+					try (PreparedStatement query = conn.prepareStatement(insertSql)) {
+						query.setLong(1, this.getId());
+						query.setInt(2, index);
+						for (int i = 0; i < parameters.length; i++) {
+							query.setObject(i + 3, parameters[i]);
+						}
+						final ResultSet result = query.executeQuery();
+						if (!result.next()) {
+							conn.rollback();
+							return Optional.empty();
+						}
+						final Chunk chunk = new Chunk(this, result);
+						conn.commit();
+						return Optional.of(chunk);
+					}
+				} catch (SQLException | RuntimeException e) {
+					conn.rollback();
+					throw e;
+				} finally {
+					conn.setAutoCommit(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the chunk at the given index by a chunk with its data stored in the database, see {@link Tunables#INLINE_MAX_SIZE}
+	 * @param data Encrypted chunk data
+	 */
+	public Chunk createInlineChunk(final int index, final byte[] checksum, final byte[] data) throws SQLException {
+		Validate.isTrue(index >= 0, "Chunk index must be positive");
+		Validate.notNull(checksum, "Checksum is null");
+		Validate.isTrue(data.length <= Tunables.INLINE_MAX_SIZE, "Inline data too large");
+
+		return replaceChunk(index, "INSERT INTO \"chunk\" (file, index, checksum, inline_data) VALUES (?,?,?,?) RETURNING *",
+				checksum, data).orElseThrow();
+	}
+
 	public Optional<Chunk> getChunk(final int index) throws SQLException {
 		Validate.isTrue(index >= 0, "Chunk index must be positive");
 
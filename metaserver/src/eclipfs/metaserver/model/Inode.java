@@ -9,6 +9,7 @@ import java.util.Optional;
 import org.apache.commons.lang3.Validate;
 
 import eclipfs.metaserver.Database;
+import eclipfs.metaserver.Tunables;
 import eclipfs.metaserver.Validation;
 import eclipfs.metaserver.exception.AlreadyExistsException;
 import eclipfs.metaserver.exception.NotADirectoryException;
@@ -22,8 +23,14 @@ public abstract class Inode {
 	private String name;
 	private long ctime;
 	private long mtime;
+	private Long atime;
 	protected Integer chunkSize;
 	private long size;
+	private int replicationGoal;
+	private int erasureDataShards;
+	private int erasureParityShards;
+	private boolean striped;
+	private Long snapshot;
 
 	protected Inode(final ResultSet result) throws SQLException {
 		this.id = result.getLong("id");
@@ -31,8 +38,14 @@ public abstract class Inode {
 		this.name = result.getString("name");
 		this.ctime = result.getLong("ctime");
 		this.mtime = result.getLong("mtime");
+		this.atime = result.getObject("atime", Long.class);
 		this.chunkSize = result.getObject("chunk_size", Integer.class);
 		this.size = result.getLong("size");
+		this.replicationGoal = result.getInt("replication_goal");
+		this.erasureDataShards = result.getInt("erasure_data");
+		this.erasureParityShards = result.getInt("erasure_parity");
+		this.striped = result.getBoolean("striped");
+		this.snapshot = result.getObject("snapshot", Long.class);
 	}
 
 	public abstract boolean isFile();
@@ -46,6 +59,13 @@ public abstract class Inode {
 		return this.getId() == ROOT_INODE;
 	}
 
+	/**
+	 * @return Whether this inode is part of a snapshot, snapshots are read-only
+	 */
+	public boolean isSnapshot() {
+		return this.snapshot != null;
+	}
+
 	public final long getParentId() {
 		return this.parentId;
 	}
@@ -90,6 +110,31 @@ public abstract class Inode {
 		}
 	}
 
+	/**
+	 * @return Time of last read, or empty if never read since access times are tracked
+	 */
+	public final Optional<Long> getAccessTime() {
+		return Optional.ofNullable(this.atime);
+	}
+
+	/**
+	 * Record a read of this inode. Like relatime, the access time is only written when it is older than
+	 * {@link Tunables#TIERING_ATIME_RESOLUTION}, so reads don't cause a database write every time.
+	 */
+	public final void touchAccessTime() throws SQLException {
+		final long now = System.currentTimeMillis();
+		if (this.atime != null && now - this.atime < Tunables.TIERING_ATIME_RESOLUTION) {
+			return;
+		}
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE inode SET atime=? WHERE id=?")) {
+			query.setLong(1, now);
+			query.setLong(2, this.getId());
+			query.execute();
+			this.atime = now;
+		}
+	}
+
 	public long getSize() {
 		return this.size;
 	}
@@ -104,6 +149,92 @@ public abstract class Inode {
 		}
 	}
 
+	/**
+	 * @return Number of locations chunks of this file, or of new files in this directory, should be stored in
+	 */
+	public int getReplicationGoal() {
+		return this.replicationGoal;
+	}
+
+	/**
+	 * Set replication goal for this inode. For directories, the goal is also set for all files and
+	 * directories inside it. New inodes inherit the replication goal of their parent directory.
+	 * @return Number of inodes changed
+	 */
+	public int setReplicationGoal(final int replicationGoal) throws SQLException {
+		Validate.inclusiveBetween(1, Tunables.REPLICATION_GOAL_MAX, replicationGoal, "Replication goal must be between 1 and " + Tunables.REPLICATION_GOAL_MAX);
+		final int changed = updateTree("replication_goal=?", replicationGoal);
+		this.replicationGoal = replicationGoal;
+		return changed;
+	}
+
+	public boolean isErasureCoded() {
+		return this.erasureDataShards > 0;
+	}
+
+	public int getErasureDataShards() {
+		return this.erasureDataShards;
+	}
+
+	public int getErasureParityShards() {
+		return this.erasureParityShards;
+	}
+
+	/**
+	 * Set erasure coding layout for this inode and, for directories, everything inside it. Chunks are
+	 * first written as normal copies, and encoded later by replication. Chunks that have already
+	 * been encoded keep their layout. Use 0 data and parity shards to disable erasure coding.
+	 * @return Number of inodes changed
+	 */
+	public int setErasureCoding(final int dataShards, final int parityShards) throws SQLException {
+		if (dataShards != 0 || parityShards != 0) {
+			Validate.isTrue(dataShards > 0 && parityShards > 0, "Data and parity shard count must be > 0");
+			Validate.isTrue(dataShards + parityShards <= Tunables.ERASURE_MAX_SHARDS, "Total shard count must be <= " + Tunables.ERASURE_MAX_SHARDS);
+		}
+		final int changed = updateTree("erasure_data=?, erasure_parity=?", dataShards, parityShards);
+		this.erasureDataShards = dataShards;
+		this.erasureParityShards = parityShards;
+		return changed;
+	}
+
+	/**
+	 * @return Whether consecutive chunks of this file, or of new files in this directory, are spread over different nodes
+	 */
+	public boolean isStriped() {
+		return this.striped;
+	}
+
+	/**
+	 * Enable or disable striped placement for this inode and, for directories, everything inside it.
+	 * Only affects chunks written and read after the change.
+	 * @return Number of inodes changed
+	 */
+	public int setStriped(final boolean striped) throws SQLException {
+		final int changed = updateTree("striped=?", striped);
+		this.striped = striped;
+		return changed;
+	}
+
+	/**
+	 * Update a column for this inode and all inodes below it
+	 */
+	private int updateTree(final String set, final Object... values) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("WITH RECURSIVE tree AS (\n"
+						+ "	SELECT id FROM inode WHERE id=? \n"
+						+ "	UNION \n"
+						+ "	SELECT inode.id FROM inode JOIN tree ON inode.parent = tree.id WHERE inode.id <> ? \n"
+						+ ") \n"
+						+ "UPDATE inode SET " + set + " WHERE id IN (SELECT id FROM tree)")) {
+			query.setLong(1, this.getId());
+			query.setLong(2, ROOT_INODE);
+			for (int i = 0; i < values.length; i++) {
+				query.setObject(3 + i, values[i]);
+			}
+			return query.executeUpdate();
+		}
+	}
+
 	public String getAbsolutePath() throws SQLException {
 		if (this.id == 0) {
 			return "";
@@ -113,6 +244,10 @@ public abstract class Inode {
 		Inode inode = this;
 		while (!inode.isRootDirectory()) {
 			path = "/" + inode.getName() + path;
+			if (inode.getParentId() == inode.getId()) {
+				// Root of a snapshot
+				break;
+			}
 			inode = inode.getParent();
 		}
 		return path;
@@ -155,6 +290,28 @@ public abstract class Inode {
 		}
 	}
 
+	// Stored bytes per byte of file data, for erasure coded files (data + parity) / data, otherwise the replication goal
+	static final String STORAGE_OVERHEAD_SQL = "CASE WHEN erasure_data > 0 THEN (erasure_data + erasure_parity)::float8 / erasure_data ELSE replication_goal END";
+
+	/**
+	 * @return Average storage overhead of all data, weighted by size: the replication goal, or
+	 * (data + parity) / data for erasure coded files. Shared data is counted once, by the chunk that
+	 * stores it. Replication goal of the root directory if there is no data.
+	 */
+	public static double getAverageStorageOverhead() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT SUM(" + Chunk.SIZE_ESTIMATE_SQL + " * " + STORAGE_OVERHEAD_SQL + ") / NULLIF(SUM(" + Chunk.SIZE_ESTIMATE_SQL + "), 0) \n"
+						+ "FROM chunk JOIN inode ON chunk.file=inode.id WHERE chunk.data IS NULL AND chunk.inline_data IS NULL")) {
+			final ResultSet result = query.executeQuery();
+			result.next();
+			final double average = result.getDouble(1);
+			if (result.wasNull()) {
+				return getRootInode().getReplicationGoal();
+			}
+			return average;
+		}
+	}
+
 	public static Optional<Inode> byId(final long id) throws SQLException {
 		Validate.isTrue(id >= 0, "inode must be >= 0");
 		try (Connection conn = Database.getConnection();
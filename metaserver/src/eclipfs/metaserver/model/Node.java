@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -22,6 +23,9 @@ public class Node {
 	protected final String token;
 	protected final String name;
 	protected final String location;
+	protected NodeTier tier;
+	protected Long drainSince;
+	protected long drainChunks;
 
 	private Node(final ResultSet result) throws SQLException {
 		Validate.notNull(result, "result is null");
@@ -29,17 +33,22 @@ public class Node {
 		this.token = result.getString("token");
 		this.name = result.getString("name");
 		this.location = result.getString("location");
+		this.tier = NodeTier.fromName(result.getString("tier"));
+		this.drainSince = result.getObject("drain_since", Long.class);
+		this.drainChunks = result.getLong("drain_chunks");
 	}
 
-	protected Node(final long id, final String token, final String location, final String name) {
+	protected Node(final long id, final String token, final String location, final String name, final NodeTier tier) {
 		Validate.isTrue(id >= 0, "Id is negative");
 		Validate.notNull(token, "Token is null");
 		Validate.notNull(location, "Location is null");
 		Validate.notNull(name, "Name is null");
+		Validate.notNull(tier, "Tier is null");
 		this.id = id;
 		this.token = token;
 		this.name = name;
 		this.location = location;
+		this.tier = tier;
 	}
 
 	public long getId() {
@@ -73,6 +82,108 @@ public class Node {
 		return this.location;
 	}
 
+	public NodeTier getTier() {
+		return this.tier;
+	}
+
+	public void setTier(final NodeTier tier) throws SQLException {
+		Validate.notNull(tier, "Tier is null");
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE \"node\" SET tier=? WHERE id=?")) {
+			query.setString(1, tier.getName());
+			query.setLong(2, this.getId());
+			query.execute();
+		}
+		this.tier = tier;
+		// Online node is a different object
+		OnlineNode.getOnlineNodeById(this.getId()).ifPresent(n -> n.tier = tier);
+	}
+
+	/**
+	 * A draining node is not used for new chunks, its chunks are replicated to other nodes
+	 * while it keeps serving reads. It can be removed once {@link #getDrainRemainingChunks()} is 0.
+	 */
+	public boolean isDraining() {
+		return this.drainSince != null;
+	}
+
+	public Optional<Long> getDrainStartTime() {
+		return Optional.ofNullable(this.drainSince);
+	}
+
+	/**
+	 * @return Number of chunks that needed to be copied when draining started
+	 */
+	public long getDrainChunkCount() {
+		return this.drainChunks;
+	}
+
+	public void startDrain() throws SQLException {
+		if (this.isDraining()) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE \"node\" SET drain_since=? WHERE id=?")) {
+			query.setLong(1, now);
+			query.setLong(2, this.getId());
+			query.execute();
+		}
+		this.setDrainState(now, 0);
+		final long chunks = this.getDrainRemainingChunks();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE \"node\" SET drain_chunks=? WHERE id=?")) {
+			query.setLong(1, chunks);
+			query.setLong(2, this.getId());
+			query.execute();
+		}
+		this.setDrainState(now, chunks);
+	}
+
+	public void stopDrain() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE \"node\" SET drain_since=NULL, drain_chunks=0 WHERE id=?")) {
+			query.setLong(1, this.getId());
+			query.execute();
+		}
+		this.setDrainState(null, 0);
+	}
+
+	private void setDrainState(final Long drainSince, final long drainChunks) {
+		this.drainSince = drainSince;
+		this.drainChunks = drainChunks;
+		// Online node is a different object
+		OnlineNode.getOnlineNodeById(this.getId()).ifPresent(n -> {
+			n.drainSince = drainSince;
+			n.drainChunks = drainChunks;
+		});
+	}
+
+	/**
+	 * @return Number of chunks on this node that do not yet have enough copies, in different locations, on
+	 * other nodes that are not failed or draining. Shards of erasure coded chunks count as a chunk each.
+	 */
+	public long getDrainRemainingChunks() throws SQLException {
+		final List<Long> excluded = listFailedNodeIds();
+		excluded.addAll(listDrainingNodeIds());
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT \n"
+						+ "	(SELECT COUNT(*) FROM chunk_node \n"
+						+ "		JOIN chunk ON chunk_node.chunk=chunk.id \n"
+						+ "		JOIN inode ON chunk.file=inode.id \n"
+						+ "	WHERE chunk_node.node=? AND chunk_node.temporary_since IS NULL \n"
+						+ "		AND (SELECT COUNT(DISTINCT node.location) FROM chunk_node other JOIN node ON other.node=node.id \n"
+						+ "			WHERE other.chunk=chunk.id AND other.temporary_since IS NULL AND NOT node.id = ANY(?)) < " + Chunk.REPLICATION_GOAL_SQL + ") \n"
+						+ "	+ (SELECT COUNT(*) FROM chunk_shard WHERE node=?)")) {
+			query.setLong(1, this.getId());
+			query.setArray(2, conn.createArrayOf("bigint", excluded.toArray()));
+			query.setLong(3, this.getId());
+			final ResultSet result = query.executeQuery();
+			result.next();
+			return result.getLong(1);
+		}
+	}
+
 	public int getStoredChunkCount() throws SQLException {
 		try (Connection conn = Database.getConnection();
 				PreparedStatement query = conn.prepareStatement("SELECT COUNT(*) FROM chunk_node WHERE node=?")) {
@@ -83,13 +194,25 @@ public class Node {
 		}
 	}
 
-	public boolean hasChunk(final long chunkId) throws SQLException {
+	/**
+	 * @param chunkIds Chunks stored by this node
+	 * @return Chunks that are not registered on this node, as a copy or as a shard
+	 */
+	public List<Long> findGarbage(final long[] chunkIds) throws SQLException {
+		final List<Long> garbage = new ArrayList<>();
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("SELECT * FROM \"chunk_node\" WHERE chunk=? AND node=?")) {
-			query.setLong(1, chunkId);
+				PreparedStatement query = conn.prepareStatement("SELECT c.id FROM unnest(?) AS c(id) \n"
+						+ "WHERE NOT EXISTS (SELECT 1 FROM chunk_node WHERE chunk_node.chunk=c.id AND chunk_node.node=?) \n"
+						+ "	AND NOT EXISTS (SELECT 1 FROM chunk_shard WHERE chunk_shard.id=c.id AND chunk_shard.node=?)")) {
+			query.setArray(1, conn.createArrayOf("bigint", Arrays.stream(chunkIds).boxed().toArray()));
 			query.setLong(2, this.getId());
-			return query.executeQuery().next();
+			query.setLong(3, this.getId());
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				garbage.add(result.getLong(1));
+			}
 		}
+		return garbage;
 	}
 
 	@Override
@@ -110,18 +233,20 @@ public class Node {
 		return Collections.unmodifiableList(nodes);
 	}
 
-	public static Node createNode(final String name, final String location) throws SQLException {
+	public static Node createNode(final String name, final String location, final NodeTier tier) throws SQLException {
 		Validate.notNull(name, "Name is null");
 		Validate.notNull(location, "Location is null");
+		Validate.notNull(tier, "Tier is null");
 
 //		final String token = RandomStringUtils.randomAlphanumeric(128);
 		final String token = RandomStringUtils.randomAlphanumeric(32);
 
 		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("INSERT INTO \"node\" (token, name, location) VALUES (?, ?, ?) RETURNING *")) {
+				PreparedStatement query = conn.prepareStatement("INSERT INTO \"node\" (token, name, location, tier) VALUES (?, ?, ?, ?) RETURNING *")) {
 			query.setString(1, token);
 			query.setString(2, name);
 			query.setString(3, location);
+			query.setString(4, tier.getName());
 			final ResultSet result = query.executeQuery();
 			result.next();
 			return new Node(result);
@@ -131,14 +256,51 @@ public class Node {
 	public static void deleteNode(final Node node) throws SQLException {
 		Validate.notNull(node);
 
-		try (Connection conn = Database.getConnection();
-				PreparedStatement query = conn.prepareStatement("DELETE FROM \"node\" WHERE id=?")) {
-			query.setLong(1, node.getId());
-			query.execute();
+		try (Connection conn = Database.getConnection()) {
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM \"node\" WHERE id=?")) {
+				query.setLong(1, node.getId());
+				query.execute();
+			}
+			// Deleting the node removes its copies, which adds them to the deletion journal
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_deleted WHERE node=?")) {
+				query.setLong(1, node.getId());
+				query.execute();
+			}
+			try (PreparedStatement query = conn.prepareStatement("DELETE FROM chunk_report WHERE node=?")) {
+				query.setLong(1, node.getId());
+				query.execute();
+			}
 		}
 		OnlineNode.removeNode(node);
 	}
 
+	public static List<Long> listFailedNodeIds() throws SQLException {
+		final List<Long> failed = new ArrayList<>();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT id FROM \"node\"")) {
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				final long id = result.getLong(1);
+				if (OnlineNode.isFailed(id)) {
+					failed.add(id);
+				}
+			}
+		}
+		return failed;
+	}
+
+	public static List<Long> listDrainingNodeIds() throws SQLException {
+		final List<Long> draining = new ArrayList<>();
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT id FROM \"node\" WHERE drain_since IS NOT NULL")) {
+			final ResultSet result = query.executeQuery();
+			while (result.next()) {
+				draining.add(result.getLong(1));
+			}
+		}
+		return draining;
+	}
+
 	private static Optional<Node> resultToOptNode(final ResultSet result) throws SQLException {
 		if (result.next()) {
 			return Optional.of(new Node(result));
@@ -0,0 +1,25 @@
+package eclipfs.metaserver.model;
+
+/**
+ * Storage tier of a node. New data is only written to hot nodes, data that has not been
+ * accessed for a long time is moved to archive nodes by tiering.
+ */
+public enum NodeTier {
+
+	HOT,
+	ARCHIVE;
+
+	public String getName() {
+		return this.name().toLowerCase();
+	}
+
+	public static NodeTier fromName(final String name) {
+		for (final NodeTier tier : values()) {
+			if (tier.getName().equals(name)) {
+				return tier;
+			}
+		}
+		throw new IllegalArgumentException("Unknown node tier '" + name + "'");
+	}
+
+}
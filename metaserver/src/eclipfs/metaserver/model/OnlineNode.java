@@ -20,9 +20,14 @@ import java.util.Optional;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 import eclipfs.metaserver.MetaServer;
+import eclipfs.metaserver.ReplicationThrottle;
 import eclipfs.metaserver.TransferType;
 import eclipfs.metaserver.Tunables;
 import xyz.derkades.derkutils.UriBuilder;
@@ -34,6 +39,9 @@ public class OnlineNode extends Node {
 	private static final List<OnlineNode> ONLINE_NODES = new ArrayList<>();
 	private static final Map<Long, OnlineNode> BY_ID = new HashMap<>();
 	private static final Map<String, OnlineNode> BY_TOKEN = new HashMap<>();
+	// Kept when a node goes offline, unlike the maps above
+	private static final Map<Long, FailureDetector> DETECTORS = new HashMap<>();
+	private static final long START_TIME = System.currentTimeMillis();
 
 	private long lastAnnounce = -1;
 	private String version = null;
@@ -42,7 +50,9 @@ public class OnlineNode extends Node {
 	private long freeSpace = -1;
 
 	public OnlineNode(final Node node) {
-		super(node.id, node.token, node.location, node.name);
+		super(node.id, node.token, node.location, node.name, node.tier);
+		this.drainSince = node.drainSince;
+		this.drainChunks = node.drainChunks;
 	}
 
 	public long getLastAnnounce() {
@@ -74,30 +84,44 @@ public class OnlineNode extends Node {
 		return this.storageQuota;
 	}
 
-	public boolean requestReplicate(final Chunk chunk, final OnlineNode source, final Logger logger) {
-		Validate.notNull(chunk, "Chunk is null");
+	/**
+	 * Ask this node to copy chunks from another node, using a single request for all chunks.
+	 * @return Ids of chunks that were successfully replicated
+	 */
+	public List<Long> requestReplicate(final List<Chunk> chunks, final OnlineNode source, final Logger logger) {
+		Validate.notEmpty(chunks, "Chunks is null or empty");
 		Validate.notNull(source, "Source node is null");
 
+		final URI uri = new UriBuilder(this.getAddress())
+				.slash("replicate")
+				.param("node_token", this.getToken())
+				.build();
+
+		final JsonObject json = new JsonObject();
+		json.addProperty("address", source.getAddress().toString());
+		json.addProperty("node_token", source.getToken(TransferType.DOWNLOAD));
+		final JsonArray chunksJson = new JsonArray(chunks.size());
+		for (final Chunk chunk : chunks) {
+			final JsonObject chunkJson = new JsonObject();
+			chunkJson.addProperty("id", chunk.getId());
+			chunkJson.addProperty("checksum", chunk.getChecksumHex());
+			chunksJson.add(chunkJson);
+		}
+		json.add("chunks", chunksJson);
+
+		final HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(json.toString()))
+				.build();
+
 		try {
-			final String sourceAddress = new UriBuilder(source.getAddress())
-					.slash("download")
-					.param("chunk", String.valueOf(chunk.getId()))
-					.param("node_token", source.getToken(TransferType.DOWNLOAD))
-					.toString();
-
-			final URI uri = new UriBuilder(this.getAddress())
-					.slash("replicate")
-					.param("chunk", String.valueOf(chunk.getId()))
-					.param("checksum", chunk.getChecksumHex())
-					.param("node_token", this.getToken())
-					.param("address", sourceAddress)
-					.build();
-
-
-			final HttpRequest request = HttpRequest.newBuilder(uri).POST(BodyPublishers.noBody()).build();
 			final HttpResponse<String> response = MetaServer.getHttpClient().send(request, BodyHandlers.ofString());
 			if (response.statusCode() == 200) {
-				return true;
+				final List<Long> replicated = new ArrayList<>(chunks.size());
+				for (final JsonElement element : JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("replicated")) {
+					replicated.add(element.getAsLong());
+				}
+				return replicated;
 			} else {
 				logger.warn("Received response code {}", response.statusCode());
 				logger.warn("Address: {}", this.address);
@@ -106,13 +130,71 @@ public class OnlineNode extends Node {
 				} else {
 					logger.warn("Response is too long to print");
 				}
-				return false;
+				return Collections.emptyList();
 			}
-		} catch (final IOException | InterruptedException e) {
+		} catch (final IOException | InterruptedException | JsonParseException | IllegalStateException e) {
 			logger.warn("Error", e);
 			logger.warn("Address: {}", this.address);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Download a chunk, or a shard of an erasure coded chunk, from this node
+	 * @return Chunk data, or empty if the node does not have the chunk or the request failed
+	 */
+	public Optional<byte[]> downloadChunk(final long chunkId, final Logger logger) {
+		final URI uri = new UriBuilder(this.getAddress())
+				.slash("download")
+				.param("node_token", this.getToken(TransferType.DOWNLOAD))
+				.param("chunk", String.valueOf(chunkId))
+				.build();
+
+		final HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+
+		try {
+			final HttpResponse<byte[]> response = MetaServer.getHttpClient().send(request, BodyHandlers.ofByteArray());
+			if (response.statusCode() == 200) {
+				return Optional.of(response.body());
+			} else {
+				logger.warn("Received response code {} while downloading chunk {} from {}", response.statusCode(), chunkId, this.address);
+				return Optional.empty();
+			}
+		} catch (final IOException | InterruptedException e) {
+			logger.warn("Error while downloading chunk {} from {}", chunkId, this.address, e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Write a shard of an erasure coded chunk to this node. Uploads to a temporary file first, then
+	 * finalizes it, like a chunk upload by a client. The negated shard id is used as temporary id,
+	 * so it can't collide with writing chunk ids used by clients.
+	 */
+	public boolean uploadShard(final long shardId, final byte[] data, final Logger logger) throws IOException {
+		final URI uri = new UriBuilder(this.getAddress())
+				.slash("upload")
+				.param("node_token", this.getToken(TransferType.UPLOAD))
+				.param("id", String.valueOf(-shardId))
+				.build();
+
+		final HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/octet-stream")
+				.POST(BodyPublishers.ofByteArray(data))
+				.build();
+
+		try {
+			final HttpResponse<String> response = MetaServer.getHttpClient().send(request, BodyHandlers.ofString());
+			if (response.statusCode() != 200) {
+				logger.warn("Received response code {} while uploading shard {} to {}", response.statusCode(), shardId, this.address);
+				return false;
+			}
+		} catch (final InterruptedException e) {
+			logger.warn("Interrupted while uploading shard {} to {}", shardId, this.address);
 			return false;
 		}
+
+		return this.finalizeUpload(-shardId, shardId, logger);
 	}
 
 	public boolean finalizeUpload(final long tempId, final long chunkId, final Logger logger) throws IOException {
@@ -128,7 +210,9 @@ public class OnlineNode extends Node {
 				.build();
 
 		try {
+			final long start = System.nanoTime();
 			final HttpResponse<String> response = MetaServer.getHttpClient().send(request, BodyHandlers.ofString());
+			ReplicationThrottle.recordNodeLatency(System.nanoTime() - start);
 			if (response.statusCode() == 200) {
 				return true;
 			} else {
@@ -147,6 +231,98 @@ public class OnlineNode extends Node {
 		}
 	}
 
+	/**
+	 * Ask the node to read chunks or shards from disk and compare them to their checksums
+	 * @param checksums Checksums by chunk or shard id
+	 * @return Chunks that are corrupt or missing, empty if the request failed
+	 */
+	public Optional<Verification> verifyChunks(final Map<Long, String> checksums, final Logger logger) {
+		Validate.notEmpty(checksums, "Checksums is null or empty");
+
+		final URI uri = new UriBuilder(this.getAddress())
+				.slash("verify")
+				.param("node_token", this.getToken(TransferType.DOWNLOAD))
+				.build();
+
+		final JsonArray chunksJson = new JsonArray(checksums.size());
+		checksums.forEach((id, checksum) -> {
+			final JsonObject chunkJson = new JsonObject();
+			chunkJson.addProperty("id", id);
+			chunkJson.addProperty("checksum", checksum);
+			chunksJson.add(chunkJson);
+		});
+		final JsonObject json = new JsonObject();
+		json.add("chunks", chunksJson);
+
+		final HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(json.toString()))
+				.build();
+
+		try {
+			final HttpResponse<String> response = MetaServer.getHttpClient().send(request, BodyHandlers.ofString());
+			if (response.statusCode() != 200) {
+				logger.warn("Received response code {} while verifying chunks on {}", response.statusCode(), this.address);
+				return Optional.empty();
+			}
+			final JsonObject responseJson = JsonParser.parseString(response.body()).getAsJsonObject();
+			final Verification verification = new Verification();
+			responseJson.getAsJsonArray("corrupt").forEach(e -> verification.corrupt.add(e.getAsLong()));
+			responseJson.getAsJsonArray("missing").forEach(e -> verification.missing.add(e.getAsLong()));
+			return Optional.of(verification);
+		} catch (final IOException | InterruptedException | JsonParseException | IllegalStateException e) {
+			logger.warn("Error while verifying chunks on {}", this.address, e);
+			return Optional.empty();
+		}
+	}
+
+	public static class Verification {
+
+		private final List<Long> corrupt = new ArrayList<>();
+		private final List<Long> missing = new ArrayList<>();
+
+		public List<Long> getCorrupt() {
+			return this.corrupt;
+		}
+
+		public List<Long> getMissing() {
+			return this.missing;
+		}
+
+	}
+
+	/**
+	 * Ask the node to delete temporary files of uploads that were never finalized
+	 */
+	public boolean discardUploads(final List<Long> tempIds, final Logger logger) throws IOException {
+		final URI uri = new UriBuilder(this.getAddress())
+				.slash("discard")
+				.param("node_token", this.getToken(TransferType.UPLOAD))
+				.build();
+
+		final JsonObject json = new JsonObject();
+		final JsonArray ids = new JsonArray();
+		tempIds.forEach(ids::add);
+		json.add("temp_ids", ids);
+
+		final HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(json.toString()))
+				.build();
+
+		try {
+			final HttpResponse<String> response = MetaServer.getHttpClient().send(request, BodyHandlers.ofString());
+			if (response.statusCode() != 200) {
+				logger.warn("Received response code {} while discarding uploads on {}", response.statusCode(), this.address);
+				return false;
+			}
+			return true;
+		} catch (final InterruptedException e) {
+			logger.warn("Interrupted while discarding uploads on {}", this.address);
+			return false;
+		}
+	}
+
 	public static void processNodeAnnounce(final Node node, final URL address,
 			final String version, final long freeSpace, final long storageQuota) throws SQLException {
 		Validate.notNull(node, "Node is null");
@@ -155,6 +331,13 @@ public class OnlineNode extends Node {
 		Validate.inclusiveBetween(0, Long.MAX_VALUE, freeSpace, "Free space must be >= 0");
 		Validate.inclusiveBetween(0, Long.MAX_VALUE, storageQuota, "Storage quota must be >= 0");
 		synchronized(NODE_LOCK) {
+			final long now = System.currentTimeMillis();
+			if (DETECTORS.containsKey(node.getId())) {
+				DETECTORS.get(node.getId()).heartbeat(now);
+			} else {
+				DETECTORS.put(node.getId(), new FailureDetector(now));
+			}
+
 			if (BY_TOKEN.containsKey(node.getToken())) {
 				// Node exists
 				final OnlineNode online = BY_TOKEN.get(node.getToken());
@@ -179,6 +362,32 @@ public class OnlineNode extends Node {
 		}
 	}
 
+	public static double getPhi(final long nodeId) {
+		synchronized(NODE_LOCK) {
+			final FailureDetector detector = DETECTORS.get(nodeId);
+			return detector == null ? Double.POSITIVE_INFINITY : detector.phi(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Whether a node should be considered failed for replication purposes. This is separate from
+	 * being online, an offline node is not used for transfers but its chunks are not replicated
+	 * elsewhere until the grace period has passed, so short network interruptions do not cause
+	 * mass replication.
+	 */
+	public static boolean isFailed(final long nodeId) {
+		synchronized(NODE_LOCK) {
+			final long now = System.currentTimeMillis();
+			final FailureDetector detector = DETECTORS.get(nodeId);
+			// Nodes that have not announced since the metaserver started get the grace period too
+			final long lastHeartbeat = detector == null ? START_TIME : detector.getLastHeartbeat();
+			if (now - lastHeartbeat < Tunables.NODE_FAILURE_GRACE_PERIOD) {
+				return false;
+			}
+			return detector == null || detector.phi(now) >= Tunables.NODE_FAILURE_PHI_THRESHOLD;
+		}
+	}
+
 	static void removeNode(final Node node) {
 		Validate.notNull(node);
 		ONLINE_NODES.remove(node);
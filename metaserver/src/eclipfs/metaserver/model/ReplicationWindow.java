@@ -0,0 +1,151 @@
+package eclipfs.metaserver.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import eclipfs.metaserver.Database;
+import eclipfs.metaserver.Topology;
+
+public class ReplicationWindow {
+
+	public static final String ANY_LOCATION = "*";
+
+	private final long id;
+	private final String sourceLocation;
+	private final String targetLocation;
+	private final int startHour;
+	private final int endHour;
+	private final int concurrency;
+	private final long bandwidth;
+
+	private ReplicationWindow(final ResultSet result) throws SQLException {
+		Validate.notNull(result, "result is null");
+		this.id = result.getLong("id");
+		this.sourceLocation = result.getString("source_location");
+		this.targetLocation = result.getString("target_location");
+		this.startHour = result.getInt("start_hour");
+		this.endHour = result.getInt("end_hour");
+		this.concurrency = result.getInt("concurrency");
+		this.bandwidth = result.getLong("bandwidth");
+	}
+
+	public long getId() {
+		return this.id;
+	}
+
+	public String getSourceLocation() {
+		return this.sourceLocation;
+	}
+
+	public String getTargetLocation() {
+		return this.targetLocation;
+	}
+
+	public int getStartHour() {
+		return this.startHour;
+	}
+
+	public int getEndHour() {
+		return this.endHour;
+	}
+
+	public int getConcurrency() {
+		return this.concurrency;
+	}
+
+	/**
+	 * @return Bandwidth limit in bytes per second, 0 for unlimited
+	 */
+	public long getBandwidth() {
+		return this.bandwidth;
+	}
+
+	/**
+	 * @return Whether this window applies to transfers between the locations. A window location also applies
+	 * to locations inside it, see {@link Topology#contains(String, String)}.
+	 */
+	public boolean matches(final String sourceLocation, final String targetLocation) {
+		return includes(this.sourceLocation, sourceLocation) && includes(this.targetLocation, targetLocation);
+	}
+
+	private static boolean includes(final String windowLocation, final String location) {
+		return windowLocation.equals(ANY_LOCATION) || Topology.contains(windowLocation, location);
+	}
+
+	/**
+	 * @return How specific the locations of this window are, the number of failure domain levels of both
+	 * locations. Wildcards count as 0 levels.
+	 */
+	public int getSpecificity() {
+		return specificity(this.sourceLocation) + specificity(this.targetLocation);
+	}
+
+	private static int specificity(final String windowLocation) {
+		return windowLocation.equals(ANY_LOCATION) ? 0 : Topology.getDepth(windowLocation);
+	}
+
+	public boolean isActive(final int hour) {
+		if (this.startHour == this.endHour) {
+			// Whole day
+			return true;
+		} else if (this.startHour < this.endHour) {
+			return hour >= this.startHour && hour < this.endHour;
+		} else {
+			// Window wraps around midnight
+			return hour >= this.startHour || hour < this.endHour;
+		}
+	}
+
+	public static List<ReplicationWindow> list() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM \"replication_window\" ORDER BY id")) {
+			final ResultSet result = query.executeQuery();
+			final List<ReplicationWindow> windows = new ArrayList<>();
+			while (result.next()) {
+				windows.add(new ReplicationWindow(result));
+			}
+			return Collections.unmodifiableList(windows);
+		}
+	}
+
+	public static ReplicationWindow create(final String sourceLocation, final String targetLocation,
+			final int startHour, final int endHour, final int concurrency, final long bandwidth) throws SQLException {
+		Validate.notNull(sourceLocation, "Source location is null");
+		Validate.notNull(targetLocation, "Target location is null");
+		Validate.inclusiveBetween(0, 23, startHour, "Start hour must be between 0 and 23");
+		Validate.inclusiveBetween(0, 23, endHour, "End hour must be between 0 and 23");
+		Validate.isTrue(concurrency > 0, "Concurrency must be > 0");
+		Validate.isTrue(bandwidth >= 0, "Bandwidth must be >= 0");
+
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("INSERT INTO \"replication_window\" "
+						+ "(source_location, target_location, start_hour, end_hour, concurrency, bandwidth) "
+						+ "VALUES (?, ?, ?, ?, ?, ?) RETURNING *")) {
+			query.setString(1, sourceLocation);
+			query.setString(2, targetLocation);
+			query.setInt(3, startHour);
+			query.setInt(4, endHour);
+			query.setInt(5, concurrency);
+			query.setLong(6, bandwidth);
+			final ResultSet result = query.executeQuery();
+			result.next();
+			return new ReplicationWindow(result);
+		}
+	}
+
+	public static boolean delete(final long id) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("DELETE FROM \"replication_window\" WHERE id=?")) {
+			query.setLong(1, id);
+			return query.executeUpdate() > 0;
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package eclipfs.metaserver.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.commons.lang3.Validate;
+
+import eclipfs.metaserver.Database;
+import eclipfs.metaserver.Validation;
+
+/**
+ * Read-only copy of a directory tree at a point in time. Inodes of the snapshot are copies of the
+ * directory's inodes, with the snapshot column set. Its root is its own parent, so it is not part of
+ * the normal tree, it is browsed starting from the root inode id. Chunks are deduplicated copies of
+ * the directory's chunks, no data is copied.
+ */
+public class Snapshot {
+
+	private final long id;
+	private final long directory;
+	private final String name;
+	private final long root;
+	private final long time;
+
+	private Snapshot(final ResultSet result) throws SQLException {
+		Validate.notNull(result, "result is null");
+		this.id = result.getLong("id");
+		this.directory = result.getLong("directory");
+		this.name = result.getString("name");
+		this.root = result.getLong("root");
+		this.time = result.getLong("time");
+	}
+
+	public long getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return Id of the directory the snapshot was taken of, which may no longer exist
+	 */
+	public long getDirectoryId() {
+		return this.directory;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return Inode id of the root directory of the snapshot
+	 */
+	public long getRootId() {
+		return this.root;
+	}
+
+	public long getTime() {
+		return this.time;
+	}
+
+	/**
+	 * Mark this snapshot as deleted. Its inodes and chunks are removed in the background by
+	 * {@link eclipfs.metaserver.SnapshotDeletion}.
+	 */
+	public void delete() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE \"snapshot\" SET deleted=true WHERE id=?")) {
+			query.setLong(1, this.getId());
+			query.execute();
+		}
+	}
+
+	public static Optional<Snapshot> byId(final long id) throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM \"snapshot\" WHERE id=? AND NOT deleted")) {
+			query.setLong(1, id);
+			final ResultSet result = query.executeQuery();
+			if (result.next()) {
+				return Optional.of(new Snapshot(result));
+			} else {
+				return Optional.empty();
+			}
+		}
+	}
+
+	public static List<Snapshot> list() throws SQLException {
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("SELECT * FROM \"snapshot\" WHERE NOT deleted ORDER BY id")) {
+			final ResultSet result = query.executeQuery();
+			final List<Snapshot> snapshots = new ArrayList<>();
+			while (result.next()) {
+				snapshots.add(new Snapshot(result));
+			}
+			return Collections.unmodifiableList(snapshots);
+		}
+	}
+
+	/**
+	 * Take a snapshot of a directory and everything inside it. The copy is made by a fixed number of
+	 * queries in one transaction, the time it takes depends on the number of inodes and chunks but not
+	 * on the amount of data. Uploads that have not been finalized are not included.
+	 */
+	public static Snapshot create(final Directory directory, final String name) throws SQLException {
+		Validate.notNull(directory, "Directory is null");
+		Validation.validateFileDirectoryName(name);
+		Validate.isTrue(!directory.isSnapshot(), "Cannot take a snapshot of a snapshot");
+
+		try (Connection conn = Database.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement createSnapshot = conn.prepareStatement("INSERT INTO \"snapshot\" (directory, name, time) VALUES (?,?,?) RETURNING id");
+					// New inode ids are allocated up front, so parents can be mapped to their copy
+					PreparedStatement createMap = conn.prepareStatement("CREATE TEMPORARY TABLE \"snapshot_inode\" (old bigint PRIMARY KEY, new bigint NOT NULL) ON COMMIT DROP");
+					PreparedStatement mapInodes = conn.prepareStatement("INSERT INTO snapshot_inode (old, new) \n"
+							+ "WITH RECURSIVE tree AS ( \n"
+							+ "	SELECT id FROM inode WHERE id=? \n"
+							+ "	UNION \n"
+							+ "	SELECT inode.id FROM inode JOIN tree ON inode.parent = tree.id WHERE inode.id <> inode.parent \n"
+							+ ") \n"
+							+ "SELECT id, nextval('inode_id_seq') FROM tree");
+					PreparedStatement copyInodes = conn.prepareStatement("INSERT INTO inode (id,parent,is_file,name,ctime,mtime,atime,chunk_size,size,replication_goal,erasure_data,erasure_parity,striped,snapshot) \n"
+							+ "SELECT m.new, CASE WHEN m.old=? THEN m.new ELSE p.new END, inode.is_file, CASE WHEN m.old=? THEN ? ELSE inode.name END, \n"
+							+ "	inode.ctime, inode.mtime, inode.atime, inode.chunk_size, inode.size, inode.replication_goal, inode.erasure_data, inode.erasure_parity, inode.striped, ? \n"
+							+ "FROM snapshot_inode m \n"
+							+ "	JOIN inode ON inode.id=m.old \n"
+							+ "	LEFT JOIN snapshot_inode p ON p.old=inode.parent");
+					// Chunks and the chunks storing their data must not be replaced or deleted while they are being copied
+					PreparedStatement lockChunks = conn.prepareStatement("SELECT 1 FROM \"chunk\" WHERE id IN ( \n"
+							+ "	SELECT chunk.id FROM chunk JOIN snapshot_inode m ON chunk.file=m.old \n"
+							+ "	UNION \n"
+							+ "	SELECT chunk.data FROM chunk JOIN snapshot_inode m ON chunk.file=m.old \n"
+							+ ") FOR SHARE");
+					PreparedStatement copyChunks = conn.prepareStatement("INSERT INTO \"chunk\" (file, index, checksum, content_hash, data) \n"
+							+ "SELECT m.new, chunk.index, chunk.checksum, chunk.content_hash, COALESCE(chunk.data, chunk.id) \n"
+							+ "FROM chunk JOIN snapshot_inode m ON chunk.file=m.old");
+					PreparedStatement setRoot = conn.prepareStatement("UPDATE \"snapshot\" SET root=(SELECT new FROM snapshot_inode WHERE old=?) WHERE id=? RETURNING *")) {
+				createSnapshot.setLong(1, directory.getId());
+				createSnapshot.setString(2, name);
+				createSnapshot.setLong(3, System.currentTimeMillis());
+				final ResultSet created = createSnapshot.executeQuery();
+				created.next();
+				final long id = created.getLong(1);
+
+				createMap.execute();
+				mapInodes.setLong(1, directory.getId());
+				mapInodes.execute();
+
+				copyInodes.setLong(1, directory.getId());
+				copyInodes.setLong(2, directory.getId());
+				copyInodes.setString(3, name);
+				copyInodes.setLong(4, id);
+				copyInodes.execute();
+
+				lockChunks.execute();
+				copyChunks.execute();
+
+				setRoot.setLong(1, directory.getId());
+				setRoot.setLong(2, id);
+				final ResultSet result = setRoot.executeQuery();
+				result.next();
+				final Snapshot snapshot = new Snapshot(result);
+				conn.commit();
+				return snapshot;
+			} catch (final SQLException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+
+}
@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Optional;
 
 import org.apache.commons.lang3.Validate;
@@ -16,6 +17,7 @@ public class WritingChunk {
 	private final long id;
 	private final int index;
 	private final byte[] checksum;
+	private final byte[] contentHash;
 
 	private final File file;
 
@@ -26,6 +28,7 @@ public class WritingChunk {
 		this.index = result.getInt("index");
 		Validate.isTrue(result.getLong("file") == file.getId());
 		this.checksum = result.getBytes("checksum");
+		this.contentHash = result.getBytes("content_hash");
 //		this.token = result.getString("token");
 		this.file = file;
 	}
@@ -50,6 +53,20 @@ public class WritingChunk {
 		return new String(Hex.encode(this.getChecksum()));
 	}
 
+	/**
+	 * Record nodes the chunk is uploaded to, so their temporary files can be removed if the upload
+	 * is never finalized
+	 */
+	public void addNodes(final List<? extends Node> nodes) throws SQLException {
+		Validate.notNull(nodes, "nodes is null");
+		try (Connection conn = Database.getConnection();
+				PreparedStatement query = conn.prepareStatement("UPDATE chunk_writing SET nodes = nodes || ? WHERE id=?")) {
+			query.setArray(1, conn.createArrayOf("bigint", nodes.stream().map(Node::getId).toArray()));
+			query.setLong(2, this.getId());
+			query.execute();
+		}
+	}
+
 	public Chunk finalizeChunk() throws SQLException {
 		// Do not create multiple chunks at the same time
 		synchronized(Chunk.class) {
@@ -58,10 +75,11 @@ public class WritingChunk {
 					query.setLong(1, this.getId());
 					query.execute();
 				}
-				try (PreparedStatement query = conn.prepareStatement("INSERT INTO \"chunk\" (file, index, checksum) VALUES (?,?,?) RETURNING *")) {
+				try (PreparedStatement query = conn.prepareStatement("INSERT INTO \"chunk\" (file, index, checksum, content_hash) VALUES (?,?,?,?) RETURNING *")) {
 					query.setLong(1, this.getFile().getId());
 					query.setInt(2, this.getIndex());
 					query.setBytes(3, this.getChecksum());
+					query.setBytes(4, this.contentHash);
 					final ResultSet result = query.executeQuery();
 					result.next();
 					return new Chunk(this.getFile(), result);
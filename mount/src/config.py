@@ -22,6 +22,10 @@ REQUEST_BACKOFF_MAX = 1
 
 MAX_WRITE_BUFFER_SIZE = 5
 
+# Files up to this size are stored by the metaserver, without uploading to chunkservers. The
+# metaserver has its own limit, larger files are uploaded to chunkservers anyway.
+INLINE_MAX_SIZE = 4096
+
 # Max time to keep entries in read cache. Note that the read cache doesn't have
 # a maximum size. For example, if you transfer files at 20MB/s with READ_CACHE_TIME=30
 # it will use ~600MB of system memory. Python may use way more, but this
@@ -0,0 +1,111 @@
+"""
+Reed-Solomon decoding for erasure coded chunks. Uses the same code as the
+metaserver (eclipfs.metaserver.erasure.ReedSolomon): GF(2^8) with polynomial
+0x11d and a systematic encoding matrix derived from a Vandermonde matrix.
+"""
+from typing import Dict, List
+
+
+POLYNOMIAL = 0x11d
+
+EXP = [0] * 510
+LOG = [0] * 256
+
+_x = 1
+for _i in range(255):
+    EXP[_i] = _x
+    EXP[_i + 255] = _x
+    LOG[_x] = _i
+    _x <<= 1
+    if _x >= 256:
+        _x ^= POLYNOMIAL
+
+
+def mul(a: int, b: int) -> int:
+    if a == 0 or b == 0:
+        return 0
+    return EXP[LOG[a] + LOG[b]]
+
+
+def div(a: int, b: int) -> int:
+    if a == 0:
+        return 0
+    return EXP[LOG[a] - LOG[b] + 255]
+
+
+def power(a: int, n: int) -> int:
+    if n == 0:
+        return 1
+    if a == 0:
+        return 0
+    return EXP[LOG[a] * n % 255]
+
+
+# Translation table per coefficient, so multiplying a whole shard is a single bytes.translate()
+MUL_TABLES = [bytes(mul(c, b) for b in range(256)) for c in range(256)]
+
+
+def matrix_multiply(a: List[List[int]], b: List[List[int]]) -> List[List[int]]:
+    result = []
+    for row in a:
+        out = []
+        for c in range(len(b[0])):
+            value = 0
+            for i, coefficient in enumerate(row):
+                value ^= mul(coefficient, b[i][c])
+            out.append(value)
+        result.append(out)
+    return result
+
+
+def invert(matrix: List[List[int]]) -> List[List[int]]:
+    size = len(matrix)
+    work = [list(row) + [1 if i == r else 0 for i in range(size)] for r, row in enumerate(matrix)]
+    for c in range(size):
+        if work[c][c] == 0:
+            swap = next((r for r in range(c + 1, size) if work[r][c] != 0), None)
+            if swap is None:
+                raise ValueError('Matrix is singular')
+            work[c], work[swap] = work[swap], work[c]
+        scale = div(1, work[c][c])
+        work[c] = [mul(v, scale) for v in work[c]]
+        for r in range(size):
+            if r != c and work[r][c] != 0:
+                factor = work[r][c]
+                work[r] = [v ^ mul(factor, w) for v, w in zip(work[r], work[c])]
+    return [row[size:] for row in work]
+
+
+def encoding_matrix(data_shards: int, parity_shards: int) -> List[List[int]]:
+    total = data_shards + parity_shards
+    vandermonde = [[power(r, c) for c in range(data_shards)] for r in range(total)]
+    return matrix_multiply(vandermonde, invert(vandermonde[:data_shards]))
+
+
+def decode(data_shards: int, parity_shards: int, shards: Dict[int, bytes], size: int) -> bytes:
+    """
+    Reconstruct chunk data from any data_shards shards
+    Parameters:
+        shards: Shard data by shard index
+        size: Size of the original data, without padding
+    """
+    if len(shards) < data_shards:
+        raise ValueError('Not enough shards')
+
+    indices = sorted(shards.keys())[:data_shards]
+    if indices == list(range(data_shards)):
+        # All data shards available, no decoding needed
+        return b''.join(shards[i] for i in indices)[:size]
+
+    shard_size = len(shards[indices[0]])
+    matrix = encoding_matrix(data_shards, parity_shards)
+    decode_matrix = invert([matrix[i] for i in indices])
+
+    data = []
+    for row in decode_matrix:
+        accumulator = 0
+        for coefficient, index in zip(row, indices):
+            if coefficient != 0:
+                accumulator ^= int.from_bytes(shards[index].translate(MUL_TABLES[coefficient]), 'big')
+        data.append(accumulator.to_bytes(shard_size, 'big'))
+    return b''.join(data)[:size]
@@ -1,4 +1,4 @@
-from typing import Literal
+from typing import Literal, Optional, Dict, Any
 
 import errno
 from pyfuse3 import FUSEError  # pylint: disable=no-name-in-module
@@ -97,6 +97,12 @@ class Inode:
     def chunks_count(self) -> int:
         return self.ceildiv(self.size(), self.chunk_size())
 
+    def inline(self) -> Optional[Dict[str, Any]]:
+        """
+        Data of small files stored by the metaserver, sent with the inode info
+        """
+        return self.response.get('inline')
+
     def children(self):
         return self.response['children'].items()
 
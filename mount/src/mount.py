@@ -9,6 +9,7 @@ import logging
 
 import base64
 import hashlib
+import hmac
 from Crypto.Cipher import AES
 
 import requests
@@ -24,6 +25,7 @@ import trio
 
 import config
 import api
+import erasure
 from inode import Inode
 
 
@@ -136,6 +138,9 @@ class Operations(pyfuse3.Operations):
             chunk_data_encrypted = self._get_cipher(inode, chunk_index).encrypt(chunk_data)
             chunk_data_checksum = hashlib.md5(chunk_data_encrypted).hexdigest()
             chunk_data_size = len(chunk_data_encrypted)
+            # Keyed hash of the unencrypted data, so the metaserver can find chunks with the same
+            # content (the encrypted data differs per chunk) without learning anything about it.
+            content_hash = hmac.new(self.encryption_key, chunk_data, hashlib.sha256).hexdigest()
 
             assert len(chunk_data) == len(chunk_data_encrypted)
 
@@ -146,15 +151,24 @@ class Operations(pyfuse3.Operations):
                 'file': inode,
                 'chunk': chunk_index,
                 'checksum': chunk_data_checksum,
+                'content_hash': content_hash,
                 'size': chunk_data_size
             }
 
             if config.PREFERRED_LOCATION:
                 request_data['location'] = config.PREFERRED_LOCATION
 
+            if chunk_index == 0 and chunk_data_size <= config.INLINE_MAX_SIZE:
+                # Small file, send the data with the request so it is stored by the metaserver
+                request_data['inline_data'] = base64.b64encode(chunk_data_encrypted).decode()
+
             (success, response) = api.post('chunkUploadInit', data=request_data)
 
-            if success:
+            stored = success and response.get('stored', False)
+            if stored:
+                # Deduplicated, or small enough to be stored by the metaserver
+                log.info('Chunk %s for inode %s stored by metaserver, not uploading', chunk_index, inode)
+            elif success:
                 temp_id = response['id']
                 success_node_ids = []
                 nodes = response['nodes']
@@ -195,32 +209,33 @@ class Operations(pyfuse3.Operations):
                     time.sleep(3)
                     continue
 
-            if len(success_node_ids) == 0:
-                log.warning("Can't upload chunk, metaserver didn't return any nodes for us to upload to."
-                            " Trying again in 3 seconds.")
-                time.sleep(3)
-                continue
-
-            log.debug('Chunk uploaded, going to make chunk upload finalize request')
-            request_data = {
-                'id': temp_id,
-                'nodes': success_node_ids,
-            }
-            (success, response) = api.post('chunkUploadFinalize', data=request_data)
-            if success:
-                log.debug('Finalized upload for chunk %s inode %s', chunk_index, inode)
-            else:
-                if response == 2:  # file not exists
-                    log.warning('Failed to upload chunk, file no longer exists. Deleted in \
-                                between upload and finalize? Ignoring and removing from write buffer')
-                    del self.write_buffer[key]
-                    self.release_cache(inode)
-                    break
-                else:
-                    log.warning('Failure during chunkUploadFinalize %s, trying again in 3 seconds.', response)
+            if not stored:
+                if len(success_node_ids) == 0:
+                    log.warning("Can't upload chunk, metaserver didn't return any nodes for us to upload to."
+                                " Trying again in 3 seconds.")
                     time.sleep(3)
                     continue
 
+                log.debug('Chunk uploaded, going to make chunk upload finalize request')
+                request_data = {
+                    'id': temp_id,
+                    'nodes': success_node_ids,
+                }
+                (success, response) = api.post('chunkUploadFinalize', data=request_data)
+                if success:
+                    log.debug('Finalized upload for chunk %s inode %s', chunk_index, inode)
+                else:
+                    if response == 2:  # file not exists
+                        log.warning('Failed to upload chunk, file no longer exists. Deleted in \
+                                    between upload and finalize? Ignoring and removing from write buffer')
+                        del self.write_buffer[key]
+                        self.release_cache(inode)
+                        break
+                    else:
+                        log.warning('Failure during chunkUploadFinalize %s, trying again in 3 seconds.', response)
+                        time.sleep(3)
+                        continue
+
             # Mark the chunk we just uploaded as not modified (functioning as read cache)
             log.debug('upload successful')
 
@@ -604,6 +619,8 @@ class Operations(pyfuse3.Operations):
         if flags & os.O_TRUNC != 0:
             log.debug('truncating file on open')
             self.size_override[inode] = 0
+        else:
+            self._cache_inline_data(info)
 
         return pyfuse3.FileInfo(fh=fh)
 
@@ -651,15 +668,26 @@ class Operations(pyfuse3.Operations):
 
             (success, response) = api.post('chunkDownload', data=request_data)
             if success:
-                download_url = response['url']
                 checksum = response['checksum']
-                # Make request to chunkserver
-                node_response = api.get_requests_session().get(download_url)
-                if node_response.status_code == 200:
-                    chunk_data_encrypted = node_response.content
+                if 'data' in response:
+                    # Small chunk stored by the metaserver
+                    chunk_data_encrypted = base64.b64decode(response['data'])
+                    node_response = None
+                elif 'stripe' in response:
+                    # Erasure coded chunk, download shards and reconstruct data
+                    chunk_data_encrypted = self._download_stripe(response['stripe'])
+                    node_response = None
+                else:
+                    # Make request to chunkserver
+                    node_response = api.get_requests_session().get(response['url'])
+                    chunk_data_encrypted = node_response.content if node_response.status_code == 200 else None
+
+                if chunk_data_encrypted is not None:
                     if hashlib.md5(chunk_data_encrypted).hexdigest() == checksum:
                         log.info('Downloaded chunk %s for inode %s', chunk_index, inode)
-                        chunk_data = self._get_cipher(inode, chunk_index).decrypt(chunk_data_encrypted)
+                        # Data of a deduplicated chunk is encrypted for the position of the chunk that stores it
+                        cipher = self._get_cipher(response.get('iv_inode', inode), response.get('iv_index', chunk_index))
+                        chunk_data = cipher.decrypt(chunk_data_encrypted)
 
                         # Insert downloaded data into read cache
                         self.read_cache[key] = (chunk_data, time.time())
@@ -670,7 +698,7 @@ class Operations(pyfuse3.Operations):
                                   inode, chunk_index, len(chunk_data_encrypted))
                         if len(chunk_data_encrypted) < 300:
                             log.error('data: %s', chunk_data_encrypted)
-                else:
+                elif node_response is not None:
                     log.error('Chunk server non-200 HTTP response code while downloading data %s.%s %s',
                               inode, chunk_index, node_response.content.decode())
             else:
@@ -687,6 +715,48 @@ class Operations(pyfuse3.Operations):
                 log.warning(f'Error during download, retrying ({tries} tries left).')
                 return self._get_chunk_data(inode, chunk_index, tries=(tries - 1))
 
+    def _cache_inline_data(self, info: Inode) -> None:
+        """
+        Insert data of a small file, sent with the inode info, into the read cache so reading
+        it doesn't need a chunk download
+        """
+        inline = info.inline()
+        if inline is None:
+            return
+
+        inode = info.inode()
+        chunk_data_encrypted = base64.b64decode(inline['data'])
+        if hashlib.md5(chunk_data_encrypted).hexdigest() != inline['checksum']:
+            log.warning('Checksum error in inline data for inode %s, ignoring', inode)
+            return
+
+        cipher = self._get_cipher(inline.get('iv_inode', inode), inline.get('iv_index', 0))
+        self.lock_cache(inode)
+        key = (inode, 0)
+        if key not in self.write_buffer:
+            self.read_cache[key] = (cipher.decrypt(chunk_data_encrypted), time.time())
+        self.release_cache(inode)
+
+    def _download_stripe(self, stripe: Dict[str, Any]) -> Optional[bytes]:
+        """
+        Download shards of an erasure coded chunk. The metaserver sends exactly as many
+        shards as are needed to reconstruct the data.
+        Returns: Chunk data, or None if a shard could not be downloaded
+        """
+        shards = {}
+        for shard in stripe['shards']:
+            node_response = api.get_requests_session().get(shard['url'])
+            if node_response.status_code != 200:
+                log.error('Chunk server non-200 HTTP response code while downloading shard %s: %s',
+                          shard['index'], node_response.content.decode())
+                return None
+            if hashlib.md5(node_response.content).hexdigest() != shard['checksum']:
+                log.error('Checksum error while downloading shard %s', shard['index'])
+                return None
+            shards[shard['index']] = node_response.content
+
+        return erasure.decode(stripe['data_shards'], stripe['parity_shards'], shards, stripe['size'])
+
     async def read(self, fh: int, offset: int, length: int) -> bytes:
         inode_info = self._get_fh_info(fh)
         start_chunk = offset // inode_info.chunk_size()